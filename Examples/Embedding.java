@@ -0,0 +1,33 @@
+import Interpreter.Engine;
+import Interpreter.ExecutionContext;
+import Interpreter.Interpreter;
+import Interpreter.Script;
+
+import java.io.StringWriter;
+
+/**
+ * Runs a script from Java and reads its variables afterwards, with and without the optimizer, and fails if anything differs from
+ * what the script computed. From the root, after mvn compile: java -cp target/classes Examples/Embedding.java
+ */
+public class Embedding {
+    public static void main(String[] args)
+    {
+        String[] lines = {"START", "x = 5", "y = x * 2", "s = \"never read\"", "x = 7", "out y", "END"};
+        boolean failed = false;
+        for(boolean optimize : new boolean[]{true, false})
+        {
+            Script script = new Engine(optimize, Interpreter.backendMode.Tree).compile(lines);
+            ExecutionContext context = script.newContext();
+            StringWriter output = new StringWriter();
+            context.setOutput(output);
+            script.run(context);
+
+            String found = output.toString().trim() + " x=" + context.getValue("x") + " y=" + context.getValue("y") + " s="
+                + context.getValue("s") + " z=" + context.getValue("z");
+            String expected = "10 x=7 y=10 s=never read z=null";
+            System.out.println((found.equals(expected) ? "ok   " : "FAIL ") + (optimize ? "optimized   " : "unoptimized ") + found);
+            failed |= !found.equals(expected);
+        }
+        System.exit(failed ? 1 : 0);
+    }
+}
@@ -0,0 +1,33 @@
+#!/bin/sh
+# Runs every example with and without the optimizer and fails if what they print differs, errors included. With a backend given, the
+# unoptimized run has to print the same as the tree backend's too.
+# From the root, after mvn compile: sh Examples/differential.sh [extra options for both runs, e.g. bytecode]
+CLASSES=${CLASSES:-target/classes}
+status=0
+for script in Examples/*.goss
+do
+    case "$script" in
+        */Division.goss) input='7\n2\n' ;;
+        *) input='' ;;
+    esac
+    optimized=$(printf "$input" | java -cp "$CLASSES" Interpreter.Interpreter "$script" "$@" 2>&1)
+    unoptimized=$(printf "$input" | java -cp "$CLASSES" Interpreter.Interpreter "$script" noopt "$@" 2>&1)
+    tree=$unoptimized
+    if [ $# -gt 0 ]
+    then
+        tree=$(printf "$input" | java -cp "$CLASSES" Interpreter.Interpreter "$script" noopt 2>&1)
+    fi
+    if [ "$optimized" = "$unoptimized" ] && [ "$unoptimized" = "$tree" ]
+    then
+        echo "ok   $script $*"
+    else
+        echo "FAIL $script $*"
+        printf '%s\n' "$tree" > /tmp/tree.txt
+        printf '%s\n' "$optimized" > /tmp/optimized.txt
+        printf '%s\n' "$unoptimized" > /tmp/unoptimized.txt
+        diff /tmp/unoptimized.txt /tmp/optimized.txt
+        diff /tmp/tree.txt /tmp/unoptimized.txt
+        status=1
+    fi
+done
+exit $status
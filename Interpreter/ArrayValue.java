@@ -0,0 +1,227 @@
+package Interpreter;
+
+import java.util.Arrays;
+
+/**
+ * Arrays of the language, the Object of an ARRAY value (see Values). Made by a list literal, [1, 2, 3], or by repeating one, [0] * n.
+ * Storage is picked by what's in the array so the common cases stay unboxed:
+ * - only whole numbers that fit a long: a long[]
+ * - only booleans: a boolean[], a byte per element so a sieve of 10^7 is 10MB
+ * - anything else (strings, decimals, arrays, a mix): the tag/long/Object arrays of Values
+ * Writing something the storage can't hold widens it to the mixed kind once, it never narrows again.
+ * Arrays are shared by reference, b = a makes both names point at the same array. Like a context, nothing in here is synchronized.
+ */
+public final class ArrayValue {
+    public static final int MAX_LENGTH = Integer.MAX_VALUE - 8; // Largest array the JVM reliably hands out
+
+    private byte kind; // Values.NUMBER, Values.BOOLEAN, or Values.NONE for mixed
+    private final int length;
+    private long[] longs; // NUMBER, and the long of mixed
+    private boolean[] booleans; // BOOLEAN
+    private byte[] tags; // Mixed
+    private Object[] objects; // Mixed
+
+    private ArrayValue(byte kind, int length)
+    {
+        this.kind = kind;
+        this.length = length;
+        switch(kind)
+        {
+            case Values.NUMBER:
+                longs = new long[length];
+                break;
+            case Values.BOOLEAN:
+                booleans = new boolean[length];
+                break;
+            default:
+                tags = new byte[length];
+                longs = new long[length];
+                objects = new Object[length];
+                break;
+        }
+    }
+
+    /**
+     * Array of the values [from, to) of the parallel arrays, with the tightest storage that holds them all.
+     */
+    public static ArrayValue of(byte[] tags, long[] numbers, Object[] objects, int from, int to)
+    {
+        byte kind = Values.NUMBER;
+        for(int i = from; i < to; i++)
+        {
+            if(i == from && tags[i] == Values.BOOLEAN)
+            {
+                kind = Values.BOOLEAN;
+            } else if(tags[i] != kind) {
+                kind = Values.NONE;
+                break;
+            }
+        }
+
+        ArrayValue array = new ArrayValue(kind, to - from);
+        for(int i = from; i < to; i++)
+        {
+            array.set(i - from, tags[i], numbers[i], objects[i]);
+        }
+        return array;
+    }
+
+    /**
+     * @return a new array with this one's elements times times over, [0] * 3 is [0, 0, 0]. Null if that's too long (or negative).
+     */
+    public ArrayValue repeat(long times)
+    {
+        if(times < 0 || (length > 0 && times > MAX_LENGTH / length))
+        {
+            return null;
+        }
+        ArrayValue array = new ArrayValue(kind, (int)(length * times));
+        if(length == 1)
+        {
+            // [x] * n, the usual way to make an array.
+            switch(kind)
+            {
+                case Values.NUMBER:
+                    Arrays.fill(array.longs, longs[0]);
+                    break;
+                case Values.BOOLEAN:
+                    Arrays.fill(array.booleans, booleans[0]);
+                    break;
+                default:
+                    Arrays.fill(array.tags, tags[0]);
+                    Arrays.fill(array.longs, longs[0]);
+                    Arrays.fill(array.objects, objects[0]);
+                    break;
+            }
+            return array;
+        }
+        for(int copy = 0; copy < array.length; copy += length)
+        {
+            copyTo(array, copy);
+        }
+        return array;
+    }
+
+    /**
+     * @return a new array with the same elements. Arrays in it are the same arrays, not copies.
+     */
+    public ArrayValue copy()
+    {
+        ArrayValue array = new ArrayValue(kind, length);
+        copyTo(array, 0);
+        return array;
+    }
+
+    private void copyTo(ArrayValue array, int at)
+    {
+        switch(kind)
+        {
+            case Values.NUMBER:
+                System.arraycopy(longs, 0, array.longs, at, length);
+                break;
+            case Values.BOOLEAN:
+                System.arraycopy(booleans, 0, array.booleans, at, length);
+                break;
+            default:
+                System.arraycopy(tags, 0, array.tags, at, length);
+                System.arraycopy(longs, 0, array.longs, at, length);
+                System.arraycopy(objects, 0, array.objects, at, length);
+                break;
+        }
+    }
+
+    public int length()
+    {
+        return length;
+    }
+
+    /*
+     * Element i as a Values tag, long and Object. Bounds are the caller's job, see Evaluator.
+     */
+
+    public byte tag(int i)
+    {
+        switch(kind)
+        {
+            case Values.NUMBER:
+                return Values.NUMBER;
+            case Values.BOOLEAN:
+                return Values.BOOLEAN;
+            default:
+                return tags[i];
+        }
+    }
+
+    public long number(int i)
+    {
+        if(kind == Values.BOOLEAN)
+        {
+            return booleans[i] ? 1 : 0;
+        }
+        return longs[i];
+    }
+
+    public Object object(int i)
+    {
+        return kind == Values.NONE ? objects[i] : null;
+    }
+
+    public void set(int i, byte tag, long number, Object object)
+    {
+        if(kind == Values.NUMBER && tag == Values.NUMBER)
+        {
+            longs[i] = number;
+            return;
+        }
+        if(kind == Values.BOOLEAN && tag == Values.BOOLEAN)
+        {
+            booleans[i] = number != 0;
+            return;
+        }
+        if(kind != Values.NONE)
+        {
+            widen();
+        }
+        tags[i] = tag;
+        longs[i] = number;
+        objects[i] = object;
+    }
+
+    /**
+     * Moves a long[] or boolean[] array over to mixed storage.
+     */
+    private void widen()
+    {
+        tags = new byte[length];
+        objects = new Object[length];
+        if(kind == Values.BOOLEAN)
+        {
+            longs = new long[length];
+            for(int i = 0; i < length; i++)
+            {
+                longs[i] = booleans[i] ? 1 : 0;
+            }
+            booleans = null;
+        }
+        Arrays.fill(tags, kind);
+        kind = Values.NONE;
+    }
+
+    /**
+     * @return how out prints the array, e.g. [1, 2, 3]
+     */
+    @Override
+    public String toString()
+    {
+        StringBuilder text = new StringBuilder("[");
+        for(int i = 0; i < length; i++)
+        {
+            if(i > 0)
+            {
+                text.append(", ");
+            }
+            text.append(Values.toText(tag(i), number(i), object(i)));
+        }
+        return text.append(']').toString();
+    }
+}
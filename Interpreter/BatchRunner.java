@@ -0,0 +1,117 @@
+package Interpreter;
+
+import Interpreter.Interfaces.IOutput;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Batch mode: runs a script once per record of an input stream. A record is one line, its fields are separated by commas and go to
+ * successive in statements of that run, so
+ *
+ *     7, 2
+ *
+ * runs the script with 7 for the first in and 2 for the second. Every run gets its own ExecutionContext and they run on a pool of
+ * worker threads, but their output is written in the order of the records. Reading runs ahead of writing by a few records per thread
+ * at most, so any amount of input streams through in constant memory.
+ */
+public class BatchRunner {
+    private static final int RECORDS_PER_THREAD = 4; // In flight at once, enough to keep every worker busy while output is written
+
+    private final Script script;
+    private final int threads;
+
+    /**
+     * @param script compiled script, shared by every run
+     * @param threads worker threads
+     */
+    public BatchRunner(Script script, int threads)
+    {
+        this.script = script;
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * @param records one record per line, until the end of the stream
+     * @param output where the output of every run goes, in record order. Flushed at the end.
+     * @return records run
+     */
+    public long run(BufferedReader records, Writer output) throws IOException
+    {
+        ExecutorService workers = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "goss-batch");
+            thread.setDaemon(true);
+            return thread;
+        });
+        ArrayDeque<Future<String>> inFlight = new ArrayDeque<Future<String>>();
+        long count = 0;
+
+        try {
+            String record;
+            while((record = records.readLine()) != null)
+            {
+                if(inFlight.size() >= threads * RECORDS_PER_THREAD)
+                {
+                    write(inFlight.poll(), output);
+                }
+                String fields = record;
+                inFlight.add(workers.submit(() -> runRecord(fields)));
+                count++;
+            }
+            while(!inFlight.isEmpty())
+            {
+                write(inFlight.poll(), output);
+            }
+            output.flush();
+        } finally {
+            workers.shutdownNow();
+        }
+        Interpreter.log("Batch ran " + count + " records.");
+        return count;
+    }
+
+    private String runRecord(String record)
+    {
+        // Fields become lines, so in reads them like it reads anything else.
+        StringBuilder input = new StringBuilder(record.length());
+        for(String field : record.split(","))
+        {
+            input.append(field.trim()).append('\n');
+        }
+
+        ExecutionContext context = script.newContext();
+        // Kept until it's this record's turn to be written.
+        TextOutput output = new TextOutput();
+        context.setInput(new BufferedReader(new StringReader(input.toString())));
+        context.setOutput(output);
+        // Errors too, so they come out with the record's output instead of whenever the worker hits them.
+        IOutput previous = Interpreter.getLog();
+        Interpreter.setLog(output);
+        try {
+            script.run(context);
+        } finally {
+            Interpreter.setLog(previous);
+        }
+        return output.toString();
+    }
+
+    private static void write(Future<String> run, Writer output) throws IOException
+    {
+        try {
+            output.write(run.get());
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for a record.", e);
+        } catch(ExecutionException e) {
+            // Scripts report their own errors, this is the interpreter itself falling over. The record just has no output.
+            Interpreter.log("Err. Running a record failed: " + e.getCause());
+        }
+    }
+}
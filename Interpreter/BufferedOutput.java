@@ -0,0 +1,102 @@
+package Interpreter;
+
+import Interpreter.Interfaces.IOutput;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+
+/**
+ * Collects lines from out and only writes them to the sink when the buffer fills up or the output is flushed (the end of every run, and
+ * before in waits for input so prompts still show up). Printing a line is then just an append, instead of System.out locking and
+ * flushing for every single value.
+ *
+ * Lines are only ever written whole, in one block per flush, while holding the sink's lock. So several runs can share one sink (an
+ * OutputStream, Writer, System.out...) without their lines getting torn, and a run whose output fits in the buffer shows up as one
+ * contiguous block when it ends.
+ * One BufferedOutput belongs to one context, like the context itself it isn't synchronized.
+ */
+public class BufferedOutput implements IOutput {
+    public static final int DEFAULT_SIZE = 8192; // Characters
+
+    private final Object lock; // The sink passed in, shared by every BufferedOutput writing to it
+    private final Writer writer;
+    private final int size;
+    private final StringBuilder buffer;
+
+    public BufferedOutput(OutputStream out)
+    {
+        this(out, DEFAULT_SIZE);
+    }
+
+    /**
+     * @param out sink, text is written in the platform charset like System.out does
+     * @param size characters to buffer before writing to the sink, 0 writes every line straight away
+     */
+    public BufferedOutput(OutputStream out, int size)
+    {
+        this(out, new OutputStreamWriter(out, Charset.defaultCharset()), size);
+    }
+
+    public BufferedOutput(Writer writer)
+    {
+        this(writer, DEFAULT_SIZE);
+    }
+
+    /**
+     * @param writer sink, a StringWriter keeps the output in memory
+     * @param size characters to buffer before writing to the sink, 0 writes every line straight away
+     */
+    public BufferedOutput(Writer writer, int size)
+    {
+        this(writer, writer, size);
+    }
+
+    private BufferedOutput(Object lock, Writer writer, int size)
+    {
+        this.lock = lock;
+        this.writer = writer;
+        this.size = Math.max(0, size);
+        buffer = new StringBuilder(Math.min(this.size, DEFAULT_SIZE) + 64);
+    }
+
+    @Override
+    public void println(String line)
+    {
+        buffer.append(line).append(System.lineSeparator());
+        if(buffer.length() >= size)
+        {
+            flush();
+        }
+    }
+
+    @Override
+    public void flush()
+    {
+        if(buffer.length() == 0)
+        {
+            return;
+        }
+        synchronized(lock)
+        {
+            try {
+                writer.append(buffer);
+                writer.flush();
+            } catch(IOException e) {
+                // Nowhere to print it, the output is lost. Same as PrintStream, it doesn't stop the script.
+                Interpreter.log("Err. Writing output failed: " + e.getMessage());
+            }
+        }
+        buffer.setLength(0);
+    }
+
+    /**
+     * @return characters waiting for the next flush
+     */
+    public int buffered()
+    {
+        return buffer.length();
+    }
+}
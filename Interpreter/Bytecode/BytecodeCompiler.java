@@ -0,0 +1,571 @@
+package Interpreter.Bytecode;
+
+import Interpreter.ExecutionContext;
+import Interpreter.Instruction;
+import Interpreter.Interpreter;
+import Interpreter.Parser;
+import Interpreter.Procedure;
+import Interpreter.SymbolTable;
+import Interpreter.Values;
+import Interpreter.Interfaces.ITokenMap;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.function.Consumer;
+
+/**
+ * Compiles a procedure into a hidden JVM class with a single static run(ExecutionContext) method, so HotSpot can JIT the whole script.
+ * - Tags become labels, jump is a goto and jump? a conditional branch.
+ * - Variables become locals of the generated method, after the context. Every run has its own, so runs can overlap freely.
+ * - Every statement gets its own exception handler: a failing statement is reported and execution carries on with the next one.
+ * Expressions follow the same precedence as the Evaluator, || and && short circuit with a branch.
+ */
+public class BytecodeCompiler {
+    private static final String CLASS_NAME = "Interpreter/Bytecode/GossScript";
+    private static final String RUNTIME = "Interpreter/Bytecode/GossRuntime";
+    private static final String BINARY = "(Ljava/lang/Object;Ljava/lang/Object;)Ljava/lang/Object;";
+    private static final String CONTEXT_TYPE = "LInterpreter/ExecutionContext;";
+    private static final int CONTEXT = 0; // Local holding the context, variables come after it
+    private static final int MAX_CODE_SIZE = Short.MAX_VALUE;
+    private static final int MAX_LOCALS = 0xFFFF; // What a method can have
+
+    /**
+     * Expression tree. Leaves are tokens, everything else calls a GossRuntime helper.
+     */
+    private static final class Node {
+        final int kind;
+        final String text;
+        final String helper;
+        final Node left, right;
+        final Node[] elements; // Array literals
+
+        Node(int kind, String text)
+        {
+            this(kind, text, null, null, null);
+        }
+
+        Node(int kind, String text, String helper, Node left, Node right)
+        {
+            this.kind = kind;
+            this.text = text;
+            this.helper = helper;
+            this.left = left;
+            this.right = right;
+            elements = null;
+        }
+
+        Node(Node[] elements)
+        {
+            kind = ITokenMap.SET;
+            text = null;
+            helper = "list";
+            left = right = null;
+            this.elements = elements;
+        }
+    }
+
+    private ClassFileWriter classFile;
+    private CodeBuilder code;
+    private SymbolTable locals;
+    private int[] statementLabels;
+    private Procedure procedure;
+
+    /*
+     * Expression being turned into a tree.
+     */
+    private ITokenMap tm;
+    private int position;
+    private int end;
+
+    /**
+     * @param procedure
+     * @return runs the generated class in a context, or null if the procedure can't be compiled to bytecode.
+     */
+    public Consumer<ExecutionContext> compile(Procedure procedure)
+    {
+        this.procedure = procedure;
+        classFile = new ClassFileWriter();
+        code = new CodeBuilder(classFile);
+        // Variable slots double as local variable indices.
+        locals = procedure.getSymbols();
+
+        Instruction[] instructions = procedure.getInstructions();
+        if(locals.size() + 1 > MAX_LOCALS)
+        {
+            Interpreter.log("Too many variables for the bytecode backend: " + locals.size());
+            return null;
+        }
+
+        statementLabels = new int[instructions.length + 1];
+        for(int i = 0; i < statementLabels.length; i++)
+        {
+            statementLabels[i] = code.newLabel();
+        }
+
+        // Locals have to be definitely assigned before the verifier lets anyone read them.
+        code.reserveLocals(CONTEXT + 1);
+        for(int slot = 0; slot < locals.size(); slot++)
+        {
+            code.aconstNull();
+            code.astore(local(slot));
+        }
+
+        for(int i = 0; i < instructions.length; i++)
+        {
+            int end = code.newLabel();
+            int handler = code.newLabel();
+
+            code.mark(statementLabels[i]);
+            int startSize = code.size();
+            emitStatement(instructions[i]);
+            code.mark(end);
+
+            if(code.size() > startSize)
+            {
+                code.gotoLabel(statementLabels[i + 1]);
+                code.markHandler(handler);
+                code.ldcInt(instructions[i].getLine());
+                code.aload(CONTEXT);
+                code.invokestatic(RUNTIME, isOut(instructions[i]) ? "outFailed" : "failed", "(Ljava/lang/RuntimeException;I" + CONTEXT_TYPE + ")V",
+                    3, false);
+                code.tryCatch(statementLabels[i], end, handler, "java/lang/RuntimeException");
+            }
+        }
+        code.mark(statementLabels[instructions.length]);
+        code.returnVoid();
+
+        if(code.size() > MAX_CODE_SIZE)
+        {
+            Interpreter.log("Procedure too large for the bytecode backend.");
+            return null;
+        }
+
+        try {
+            byte[] bytes = classFile.toByteArray(CLASS_NAME, "run", "(" + CONTEXT_TYPE + ")V", code);
+            MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(bytes, true);
+            MethodHandle run = lookup.findStatic(lookup.lookupClass(), "run", MethodType.methodType(void.class, ExecutionContext.class));
+            Interpreter.log("Generated " + bytes.length + " bytes of class file.");
+            return context -> {
+                try {
+                    run.invokeExact(context);
+                } catch(Throwable t) {
+                    Interpreter.log("Err. Generated procedure failed: " + t);
+                }
+            };
+        } catch(ReflectiveOperationException | LinkageError e) {
+            Interpreter.log("Err. Generated class was rejected: " + e);
+            return null;
+        }
+    }
+
+    /**
+     * @return local variable index of a variable slot
+     */
+    private static int local(int slot)
+    {
+        return slot + CONTEXT + 1;
+    }
+
+    private static boolean isOut(Instruction instruction)
+    {
+        ITokenMap tm = instruction.getTokenMap();
+        return tm != null && tm.size() > 0 && tm.getKeywordIndex() == 0 && tm.tokenEquals(0, "out");
+    }
+
+    private void emitStatement(Instruction instruction)
+    {
+        ITokenMap tm = instruction.getTokenMap();
+        if(tm == null)
+        {
+            // Stops the script, like the tree backend.
+            code.ldcInt(instruction.getLine());
+            code.aload(CONTEXT);
+            code.invokestatic(RUNTIME, "unparsed", "(I" + CONTEXT_TYPE + ")V", 2, false);
+            code.returnVoid();
+            return;
+        }
+        int size = tm.size();
+        if(size == 0)
+        {
+            return;
+        }
+
+        if(tm.getKeywordIndex() == 0 && !tm.tokenEquals(0, "in"))
+        {
+            switch(tm.getToken(0))
+            {
+                case "out":
+                    emitValue(parseExpression(tm, 1, size));
+                    code.aload(CONTEXT);
+                    code.invokestatic(RUNTIME, "out", "(Ljava/lang/Object;" + CONTEXT_TYPE + ")V", 2, false);
+                    return;
+
+                case "jump":
+                    if(size != 2)
+                    {
+                        emitFail("Err. Incorrect usage of jump keyword.");
+                        return;
+                    }
+                    int target = procedure.getTagIndex(tm.getToken(1));
+                    if(target < 0)
+                    {
+                        emitFail("Err. Unexpected tag found.");
+                    } else {
+                        code.gotoLabel(statementLabels[target]);
+                    }
+                    return;
+
+                case "jump?":
+                    if(size < 3)
+                    {
+                        emitFail("Err. Incorrect usage of jump? keyword.");
+                        return;
+                    }
+                    int conditionalTarget = procedure.getTagIndex(tm.getToken(size - 1));
+                    emitValue(parseExpression(tm, 1, size - 1));
+                    if(conditionalTarget < 0)
+                    {
+                        code.ldcString("Err. Unexpected tag found.");
+                        code.invokestatic(RUNTIME, "failIfTrue", "(Ljava/lang/Object;Ljava/lang/String;)V", 2, false);
+                    } else {
+                        code.invokestatic(RUNTIME, "isTrue", "(Ljava/lang/Object;)Z", 1, true);
+                        code.ifne(statementLabels[conditionalTarget]);
+                    }
+                    return;
+
+                default:
+                    emitFail("Err. The keyword switch fell through to default.");
+                    return;
+            }
+        }
+
+        int assignIndex = tm.getAssignmentIndex();
+        if(assignIndex > 0)
+        {
+            if(!tm.tokenEquals(assignIndex, "="))
+            {
+                // Calls need frames, the Engine runs scripts that make them on the tree backend.
+                emitFail("Err. Calls only run on the tree backend.");
+                return;
+            }
+            if(tm.getKinds()[assignIndex - 1] == ITokenMap.SET && tm.tokenEquals(assignIndex - 1, "]"))
+            {
+                // a[i] = value: array, index, value, same order as the Evaluator.
+                int open = Parser.openingBracket(tm, assignIndex - 1);
+                if(open <= 0)
+                {
+                    emitFail("Err. Can only assign to a variable.");
+                    return;
+                }
+                emitValue(parseExpression(tm, 0, open));
+                emitValue(parseExpression(tm, open + 1, assignIndex - 1));
+                emitValue(parseExpression(tm, assignIndex + 1, size));
+                code.invokestatic(RUNTIME, "store", "(Ljava/lang/Object;Ljava/lang/Object;Ljava/lang/Object;)V", 3, false);
+                return;
+            }
+            if(tm.getKinds()[assignIndex - 1] != ITokenMap.VARIABLE)
+            {
+                emitFail("Err. Can only assign to a variable.");
+                return;
+            }
+            emitValue(parseExpression(tm, assignIndex + 1, size));
+            code.astore(local(locals.lookup(tm.getToken(assignIndex - 1))));
+            return;
+        }
+
+        // Nothing to store, but the expression still runs so its errors get reported.
+        emitValue(parseExpression(tm, 0, size));
+        code.pop();
+    }
+
+    /**
+     * Builds the tree of tokens [from, to) by precedence climbing, same grammar as the Evaluator (see Parser.precedence).
+     * Syntax errors come back as a fail node so they're reported when the statement runs.
+     */
+    private Node parseExpression(ITokenMap tm, int from, int to)
+    {
+        this.tm = tm;
+        position = from;
+        end = to;
+        if(from >= to)
+        {
+            return failNode("Err. Missing expression.");
+        }
+
+        Node node = climb(1);
+        if(!isFail(node) && position != end)
+        {
+            return failNode("Err. Unexpected token: " + tm.getToken(position));
+        }
+        return node;
+    }
+
+    private Node climb(int minPrecedence)
+    {
+        Node left = primary();
+        while(!isFail(left) && position < end)
+        {
+            int precedence = Parser.precedence(tm, position);
+            if(precedence == 0 || precedence < minPrecedence)
+            {
+                break;
+            }
+            int operator = position++;
+            Node right = climb(precedence + 1);
+            if(isFail(right))
+            {
+                return right;
+            }
+            left = new Node(tm.getKinds()[operator], null, helperFor(tm.getToken(operator)), left, right);
+        }
+        return left;
+    }
+
+    private Node primary()
+    {
+        if(position >= end)
+        {
+            return failNode("Err. Missing operand.");
+        }
+
+        int i = position++;
+        int kind = tm.getKinds()[i];
+        switch(kind)
+        {
+            case ITokenMap.NUMERIC:
+            case ITokenMap.STRING:
+            case ITokenMap.LOGIC:
+                return new Node(kind, tm.getToken(i));
+
+            case ITokenMap.VARIABLE:
+                Node node = new Node(kind, tm.getToken(i));
+                // a[i], a[i][j]...
+                while(!isFail(node) && position < end && tm.tokenEquals(position, "["))
+                {
+                    position++;
+                    Node index = climb(1);
+                    if(isFail(index))
+                    {
+                        return index;
+                    }
+                    if(position >= end || !tm.tokenEquals(position, "]"))
+                    {
+                        return failNode("Err. Missing ] after index.");
+                    }
+                    position++;
+                    node = new Node(ITokenMap.SET, null, "index", node, index);
+                }
+                return node;
+
+            case ITokenMap.SET:
+                if(!tm.tokenEquals(i, "["))
+                {
+                    return failNode("Err. Unexpected token: " + tm.getToken(i));
+                }
+                return list();
+
+            case ITokenMap.KEYWORD:
+                if(!tm.tokenEquals(i, "in"))
+                {
+                    return failNode("Err. Unexpected keyword in expression: " + tm.getToken(i));
+                }
+                return new Node(kind, null, "in", null, null);
+
+            case ITokenMap.OPERATOR:
+                if(!tm.tokenEquals(i, "-"))
+                {
+                    return failNode("Err. Unexpected token: " + tm.getToken(i));
+                }
+                Node operand = primary();
+                return isFail(operand) ? operand : new Node(kind, null, "negate", operand, null);
+
+            default:
+                return failNode("Err. Unexpected token: " + tm.getToken(i));
+        }
+    }
+
+    /**
+     * [ element, element... ], position is just after the [.
+     */
+    private Node list()
+    {
+        ArrayList<Node> elements = new ArrayList<Node>();
+        if(position < end && tm.tokenEquals(position, "]"))
+        {
+            position++;
+            return new Node(new Node[0]);
+        }
+        while(true)
+        {
+            Node element = climb(1);
+            if(isFail(element))
+            {
+                return element;
+            }
+            elements.add(element);
+            if(position < end && tm.tokenEquals(position, ","))
+            {
+                position++;
+                continue;
+            }
+            if(position < end && tm.tokenEquals(position, "]"))
+            {
+                position++;
+                return new Node(elements.toArray(new Node[0]));
+            }
+            return failNode("Err. Missing ] after array.");
+        }
+    }
+
+    private static boolean isFail(Node node)
+    {
+        return "fail".equals(node.helper);
+    }
+
+    private static Node failNode(String message)
+    {
+        return new Node(ITokenMap.WHITESPACE, message, "fail", null, null);
+    }
+
+    private void emitValue(Node node)
+    {
+        if(node.helper == null)
+        {
+            switch(node.kind)
+            {
+                case ITokenMap.VARIABLE:
+                    code.aload(local(locals.lookup(node.text)));
+                    code.ldcString(node.text);
+                    code.invokestatic(RUNTIME, "read", "(Ljava/lang/Object;Ljava/lang/String;)Ljava/lang/Object;", 2, true);
+                    return;
+
+                case ITokenMap.NUMERIC:
+                    long[] number = new long[1];
+                    switch(Values.parseNumber(node.text, number, new Object[1], 0))
+                    {
+                        case Values.NUMBER:
+                            code.ldcLong(number[0]);
+                            code.invokestatic("java/lang/Long", "valueOf", "(J)Ljava/lang/Long;", 2, true);
+                            break;
+                        case Values.DECIMAL:
+                            code.ldcDouble(Double.longBitsToDouble(number[0]));
+                            code.invokestatic("java/lang/Double", "valueOf", "(D)Ljava/lang/Double;", 2, true);
+                            break;
+                        case Values.BIG:
+                            code.ldcString(node.text);
+                            code.invokestatic(RUNTIME, "big", "(Ljava/lang/String;)Ljava/lang/Object;", 1, true);
+                            break;
+                        default:
+                            emitFailValue("Err. Unable to format numeric type.");
+                            break;
+                    }
+                    return;
+
+                case ITokenMap.STRING:
+                    code.ldcString(node.text.substring(1, node.text.length() - 1));
+                    return;
+
+                default:
+                    code.getstatic("java/lang/Boolean", node.text.equals("true") ? "TRUE" : "FALSE", "Ljava/lang/Boolean;");
+                    return;
+            }
+        }
+
+        switch(node.helper)
+        {
+            case "fail":
+                emitFailValue(node.text);
+                return;
+
+            case "in":
+                code.aload(CONTEXT);
+                code.invokestatic(RUNTIME, "in", "(" + CONTEXT_TYPE + ")Ljava/lang/Object;", 1, true);
+                return;
+
+            case "negate":
+                emitValue(node.left);
+                code.invokestatic(RUNTIME, "negate", "(Ljava/lang/Object;)Ljava/lang/Object;", 1, true);
+                return;
+
+            case "list":
+                // Elements go into an Object[] one by one, then become an array.
+                code.ldcInt(node.elements.length);
+                code.invokestatic(RUNTIME, "newList", "(I)[Ljava/lang/Object;", 1, true);
+                for(int i = 0; i < node.elements.length; i++)
+                {
+                    code.dup();
+                    code.ldcInt(i);
+                    emitValue(node.elements[i]);
+                    code.invokestatic(RUNTIME, "element", "([Ljava/lang/Object;ILjava/lang/Object;)V", 3, false);
+                }
+                code.invokestatic(RUNTIME, "list", "([Ljava/lang/Object;)Ljava/lang/Object;", 1, true);
+                return;
+
+            case "orElse":
+            case "andThen":
+                // Short circuit: the left value is the result if it already decides it, otherwise the right one is.
+                int done = code.newLabel();
+                emitValue(node.left);
+                code.invokestatic(RUNTIME, "bool", "(Ljava/lang/Object;)Ljava/lang/Object;", 1, true);
+                code.dup();
+                code.invokestatic(RUNTIME, "isTrue", "(Ljava/lang/Object;)Z", 1, true);
+                if(node.helper.equals("orElse"))
+                {
+                    code.ifne(done);
+                } else {
+                    code.ifeq(done);
+                }
+                code.pop();
+                emitValue(node.right);
+                code.invokestatic(RUNTIME, "bool", "(Ljava/lang/Object;)Ljava/lang/Object;", 1, true);
+                code.mark(done);
+                return;
+
+            default:
+                emitValue(node.left);
+                emitValue(node.right);
+                code.invokestatic(RUNTIME, node.helper, BINARY, 2, true);
+                return;
+        }
+    }
+
+    private void emitFail(String message)
+    {
+        code.ldcString(message);
+        code.invokestatic(RUNTIME, "fail", "(Ljava/lang/String;)V", 1, false);
+    }
+
+    /**
+     * Fails where a value is expected. Pushes a null afterwards so the stack stays balanced for the verifier.
+     */
+    private void emitFailValue(String message)
+    {
+        emitFail(message);
+        code.aconstNull();
+    }
+
+    private static String helperFor(String operator)
+    {
+        switch(operator)
+        {
+            case "+": return "add";
+            case "-": return "subtract";
+            case "*": return "multiply";
+            case "/": return "divide";
+            case "%": return "modulo";
+            case "==": return "equal";
+            case "!=": return "notEqual";
+            case "<": return "less";
+            case "<=": return "lessEqual";
+            case ">": return "greater";
+            case ">=": return "greaterEqual";
+            case "|": return "or";
+            case "||": return "orElse";
+            case "&": return "and";
+            case "&&": return "andThen";
+            default: return "fail";
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package Interpreter.Bytecode;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+
+/**
+ * Just enough of the class file format to write a class with a single static method.
+ * Version 49 class files are verified by type inference, so no stack map frames are needed.
+ */
+public class ClassFileWriter {
+    private static final int VERSION = 49;
+    private static final int ACC_PUBLIC = 0x0001;
+    private static final int ACC_STATIC = 0x0008;
+    private static final int ACC_FINAL = 0x0010;
+    private static final int ACC_SUPER = 0x0020;
+
+    private final ByteArrayOutputStream poolBytes = new ByteArrayOutputStream();
+    private final DataOutputStream pool = new DataOutputStream(poolBytes);
+    private final HashMap<String, Integer> poolIndices = new HashMap<String, Integer>();
+    private int poolCount = 1;
+
+    public int utf8(String s)
+    {
+        return entry("U" + s, 1, s, 0, 0);
+    }
+
+    public int classRef(String internalName)
+    {
+        return entry("C" + internalName, 7, null, utf8(internalName), 0);
+    }
+
+    public int string(String s)
+    {
+        return entry("S" + s, 8, null, utf8(s), 0);
+    }
+
+    public int integer(int i)
+    {
+        return entry("I" + i, 3, null, i, 0);
+    }
+
+    /**
+     * Longs and doubles take up two entries of the pool.
+     */
+    public int longConstant(long l)
+    {
+        return entry("J" + l, 5, null, (int)(l >>> 32), (int)l);
+    }
+
+    public int doubleConstant(double d)
+    {
+        long bits = Double.doubleToRawLongBits(d);
+        return entry("D" + bits, 6, null, (int)(bits >>> 32), (int)bits);
+    }
+
+    public int methodRef(String owner, String name, String descriptor)
+    {
+        return entry("M" + owner + "." + name + descriptor, 10, null, classRef(owner), nameAndType(name, descriptor));
+    }
+
+    public int fieldRef(String owner, String name, String descriptor)
+    {
+        return entry("F" + owner + "." + name + descriptor, 9, null, classRef(owner), nameAndType(name, descriptor));
+    }
+
+    private int nameAndType(String name, String descriptor)
+    {
+        return entry("N" + name + ":" + descriptor, 12, null, utf8(name), utf8(descriptor));
+    }
+
+    private int entry(String key, int tag, String text, int a, int b)
+    {
+        Integer existing = poolIndices.get(key);
+        if(existing != null)
+        {
+            return existing;
+        }
+
+        try {
+            pool.writeByte(tag);
+            switch(tag)
+            {
+                case 1:
+                    pool.writeUTF(text);
+                    break;
+                case 3:
+                    pool.writeInt(a);
+                    break;
+                case 5:
+                case 6:
+                    pool.writeInt(a);
+                    pool.writeInt(b);
+                    break;
+                case 7:
+                case 8:
+                    pool.writeShort(a);
+                    break;
+                default:
+                    pool.writeShort(a);
+                    pool.writeShort(b);
+                    break;
+            }
+        } catch(IOException e) {
+            throw new IllegalStateException(e);
+        }
+
+        int index = poolCount;
+        poolIndices.put(key, index);
+        poolCount += tag == 5 || tag == 6 ? 2 : 1;
+        return index;
+    }
+
+    /**
+     * Writes a final class extending Object with one public static method.
+     * @param className internal name, e.g. Interpreter/Bytecode/GossScript
+     * @param methodName
+     * @param descriptor method descriptor
+     * @param code finished code of the method
+     * @return class file bytes
+     */
+    public byte[] toByteArray(String className, String methodName, String descriptor, CodeBuilder code)
+    {
+        // Everything referenced below has to be in the pool before the pool is written.
+        int thisClass = classRef(className);
+        int superClass = classRef("java/lang/Object");
+        int nameIndex = utf8(methodName);
+        int descriptorIndex = utf8(descriptor);
+        int codeIndex = utf8("Code");
+        byte[] bytecode = code.toByteArray();
+        int[] handlers = code.getHandlers();
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(VERSION);
+            out.writeShort(poolCount);
+            pool.flush();
+            poolBytes.writeTo(out);
+
+            out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(0); // interfaces
+            out.writeShort(0); // fields
+
+            out.writeShort(1); // methods
+            out.writeShort(ACC_PUBLIC | ACC_STATIC);
+            out.writeShort(nameIndex);
+            out.writeShort(descriptorIndex);
+            out.writeShort(1); // attributes
+            out.writeShort(codeIndex);
+            out.writeInt(12 + bytecode.length + handlers.length * 2);
+            out.writeShort(code.getMaxStack());
+            out.writeShort(code.getMaxLocals());
+            out.writeInt(bytecode.length);
+            out.write(bytecode);
+            out.writeShort(handlers.length / 4);
+            for(int h : handlers)
+            {
+                out.writeShort(h);
+            }
+            out.writeShort(0); // code attributes
+
+            out.writeShort(0); // class attributes
+            out.flush();
+        } catch(IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,255 @@
+package Interpreter.Bytecode;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Emits the code of a single method. Keeps track of the operand stack depth and patches branch offsets once labels are placed.
+ */
+public class CodeBuilder {
+    private static final int ACONST_NULL = 0x01;
+    private static final int SIPUSH = 0x11;
+    private static final int LDC_W = 0x13;
+    private static final int LDC2_W = 0x14;
+    private static final int ALOAD = 0x19;
+    private static final int ASTORE = 0x3a;
+    private static final int POP = 0x57;
+    private static final int DUP = 0x59;
+    private static final int IFEQ = 0x99;
+    private static final int IFNE = 0x9a;
+    private static final int GOTO = 0xa7;
+    private static final int RETURN = 0xb1;
+    private static final int GETSTATIC = 0xb2;
+    private static final int INVOKESTATIC = 0xb8;
+    private static final int WIDE = 0xc4;
+
+    private final ClassFileWriter classFile;
+    private final ByteArrayOutputStream code = new ByteArrayOutputStream();
+    private int[] labels = new int[16];
+    private int labelCount = 0;
+    private final ArrayList<int[]> fixups = new ArrayList<int[]>(); // {opcode position, label}
+    private final ArrayList<int[]> handlers = new ArrayList<int[]>(); // {start label, end label, handler label, catch type}
+    private int stack = 0;
+    private int maxStack = 0;
+    private int maxLocals = 0;
+
+    public CodeBuilder(ClassFileWriter classFile)
+    {
+        this.classFile = classFile;
+    }
+
+    /**
+     * Parameters take up locals whether the code touches them or not.
+     * @param count locals the method's parameters use
+     */
+    public void reserveLocals(int count)
+    {
+        maxLocals = Math.max(maxLocals, count);
+    }
+
+    public int newLabel()
+    {
+        if(labelCount == labels.length)
+        {
+            labels = Arrays.copyOf(labels, labelCount * 2);
+        }
+        labels[labelCount] = -1;
+        return labelCount++;
+    }
+
+    public void mark(int label)
+    {
+        labels[label] = code.size();
+    }
+
+    /**
+     * Marks the start of an exception handler. The caught exception is on the stack.
+     */
+    public void markHandler(int label)
+    {
+        mark(label);
+        stack = 1;
+        maxStack = Math.max(maxStack, stack);
+    }
+
+    public void tryCatch(int start, int end, int handler, String exceptionClass)
+    {
+        handlers.add(new int[]{start, end, handler, classFile.classRef(exceptionClass)});
+    }
+
+    public void aconstNull()
+    {
+        op(ACONST_NULL, 1);
+    }
+
+    public void aload(int local)
+    {
+        local(ALOAD, 1, local);
+    }
+
+    public void astore(int local)
+    {
+        local(ASTORE, -1, local);
+    }
+
+    /**
+     * Locals past 255 don't fit the usual one byte index, wide gives them two.
+     */
+    private void local(int opcode, int stackChange, int local)
+    {
+        if(local > 0xFF)
+        {
+            code.write(WIDE);
+            op(opcode, stackChange);
+            writeShort(local);
+        } else {
+            op(opcode, stackChange);
+            code.write(local);
+        }
+        maxLocals = Math.max(maxLocals, local + 1);
+    }
+
+    public void pop()
+    {
+        op(POP, -1);
+    }
+
+    public void dup()
+    {
+        op(DUP, 1);
+    }
+
+    public void ldcString(String s)
+    {
+        op(LDC_W, 1);
+        writeShort(classFile.string(s));
+    }
+
+    /**
+     * Takes two slots of the stack, like every long.
+     */
+    public void ldcLong(long l)
+    {
+        op(LDC2_W, 2);
+        writeShort(classFile.longConstant(l));
+    }
+
+    public void ldcDouble(double d)
+    {
+        op(LDC2_W, 2);
+        writeShort(classFile.doubleConstant(d));
+    }
+
+    public void ldcInt(int i)
+    {
+        if(i >= Short.MIN_VALUE && i <= Short.MAX_VALUE)
+        {
+            op(SIPUSH, 1);
+            writeShort(i);
+        } else {
+            op(LDC_W, 1);
+            writeShort(classFile.integer(i));
+        }
+    }
+
+    public void getstatic(String owner, String name, String descriptor)
+    {
+        op(GETSTATIC, 1);
+        writeShort(classFile.fieldRef(owner, name, descriptor));
+    }
+
+    /**
+     * @param argCount number of stack slots taken by the arguments
+     * @param returnsValue false for void methods
+     */
+    public void invokestatic(String owner, String name, String descriptor, int argCount, boolean returnsValue)
+    {
+        op(INVOKESTATIC, (returnsValue ? 1 : 0) - argCount);
+        writeShort(classFile.methodRef(owner, name, descriptor));
+    }
+
+    public void gotoLabel(int label)
+    {
+        branch(GOTO, label, 0);
+    }
+
+    public void ifne(int label)
+    {
+        branch(IFNE, label, -1);
+    }
+
+    public void ifeq(int label)
+    {
+        branch(IFEQ, label, -1);
+    }
+
+    public void returnVoid()
+    {
+        op(RETURN, 0);
+    }
+
+    public int size()
+    {
+        return code.size();
+    }
+
+    public int getMaxStack()
+    {
+        return maxStack;
+    }
+
+    public int getMaxLocals()
+    {
+        return maxLocals;
+    }
+
+    public byte[] toByteArray()
+    {
+        byte[] bytes = code.toByteArray();
+        for(int[] fixup : fixups)
+        {
+            int offset = labels[fixup[1]] - fixup[0];
+            bytes[fixup[0] + 1] = (byte)(offset >> 8);
+            bytes[fixup[0] + 2] = (byte)offset;
+        }
+        return bytes;
+    }
+
+    /**
+     * @return flattened exception table: start, end, handler, catch type for every entry
+     */
+    public int[] getHandlers()
+    {
+        int[] table = new int[handlers.size() * 4];
+        for(int i = 0; i < handlers.size(); i++)
+        {
+            int[] h = handlers.get(i);
+            table[i * 4] = labels[h[0]];
+            table[i * 4 + 1] = labels[h[1]];
+            table[i * 4 + 2] = labels[h[2]];
+            table[i * 4 + 3] = h[3];
+        }
+        return table;
+    }
+
+    private void branch(int opcode, int label, int stackChange)
+    {
+        fixups.add(new int[]{code.size(), label});
+        op(opcode, stackChange);
+        writeShort(0);
+    }
+
+    private void op(int opcode, int stackChange)
+    {
+        code.write(opcode);
+        stack += stackChange;
+        maxStack = Math.max(maxStack, stack);
+    }
+
+    private void writeShort(int s)
+    {
+        code.write(s >> 8);
+        code.write(s);
+    }
+}
@@ -0,0 +1,501 @@
+package Interpreter.Bytecode;
+
+import Interpreter.ArrayValue;
+import Interpreter.ExecutionContext;
+import Interpreter.Interpreter;
+import Interpreter.Values;
+
+import java.io.IOException;
+import java.math.BigInteger;
+
+/**
+ * Everything generated scripts call into. Values are Long, BigInteger (only when it doesn't fit a Long), Double, Boolean, (unquoted)
+ * String or ArrayValue, and the rules follow the Evaluator: long arithmetic that moves to BigInteger on overflow, numbers compare by value, anything
+ * else by the printed value, ordering only works when the left side is a number.
+ * Helpers throw Failure to abandon the current statement, the generated handler reports it and carries on with the next one.
+ */
+public final class GossRuntime {
+    private GossRuntime() {}
+
+    /**
+     * Thrown to abandon a statement. No stack trace, it's control flow.
+     */
+    public static final class Failure extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        public Failure(String message)
+        {
+            super(message, null, false, false);
+        }
+    }
+
+    public static Object read(Object value, String name)
+    {
+        if(value == null)
+        {
+            throw new Failure("Err. Variable not initialized: " + name);
+        }
+        return value;
+    }
+
+    public static Object add(Object l, Object r)
+    {
+        if(l instanceof Long && r instanceof Long)
+        {
+            try {
+                return Long.valueOf(Math.addExact((Long)l, (Long)r));
+            } catch(ArithmeticException overflow) {
+                // BigInteger it is.
+            }
+        }
+        return arithmetic('+', l, r);
+    }
+
+    public static Object subtract(Object l, Object r)
+    {
+        if(l instanceof Long && r instanceof Long)
+        {
+            try {
+                return Long.valueOf(Math.subtractExact((Long)l, (Long)r));
+            } catch(ArithmeticException overflow) {
+                // BigInteger it is.
+            }
+        }
+        return arithmetic('-', l, r);
+    }
+
+    public static Object multiply(Object l, Object r)
+    {
+        if(l instanceof Long && r instanceof Long)
+        {
+            try {
+                return Long.valueOf(Math.multiplyExact((Long)l, (Long)r));
+            } catch(ArithmeticException overflow) {
+                // BigInteger it is.
+            }
+        }
+        if(l instanceof ArrayValue)
+        {
+            // [x] * n
+            Object times = toNumber(r);
+            ArrayValue array = times instanceof Long ? ((ArrayValue)l).repeat((Long)times) : null;
+            if(array == null)
+            {
+                throw new Failure("Err. Can't make an array " + times + " times that long.");
+            }
+            return array;
+        }
+        return arithmetic('*', l, r);
+    }
+
+    public static Object divide(Object l, Object r)
+    {
+        if(l instanceof Long && r instanceof Long)
+        {
+            long x = (Long)l, y = (Long)r;
+            if(y == 0)
+            {
+                throw new Failure("Err. / by zero");
+            }
+            // Long.MIN_VALUE / -1 is the one division that overflows.
+            if(y != -1 || x != Long.MIN_VALUE)
+            {
+                return Long.valueOf(x / y);
+            }
+        }
+        return arithmetic('/', l, r);
+    }
+
+    public static Object modulo(Object l, Object r)
+    {
+        if(l instanceof Long && r instanceof Long)
+        {
+            long y = (Long)r;
+            if(y == 0)
+            {
+                throw new Failure("Err. / by zero");
+            }
+            return Long.valueOf((Long)l % y);
+        }
+        return arithmetic('%', l, r);
+    }
+
+    public static Object equal(Object l, Object r)
+    {
+        return Boolean.valueOf(same(l, r));
+    }
+
+    public static Object notEqual(Object l, Object r)
+    {
+        return Boolean.valueOf(!same(l, r));
+    }
+
+    public static Object less(Object l, Object r)
+    {
+        return Boolean.valueOf(isNumber(l) && compare(l, r) < 0);
+    }
+
+    public static Object lessEqual(Object l, Object r)
+    {
+        return Boolean.valueOf(isNumber(l) && compare(l, r) <= 0);
+    }
+
+    public static Object greater(Object l, Object r)
+    {
+        return Boolean.valueOf(isNumber(l) && compare(l, r) > 0);
+    }
+
+    public static Object greaterEqual(Object l, Object r)
+    {
+        return Boolean.valueOf(isNumber(l) && compare(l, r) >= 0);
+    }
+
+    public static Object or(Object l, Object r)
+    {
+        return Boolean.valueOf(toBoolean(l) | toBoolean(r));
+    }
+
+    public static Object and(Object l, Object r)
+    {
+        return Boolean.valueOf(toBoolean(l) & toBoolean(r));
+    }
+
+    public static Object negate(Object value)
+    {
+        if(value instanceof Long && (Long)value != Long.MIN_VALUE)
+        {
+            return Long.valueOf(-(Long)value);
+        }
+        if(value instanceof Long || value instanceof BigInteger)
+        {
+            return big(Values.toBig(tag(value), bits(value), value).negate());
+        }
+        if(value instanceof Double)
+        {
+            return Double.valueOf(-(Double)value);
+        }
+        throw new Failure("Err. Can only negate numbers.");
+    }
+
+    public static Object[] newList(int size)
+    {
+        return new Object[size];
+    }
+
+    public static void element(Object[] list, int i, Object value)
+    {
+        list[i] = value;
+    }
+
+    /**
+     * Array literal, once its elements are all in.
+     */
+    public static Object list(Object[] values)
+    {
+        byte[] tags = new byte[values.length];
+        long[] numbers = new long[values.length];
+        Object[] objects = new Object[values.length];
+        for(int i = 0; i < values.length; i++)
+        {
+            tags[i] = tag(values[i]);
+            numbers[i] = bits(values[i]);
+            objects[i] = object(values[i]);
+        }
+        return ArrayValue.of(tags, numbers, objects, 0, values.length);
+    }
+
+    public static Object index(Object array, Object index)
+    {
+        ArrayValue a = toArray(array);
+        int element = toIndex(a, index);
+        return box(a.tag(element), a.number(element), a.object(element));
+    }
+
+    /**
+     * a[i] = value
+     */
+    public static void store(Object array, Object index, Object value)
+    {
+        ArrayValue a = toArray(array);
+        a.set(toIndex(a, index), tag(value), bits(value), object(value));
+    }
+
+    /**
+     * Numeric literal too long for a long. Rare enough to just build it every time.
+     */
+    public static Object big(String digits)
+    {
+        return big(new BigInteger(digits));
+    }
+
+    /**
+     * Operand of || and &&, has to be a boolean.
+     */
+    public static Object bool(Object value)
+    {
+        toBoolean(value);
+        return value;
+    }
+
+    /**
+     * Condition of jump?. Anything but false jumps, same as Executor.
+     */
+    public static boolean isTrue(Object condition)
+    {
+        return !Boolean.FALSE.equals(condition);
+    }
+
+    public static void out(Object value, ExecutionContext context)
+    {
+        context.getOutput().println(String.valueOf(value));
+    }
+
+    public static Object in(ExecutionContext context)
+    {
+        String input;
+        context.flush();
+        if(context.getInput() != null)
+        {
+            try {
+                input = context.getInput().readLine();
+            } catch(IOException e) {
+                throw new Failure("Err. Reading input failed: " + e.getMessage());
+            }
+        } else {
+            if(System.console() == null)
+            {
+                throw new Failure("Err. No console to read input from.");
+            }
+            input = System.console().readLine();
+        }
+        if(input == null)
+        {
+            throw new Failure("Err. Invalid input.");
+        }
+        // Numbers typed in are numbers from now on, same as Executor.
+        Object number = parse(input);
+        return number != null ? number : input;
+    }
+
+    public static void fail(String message)
+    {
+        throw new Failure(message);
+    }
+
+    /**
+     * jump? to a tag that doesn't exist only fails when the jump is taken.
+     */
+    public static void failIfTrue(Object condition, String message)
+    {
+        if(isTrue(condition))
+        {
+            throw new Failure(message);
+        }
+    }
+
+    /**
+     * Called by the exception handler of every statement.
+     * @param e whatever went wrong
+     * @param line source line of the statement
+     * @param context run the statement belonged to, its output is flushed before the error is logged
+     */
+    public static void failed(RuntimeException e, int line, ExecutionContext context)
+    {
+        context.flush();
+        Interpreter.log(e instanceof Failure ? e.getMessage() : "Err. " + e);
+        Interpreter.log("Interpreter encountered error while executing line: " + line);
+    }
+
+    /**
+     * Same as failed, for an out that couldn't work out its value. The Executor says so as well.
+     */
+    public static void outFailed(RuntimeException e, int line, ExecutionContext context)
+    {
+        context.flush();
+        Interpreter.log(e instanceof Failure ? e.getMessage() : "Err. " + e);
+        Interpreter.log("Err. Incorrect usage of out keyword.");
+        Interpreter.log("Interpreter encountered error while executing line: " + line);
+    }
+
+    /**
+     * A line that didn't parse, the generated code returns right after.
+     */
+    public static void unparsed(int line, ExecutionContext context)
+    {
+        context.flush();
+        Interpreter.log("Interpreter encountered error while parsing line: " + line);
+    }
+
+    /**
+     * Slow path of + - * / %, see Values.arithmetic.
+     */
+    private static Object arithmetic(char operator, Object l, Object r)
+    {
+        Object a = toNumber(l), b = toNumber(r);
+        long[] number = new long[1];
+        Object[] object = new Object[1];
+        byte tag = Values.arithmetic(operator, tag(a), bits(a), a, tag(b), bits(b), b, number, object, 0);
+        if(tag == Values.NONE)
+        {
+            throw new Failure("Err. / by zero");
+        }
+        return box(tag, number[0], object[0]);
+    }
+
+    /**
+     * Operands of operators, numbers or strings that look like one.
+     */
+    private static Object toNumber(Object value)
+    {
+        if(isNumber(value))
+        {
+            return value;
+        }
+        Object number = value instanceof String ? parse((String)value) : null;
+        if(number == null)
+        {
+            throw new Failure("Err. Unable to format numeric type: " + value);
+        }
+        return number;
+    }
+
+    /**
+     * Ordering, the right side has to be a number, no weak typing here.
+     */
+    private static int compare(Object l, Object r)
+    {
+        if(!isNumber(r))
+        {
+            throw new Failure("Err. Can't compare a number with: " + r);
+        }
+        if(l instanceof Long && r instanceof Long)
+        {
+            return Long.compare((Long)l, (Long)r);
+        }
+        return Values.compare(tag(l), bits(l), l, tag(r), bits(r), r);
+    }
+
+    private static ArrayValue toArray(Object value)
+    {
+        if(!(value instanceof ArrayValue))
+        {
+            throw new Failure("Err. Not an array: " + value);
+        }
+        return (ArrayValue)value;
+    }
+
+    private static int toIndex(ArrayValue array, Object index)
+    {
+        Object i = toNumber(index);
+        if(!(i instanceof Long) || (Long)i < 0 || (Long)i >= array.length())
+        {
+            throw new Failure("Err. Index " + i + " out of bounds for length " + array.length() + ".");
+        }
+        return (int)(long)(Long)i;
+    }
+
+    private static boolean same(Object l, Object r)
+    {
+        if(l instanceof ArrayValue || r instanceof ArrayValue)
+        {
+            // Same array, not just the same elements.
+            return l == r;
+        }
+        if(isNumber(l) && isNumber(r))
+        {
+            return compare(l, r) == 0;
+        }
+        return l.toString().equals(r.toString());
+    }
+
+    private static boolean isNumber(Object value)
+    {
+        return value instanceof Long || value instanceof BigInteger || value instanceof Double;
+    }
+
+    /**
+     * @return the number s spells, null if it isn't one.
+     */
+    private static Object parse(String s)
+    {
+        long[] number = new long[1];
+        Object[] object = new Object[1];
+        byte tag = Values.parseNumber(s, number, object, 0);
+        return tag == Values.NONE ? null : box(tag, number[0], object[0]);
+    }
+
+    private static Object big(BigInteger value)
+    {
+        return value.bitLength() < 64 ? (Object)Long.valueOf(value.longValue()) : value;
+    }
+
+    /*
+     * Between the boxed values used here and the tag/long/Object of Values.
+     */
+
+    private static byte tag(Object value)
+    {
+        if(value instanceof Long)
+        {
+            return Values.NUMBER;
+        }
+        if(value instanceof Boolean)
+        {
+            return Values.BOOLEAN;
+        }
+        if(value instanceof String)
+        {
+            return Values.STRING;
+        }
+        if(value instanceof Double)
+        {
+            return Values.DECIMAL;
+        }
+        return value instanceof ArrayValue ? Values.ARRAY : Values.BIG;
+    }
+
+    private static long bits(Object value)
+    {
+        if(value instanceof Long)
+        {
+            return (Long)value;
+        }
+        if(value instanceof Boolean)
+        {
+            return (Boolean)value ? 1 : 0;
+        }
+        return value instanceof Double ? Double.doubleToRawLongBits((Double)value) : 0;
+    }
+
+    /**
+     * @return the value's Object in Values terms, null when it lives in the long.
+     */
+    private static Object object(Object value)
+    {
+        return value instanceof String || value instanceof BigInteger || value instanceof ArrayValue ? value : null;
+    }
+
+    private static Object box(byte tag, long number, Object object)
+    {
+        switch(tag)
+        {
+            case Values.NUMBER:
+                return Long.valueOf(number);
+            case Values.DECIMAL:
+                return Double.valueOf(Double.longBitsToDouble(number));
+            case Values.BOOLEAN:
+                return Boolean.valueOf(number != 0);
+            default:
+                return object;
+        }
+    }
+
+    private static boolean toBoolean(Object value)
+    {
+        if(value instanceof Boolean)
+        {
+            return (Boolean)value;
+        }
+        throw new Failure("Err. Not a boolean: " + value);
+    }
+}
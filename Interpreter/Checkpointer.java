@@ -0,0 +1,798 @@
+package Interpreter;
+
+import Interpreter.Interfaces.IOutput;
+import Interpreter.Interfaces.ITokenMap;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+
+/**
+ * Saves where a long run is every so many instructions or seconds, so it can carry on from there after a crash or a restart instead
+ * of starting over. A checkpoint is the program counter, the script's variables and how many lines it had printed.
+ *
+ * Checkpoints are only taken between statements of the script itself, never in the middle of a call: a run that's in a call when one
+ * is due takes it as soon as the call returns. The interpreter thread only copies the variables (arrays included), everything else
+ * (working out what changed, encoding, writing, syncing) happens on a thread of its own. If that's still busy with the last
+ * checkpoint when the next is due, the next waits.
+ *
+ * The file is a full checkpoint followed by the changes since, each one a record of its own: the variables that changed and the
+ * blocks of the arrays that did, so a big array that's written to here and there costs a few blocks per checkpoint. Every
+ * COMPACT_AFTER records, or once the changes add up to more than the full checkpoint, it's replaced by a new full one. Everything is
+ * big endian:
+ *
+ *     "GOSK" u2 version
+ *     then records: u4 payload length, u4 CRC32 of the payload, payload:
+ *         u1 FULL or CHANGES, u8 fingerprint of the script (FULL only)
+ *         u4 program counter, u8 lines printed
+ *         u4 slot count, then the name of every slot that's new since the last record (all of them for FULL): u4 length, UTF-8 bytes
+ *         u4 changed slot count, then per changed slot: u4 slot, value (every assigned slot for FULL)
+ *         u4 array count, then per array: u4 encoded length, u4 changed block count, then per changed block: u4 block, its bytes
+ *             (every block for FULL, or when the encoded length changed). Arrays are encoded as u4 length, then u1 NUMBER and an i8
+ *             per element, BOOLEAN and a u1, or NONE and a value, and cut into BLOCK byte blocks.
+ *     value: u1 tag, then i8 for NUMBER, BOOLEAN, DECIMAL and ARRAY (the array's index), u4 length and UTF-8 bytes for STRING, u4
+ *     length and the two's complement bytes for BIG, nothing for NONE
+ *
+ * A record cut short by a crash fails its CRC and is ignored, the run resumes from the one before.
+ */
+public class Checkpointer {
+    private static final int MAGIC = 0x474F534B; // "GOSK"
+    public static final int VERSION = 1;
+    private static final byte FULL = 1;
+    private static final byte CHANGES = 2;
+    public static final int COMPACT_AFTER = 64; // Records of changes before the file is written from scratch again
+    private static final int CLOCK_CHECK = 4096; // Instructions between looks at the clock
+    private static final int BLOCK = 4096; // Bytes of an encoded array that are written again if one of them changed
+
+    private final Path path;
+    private final Procedure procedure;
+    private final long every; // Instructions between checkpoints, 0 for no limit
+    private final long interval; // Nanoseconds between checkpoints, 0 for no limit
+
+    /*
+     * Interpreter thread.
+     */
+    private long executed = 0; // Instructions since the last checkpoint
+    private int granted = CLOCK_CHECK; // Instructions until the next poll
+    private long deadline;
+    private int namedSlots = 0; // Slots whose names have gone to the writer
+    private long resumedLines = 0;
+    private LineCounter output;
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "checkpoint writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private Future<?> pending = null;
+
+    /*
+     * Writer thread: the last record written, to work out what the next one changes.
+     */
+    private final ArrayList<String> names = new ArrayList<String>();
+    private byte[] writtenTags = new byte[0];
+    private long[] writtenNumbers = new long[0];
+    private Object[] writtenObjects = new Object[0];
+    private ArrayList<byte[]> writtenArrays = new ArrayList<byte[]>(); // Encoded, by index
+    private int writtenNames = 0;
+    private int records = -1; // Since the last full one, -1 before the first
+    private long fullBytes = 0, changedBytes = 0; // The last full record, and the records since
+
+    /**
+     * What the interpreter thread hands the writer: copies, nothing the run changes afterwards.
+     */
+    private static final class Snapshot {
+        int programCounter;
+        long lines;
+        String[] newNames;
+        byte[] tags;
+        long[] numbers;
+        Object[] objects;
+    }
+
+    /**
+     * @param path the checkpoint file
+     * @param procedure the script's, checkpoints of anything else are refused
+     * @param every instructions between checkpoints, 0 for no limit
+     * @param seconds seconds between checkpoints, 0 for no limit
+     */
+    public Checkpointer(Path path, Procedure procedure, long every, long seconds)
+    {
+        this.path = path;
+        this.procedure = procedure;
+        this.every = every;
+        interval = seconds * 1000000000L;
+    }
+
+    /**
+     * Puts the context where the last checkpoint in the file left the run.
+     * @return false if there's no checkpoint to resume from (logged if the file is there but doesn't fit the script), the run starts
+     * from the beginning
+     */
+    public boolean resume(ExecutionContext context)
+    {
+        if(!Files.exists(path))
+        {
+            Interpreter.log("No checkpoint at " + path + ", starting from the beginning.");
+            return false;
+        }
+        try {
+            return restore(ByteBuffer.wrap(Files.readAllBytes(path)), context);
+        } catch(IOException e) {
+            Interpreter.log("Err. Reading the checkpoint " + path + " failed: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /*
+     * The run, see Script.run(ExecutionContext, Checkpointer).
+     */
+
+    /**
+     * Counts what the run prints from here on.
+     * @return instructions until the first poll
+     */
+    int start(ExecutionContext context)
+    {
+        output = new LineCounter(context.getOutput(), resumedLines);
+        context.setOutput(output);
+        deadline = System.nanoTime() + interval;
+        granted = grant();
+        return granted;
+    }
+
+    /**
+     * Takes a checkpoint if one is due and the run is somewhere it can be taken.
+     * @return instructions until the next poll
+     */
+    int poll(ExecutionContext context)
+    {
+        executed += granted;
+        boolean due = (every > 0 && executed >= every) || (interval > 0 && System.nanoTime() - deadline >= 0);
+        if(due && context.getDepth() == 0 && (pending == null || pending.isDone()))
+        {
+            Snapshot snapshot = capture(context);
+            pending = writer.submit(() -> {
+                try {
+                    write(snapshot);
+                } catch(IOException e) {
+                    // The run goes on, the next checkpoint tries again.
+                    Interpreter.log("Err. Writing the checkpoint " + path + " failed: " + e.getMessage());
+                }
+            });
+            executed = 0;
+            deadline = System.nanoTime() + interval;
+        }
+        granted = grant();
+        return granted;
+    }
+
+    private int grant()
+    {
+        if(every > 0 && executed < every)
+        {
+            return (int)Math.min(CLOCK_CHECK, every - executed);
+        }
+        return CLOCK_CHECK;
+    }
+
+    /**
+     * The run finished, there's nothing left to resume. Waits for the last write and removes the file.
+     */
+    void finish()
+    {
+        await();
+        try {
+            Files.deleteIfExists(path);
+        } catch(IOException e) {
+            Interpreter.log("Err. Removing the checkpoint " + path + " failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Waits for the last write and stops the writer thread. The file stays, unless finish() removed it.
+     */
+    void close()
+    {
+        await();
+        writer.shutdown();
+    }
+
+    private void await()
+    {
+        if(pending == null)
+        {
+            return;
+        }
+        try {
+            pending.get();
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch(ExecutionException e) {
+            Interpreter.log("Err. Writing the checkpoint " + path + " failed: " + e.getCause());
+        }
+        pending = null;
+    }
+
+    /**
+     * Copies what the checkpoint needs. Arrays are copied too, keeping which variables share one.
+     */
+    private Snapshot capture(ExecutionContext context)
+    {
+        // Everything printed before the checkpoint is out there, so its line count is what the output really has.
+        context.flush();
+        Variables variables = context.variables;
+        int count = variables.size();
+
+        Snapshot snapshot = new Snapshot();
+        snapshot.programCounter = context.getProgramCounter();
+        snapshot.lines = output.lines;
+        snapshot.newNames = new String[count - namedSlots];
+        for(int slot = namedSlots; slot < count; slot++)
+        {
+            snapshot.newNames[slot - namedSlots] = variables.name(slot);
+        }
+        namedSlots = count;
+
+        snapshot.tags = Arrays.copyOf(variables.tags, count);
+        snapshot.numbers = Arrays.copyOf(variables.numbers, count);
+        snapshot.objects = Arrays.copyOf(variables.objects, count);
+        IdentityHashMap<ArrayValue, ArrayValue> copies = new IdentityHashMap<ArrayValue, ArrayValue>();
+        for(int slot = 0; slot < count; slot++)
+        {
+            if(snapshot.tags[slot] == Values.ARRAY)
+            {
+                snapshot.objects[slot] = copy((ArrayValue)snapshot.objects[slot], copies);
+            }
+        }
+        return snapshot;
+    }
+
+    private static ArrayValue copy(ArrayValue array, IdentityHashMap<ArrayValue, ArrayValue> copies)
+    {
+        ArrayValue copy = copies.get(array);
+        if(copy != null)
+        {
+            return copy;
+        }
+        copy = array.copy();
+        copies.put(array, copy); // Before the elements, an array can hold itself
+        for(int i = 0; i < copy.length(); i++)
+        {
+            if(copy.tag(i) == Values.ARRAY)
+            {
+                copy.set(i, Values.ARRAY, 0, copy((ArrayValue)copy.object(i), copies));
+            }
+        }
+        return copy;
+    }
+
+    /*
+     * Writer thread.
+     */
+
+    private void write(Snapshot snapshot) throws IOException
+    {
+        names.addAll(Arrays.asList(snapshot.newNames));
+        int count = names.size();
+
+        // Arrays are numbered in the order they're found, so the same arrays encode to the same bytes.
+        ArrayList<ArrayValue> arrays = new ArrayList<ArrayValue>();
+        IdentityHashMap<ArrayValue, Integer> indices = new IdentityHashMap<ArrayValue, Integer>();
+        for(int slot = 0; slot < count; slot++)
+        {
+            if(snapshot.tags[slot] == Values.ARRAY)
+            {
+                snapshot.numbers[slot] = index((ArrayValue)snapshot.objects[slot], arrays, indices);
+                snapshot.objects[slot] = null;
+            }
+        }
+        ArrayList<byte[]> encodedArrays = new ArrayList<byte[]>();
+        for(int a = 0; a < arrays.size(); a++) // Grows as arrays in arrays are found
+        {
+            encodedArrays.add(encode(arrays.get(a), arrays, indices));
+        }
+
+        boolean full = records < 0 || records >= COMPACT_AFTER || changedBytes > fullBytes;
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(payload);
+        out.writeByte(full ? FULL : CHANGES);
+        if(full)
+        {
+            out.writeLong(fingerprint(procedure));
+        }
+        out.writeInt(snapshot.programCounter);
+        out.writeLong(snapshot.lines);
+
+        out.writeInt(count);
+        for(int slot = full ? 0 : writtenNames; slot < count; slot++)
+        {
+            writeText(names.get(slot), out);
+        }
+
+        ArrayList<Integer> changed = new ArrayList<Integer>();
+        for(int slot = 0; slot < count; slot++)
+        {
+            boolean written = slot < writtenTags.length;
+            if(full ? snapshot.tags[slot] != Values.NONE
+                : !written || snapshot.tags[slot] != writtenTags[slot] || snapshot.numbers[slot] != writtenNumbers[slot]
+                    || !Objects.equals(snapshot.objects[slot], writtenObjects[slot]))
+            {
+                changed.add(slot);
+            }
+        }
+        out.writeInt(changed.size());
+        for(int slot : changed)
+        {
+            out.writeInt(slot);
+            writeValue(snapshot.tags[slot], snapshot.numbers[slot], snapshot.objects[slot], out);
+        }
+
+        out.writeInt(encodedArrays.size());
+        for(int a = 0; a < encodedArrays.size(); a++)
+        {
+            byte[] encoded = encodedArrays.get(a);
+            byte[] written = full || a >= writtenArrays.size() || writtenArrays.get(a).length != encoded.length ? null : writtenArrays.get(a);
+            ArrayList<Integer> blocks = new ArrayList<Integer>();
+            for(int from = 0; from < encoded.length; from += BLOCK)
+            {
+                int to = Math.min(from + BLOCK, encoded.length);
+                if(written == null || !Arrays.equals(encoded, from, to, written, from, to))
+                {
+                    blocks.add(from / BLOCK);
+                }
+            }
+            out.writeInt(encoded.length);
+            out.writeInt(blocks.size());
+            for(int block : blocks)
+            {
+                out.writeInt(block);
+                out.write(encoded, block * BLOCK, Math.min(BLOCK, encoded.length - block * BLOCK));
+            }
+        }
+        out.flush();
+
+        byte[] record = frame(payload.toByteArray());
+        try {
+            if(full)
+            {
+                // Written next to the old file and moved over it, so there's always one whole checkpoint to go back to.
+                Path next = path.resolveSibling(path.getFileName() + ".tmp");
+                try(OutputStream file = Files.newOutputStream(next))
+                {
+                    file.write(header());
+                    file.write(record);
+                }
+                sync(next);
+                Files.move(next, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                records = 0;
+                fullBytes = record.length;
+                changedBytes = 0;
+            } else {
+                Files.write(path, record, StandardOpenOption.APPEND);
+                sync(path);
+                records++;
+                changedBytes += record.length;
+            }
+        } catch(IOException e) {
+            // Whatever made it into the file might end in half a record, the next checkpoint starts a new one.
+            records = -1;
+            throw e;
+        }
+
+        writtenTags = snapshot.tags;
+        writtenNumbers = snapshot.numbers;
+        writtenObjects = snapshot.objects;
+        writtenArrays = encodedArrays;
+        writtenNames = count;
+        Interpreter.log("Checkpoint at instruction " + snapshot.programCounter + (full ? ", full: " : ", " + changed.size() + " changes: ")
+            + record.length + " bytes.");
+    }
+
+    private static int index(ArrayValue array, ArrayList<ArrayValue> arrays, IdentityHashMap<ArrayValue, Integer> indices)
+    {
+        Integer index = indices.get(array);
+        if(index == null)
+        {
+            index = arrays.size();
+            indices.put(array, index);
+            arrays.add(array);
+        }
+        return index;
+    }
+
+    /**
+     * @return the array as it goes in the file, before it's cut into blocks
+     */
+    private static byte[] encode(ArrayValue array, ArrayList<ArrayValue> arrays, IdentityHashMap<ArrayValue, Integer> indices)
+        throws IOException
+    {
+        int length = array.length();
+        byte storage = length > 0 ? array.tag(0) : Values.NUMBER;
+        for(int i = 0; i < length && storage != Values.NONE; i++)
+        {
+            if(array.tag(i) != storage || (storage != Values.NUMBER && storage != Values.BOOLEAN))
+            {
+                storage = Values.NONE;
+            }
+        }
+
+        // Arrays of numbers or booleans straight into a buffer, they're the big ones.
+        if(storage == Values.NUMBER)
+        {
+            ByteBuffer buffer = ByteBuffer.allocate(5 + 8 * length).putInt(length).put(storage);
+            for(int i = 0; i < length; i++)
+            {
+                buffer.putLong(array.number(i));
+            }
+            return buffer.array();
+        }
+        if(storage == Values.BOOLEAN)
+        {
+            ByteBuffer buffer = ByteBuffer.allocate(5 + length).putInt(length).put(storage);
+            for(int i = 0; i < length; i++)
+            {
+                buffer.put((byte)array.number(i));
+            }
+            return buffer.array();
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(length);
+        out.writeByte(storage);
+        for(int i = 0; i < length; i++)
+        {
+            byte tag = array.tag(i);
+            if(tag == Values.ARRAY)
+            {
+                writeValue(tag, index((ArrayValue)array.object(i), arrays, indices), null, out);
+            } else {
+                writeValue(tag, array.number(i), array.object(i), out);
+            }
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static void writeValue(byte tag, long number, Object object, DataOutputStream out) throws IOException
+    {
+        out.writeByte(tag);
+        switch(tag)
+        {
+            case Values.NONE:
+                break;
+            case Values.STRING:
+                writeText((String)object, out);
+                break;
+            case Values.BIG:
+                byte[] bytes = ((BigInteger)object).toByteArray();
+                out.writeInt(bytes.length);
+                out.write(bytes);
+                break;
+            default:
+                out.writeLong(number);
+                break;
+        }
+    }
+
+    private static void writeText(String text, DataOutputStream out) throws IOException
+    {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static byte[] header()
+    {
+        return ByteBuffer.allocate(6).putInt(MAGIC).putShort((short)VERSION).array();
+    }
+
+    private static byte[] frame(byte[] payload)
+    {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        return ByteBuffer.allocate(8 + payload.length).putInt(payload.length).putInt((int)crc.getValue()).put(payload).array();
+    }
+
+    private static void sync(Path file) throws IOException
+    {
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE))
+        {
+            channel.force(false);
+        }
+    }
+
+    /**
+     * @return a number that changes whenever the compiled script does, so a checkpoint never lands in the wrong one
+     */
+    private static long fingerprint(Procedure procedure)
+    {
+        CRC32 crc = new CRC32();
+        Instruction[] instructions = procedure.getInstructions();
+        for(Instruction instruction : instructions)
+        {
+            ITokenMap tm = instruction.getTokenMap();
+            crc.update(Integer.toString(instruction.getLine()).getBytes(StandardCharsets.UTF_8));
+            crc.update((tm == null ? "" : tm.getSource() + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+        SymbolTable symbols = procedure.getSymbols();
+        for(int slot = 0; slot < symbols.size(); slot++)
+        {
+            crc.update((symbols.getName(slot) + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+        return (long)instructions.length << 32 | crc.getValue();
+    }
+
+    /*
+     * Resuming.
+     */
+
+    /**
+     * Replays the records up to the last whole one.
+     */
+    private boolean restore(ByteBuffer file, ExecutionContext context)
+    {
+        if(file.remaining() < 6 || file.getInt() != MAGIC || file.getShort() != VERSION)
+        {
+            Interpreter.log("Err. " + path + " isn't a checkpoint this interpreter can read.");
+            return false;
+        }
+
+        int programCounter = -1;
+        long lines = 0;
+        ArrayList<String> slotNames = new ArrayList<String>();
+        byte[] tags = new byte[0];
+        long[] numbers = new long[0];
+        Object[] objects = new Object[0];
+        ArrayList<byte[]> arrays = new ArrayList<byte[]>(); // Encoded, decoded once at the end
+        long fingerprint = fingerprint(procedure);
+        int read = 0;
+
+        while(file.remaining() >= 8)
+        {
+            int length = file.getInt();
+            int checksum = file.getInt();
+            if(length < 0 || length > file.remaining())
+            {
+                break;
+            }
+            ByteBuffer payload = file.slice(file.position(), length);
+            file.position(file.position() + length);
+            CRC32 crc = new CRC32();
+            crc.update(payload.duplicate());
+            if((int)crc.getValue() != checksum)
+            {
+                break;
+            }
+
+            try {
+                byte kind = payload.get();
+                if(kind == FULL ? payload.getLong() != fingerprint : read == 0)
+                {
+                    Interpreter.log("Err. The checkpoint " + path + " is of another script, or of an older version of this one.");
+                    return false;
+                }
+                programCounter = payload.getInt();
+                lines = payload.getLong();
+
+                int count = payload.getInt();
+                if(kind == FULL)
+                {
+                    slotNames.clear();
+                    Arrays.fill(tags, Values.NONE);
+                }
+                while(slotNames.size() < count)
+                {
+                    slotNames.add(readText(payload));
+                }
+                tags = Arrays.copyOf(tags, count);
+                numbers = Arrays.copyOf(numbers, count);
+                objects = Arrays.copyOf(objects, count);
+
+                int changed = payload.getInt();
+                for(int c = 0; c < changed; c++)
+                {
+                    int slot = payload.getInt();
+                    tags[slot] = readValue(payload, numbers, objects, slot);
+                }
+                int arrayCount = payload.getInt();
+                while(arrays.size() > arrayCount)
+                {
+                    arrays.remove(arrays.size() - 1);
+                }
+                for(int a = 0; a < arrayCount; a++)
+                {
+                    int size = payload.getInt();
+                    if(a == arrays.size())
+                    {
+                        arrays.add(null);
+                    }
+                    if(arrays.get(a) == null || arrays.get(a).length != size)
+                    {
+                        arrays.set(a, new byte[size]);
+                    }
+                    int blocks = payload.getInt();
+                    for(int b = 0; b < blocks; b++)
+                    {
+                        int from = payload.getInt() * BLOCK;
+                        payload.get(arrays.get(a), from, Math.min(BLOCK, size - from));
+                    }
+                }
+            } catch(BufferUnderflowException | IndexOutOfBoundsException | NegativeArraySizeException | IllegalArgumentException e) {
+                Interpreter.log("Err. The checkpoint " + path + " is damaged.");
+                return false;
+            }
+            read++;
+        }
+        if(read == 0 || programCounter < 0 || programCounter > procedure.size())
+        {
+            Interpreter.log("Err. No checkpoint in " + path + " survived whole.");
+            return false;
+        }
+
+        ArrayValue[] decoded;
+        try {
+            decoded = readArrays(arrays);
+        } catch(BufferUnderflowException | IndexOutOfBoundsException | NegativeArraySizeException | IllegalArgumentException e) {
+            Interpreter.log("Err. The checkpoint " + path + " is damaged.");
+            return false;
+        }
+
+        Variables variables = context.variables;
+        for(int slot = 0; slot < slotNames.size(); slot++)
+        {
+            if(variables.resolveSlot(slotNames.get(slot)) != slot)
+            {
+                Interpreter.log("Err. The variables in the checkpoint " + path + " don't fit the script.");
+                return false;
+            }
+            if(tags[slot] != Values.NONE)
+            {
+                Object object = tags[slot] == Values.ARRAY ? decoded[(int)numbers[slot]] : objects[slot];
+                variables.write(slot, tags[slot], numbers[slot], object);
+            }
+        }
+        context.setProgramCounter(programCounter);
+        resumedLines = lines;
+        Interpreter.log("Resumed from " + path + " at instruction " + programCounter + ", after " + lines + " lines of output.");
+        return true;
+    }
+
+    /**
+     * Arrays in arrays are put in once they all exist, an array can hold one that comes after it (or itself).
+     */
+    private static ArrayValue[] readArrays(ArrayList<byte[]> encoded)
+    {
+        int count = encoded.size();
+        ArrayValue[] arrays = new ArrayValue[count];
+        int[][] nested = new int[count][];
+        for(int a = 0; a < count; a++)
+        {
+            ByteBuffer buffer = ByteBuffer.wrap(encoded.get(a));
+            int length = buffer.getInt();
+            byte storage = buffer.get();
+            byte[] tags = new byte[length];
+            long[] numbers = new long[length];
+            Object[] objects = new Object[length];
+            for(int i = 0; i < length; i++)
+            {
+                switch(storage)
+                {
+                    case Values.NUMBER:
+                        tags[i] = Values.NUMBER;
+                        numbers[i] = buffer.getLong();
+                        break;
+                    case Values.BOOLEAN:
+                        tags[i] = Values.BOOLEAN;
+                        numbers[i] = buffer.get();
+                        break;
+                    default:
+                        tags[i] = readValue(buffer, numbers, objects, i);
+                        break;
+                }
+            }
+            arrays[a] = ArrayValue.of(tags, numbers, objects, 0, length);
+            if(storage == Values.NONE)
+            {
+                nested[a] = new int[length];
+                for(int i = 0; i < length; i++)
+                {
+                    nested[a][i] = tags[i] == Values.ARRAY ? (int)numbers[i] : -1;
+                }
+            }
+        }
+        for(int a = 0; a < count; a++)
+        {
+            for(int i = 0; nested[a] != null && i < nested[a].length; i++)
+            {
+                if(nested[a][i] >= 0)
+                {
+                    arrays[a].set(i, Values.ARRAY, 0, arrays[nested[a][i]]);
+                }
+            }
+        }
+        return arrays;
+    }
+
+    private static byte readValue(ByteBuffer buffer, long[] numbers, Object[] objects, int index)
+    {
+        byte tag = buffer.get();
+        numbers[index] = 0;
+        objects[index] = null;
+        switch(tag)
+        {
+            case Values.NONE:
+                break;
+            case Values.STRING:
+                objects[index] = readText(buffer);
+                break;
+            case Values.BIG:
+                byte[] bytes = new byte[buffer.getInt()];
+                buffer.get(bytes);
+                objects[index] = new BigInteger(bytes);
+                break;
+            case Values.NUMBER:
+            case Values.BOOLEAN:
+            case Values.DECIMAL:
+            case Values.ARRAY:
+                numbers[index] = buffer.getLong();
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown tag " + tag);
+        }
+        return tag;
+    }
+
+    private static String readText(ByteBuffer buffer)
+    {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Passes everything on to the run's output, counting the lines.
+     */
+    private static final class LineCounter implements IOutput {
+        private final IOutput output;
+        long lines;
+
+        LineCounter(IOutput output, long lines)
+        {
+            this.output = output;
+            this.lines = lines;
+        }
+
+        @Override
+        public void println(String line)
+        {
+            output.println(line);
+            lines++;
+        }
+
+        @Override
+        public void flush()
+        {
+            output.flush();
+        }
+    }
+}
@@ -0,0 +1,882 @@
+package Interpreter;
+
+import Interpreter.Interfaces.IExecutor;
+import Interpreter.Interfaces.ITokenMap;
+
+import java.util.function.Consumer;
+
+/**
+ * The closure backend, between the tree walker and the bytecode backend: no classes are generated, so it runs wherever the tree
+ * backend does. Every statement is turned into a tree of node objects once, with its operators picked, variables resolved to slots,
+ * literals decoded and jump targets resolved to statement indices. Running a statement is then a call on its node, no token kinds,
+ * lengths or characters are looked at any more, and HotSpot can inline the nodes of a hot loop into each other.
+ *
+ * Nodes only handle what scripts mostly do: numbers, booleans, variables, array elements and the operators on them. When a value
+ * doesn't fit (a string that has to be parsed into a number, a division by zero, an unassigned variable...) or a statement has
+ * something nodes don't do at all (in, array literals, calls), the statement is run by the Executor instead, so results and error
+ * messages are exactly the tree backend's. Nodes have no side effects until the statement's last step, so handing a statement over
+ * halfway never does anything twice.
+ */
+public class ClosureCompiler {
+    private static final int STOP = Integer.MAX_VALUE; // Next statement after a line that didn't parse
+
+    /**
+     * What one run needs, made when it starts. Nodes are shared by every run of the script, so everything that changes lives here.
+     */
+    private static final class Frame {
+        final ExecutionContext context;
+        final Variables variables;
+        final IExecutor executor; // For the statements the nodes hand over
+
+        /*
+         * Value of the node evaluated last, see Values.
+         */
+        byte tag;
+        long number;
+        Object object;
+
+        /*
+         * Values.arithmetic writes its result here.
+         */
+        final long[] numbers = new long[1];
+        final Object[] objects = new Object[1];
+
+        Frame(ExecutionContext context)
+        {
+            this.context = context;
+            variables = context.variables;
+            executor = new Executor(context);
+        }
+    }
+
+    /*
+     * Expressions
+     */
+
+    private abstract static class Node {
+        /**
+         * Leaves the value in the frame.
+         * @return false if the value is one for the Executor, the statement has to be run by it.
+         */
+        abstract boolean eval(Frame f);
+    }
+
+    private static final class Literal extends Node {
+        private final byte tag;
+        private final long number;
+        private final Object object;
+
+        Literal(byte tag, long number, Object object)
+        {
+            this.tag = tag;
+            this.number = number;
+            this.object = object;
+        }
+
+        @Override
+        boolean eval(Frame f)
+        {
+            f.tag = tag;
+            f.number = number;
+            f.object = object;
+            return true;
+        }
+    }
+
+    private static final class Variable extends Node {
+        private final int slot;
+
+        Variable(int slot)
+        {
+            this.slot = slot;
+        }
+
+        @Override
+        boolean eval(Frame f)
+        {
+            Variables variables = f.variables;
+            byte tag = variables.tag(slot);
+            if(tag == Values.NONE)
+            {
+                return false;
+            }
+            f.tag = tag;
+            f.number = variables.numbers[slot];
+            f.object = variables.objects[slot];
+            return true;
+        }
+    }
+
+    /**
+     * a[i]
+     */
+    private static final class Element extends Node {
+        private final Node array, index;
+
+        Element(Node array, Node index)
+        {
+            this.array = array;
+            this.index = index;
+        }
+
+        @Override
+        boolean eval(Frame f)
+        {
+            if(!array.eval(f) || f.tag != Values.ARRAY)
+            {
+                return false;
+            }
+            ArrayValue value = (ArrayValue)f.object;
+            int element = index(f, index, value);
+            if(element < 0)
+            {
+                return false;
+            }
+            f.tag = value.tag(element);
+            f.number = value.number(element);
+            f.object = value.object(element);
+            return true;
+        }
+    }
+
+    private static final class Negate extends Node {
+        private final Node operand;
+
+        Negate(Node operand)
+        {
+            this.operand = operand;
+        }
+
+        @Override
+        boolean eval(Frame f)
+        {
+            if(!operand.eval(f))
+            {
+                return false;
+            }
+            if(f.tag == Values.NUMBER && f.number != Long.MIN_VALUE)
+            {
+                f.number = -f.number;
+                return true;
+            }
+            if(f.tag == Values.DECIMAL)
+            {
+                f.number = Double.doubleToRawLongBits(-Double.longBitsToDouble(f.number));
+                return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * + - * / %. Longs right here, BigIntegers and decimals through Values.
+     */
+    private static final class Arithmetic extends Node {
+        private final char operator;
+        private final Node left, right;
+
+        Arithmetic(char operator, Node left, Node right)
+        {
+            this.operator = operator;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        boolean eval(Frame f)
+        {
+            if(!left.eval(f))
+            {
+                return false;
+            }
+            byte lTag = f.tag;
+            long x = f.number;
+            Object lObject = f.object;
+            if(!right.eval(f))
+            {
+                return false;
+            }
+
+            if(lTag == Values.NUMBER && f.tag == Values.NUMBER)
+            {
+                long y = f.number;
+                long result;
+                switch(operator)
+                {
+                    case '+':
+                        result = x + y;
+                        if(((x ^ result) & (y ^ result)) >= 0)
+                        {
+                            f.number = result;
+                            return true;
+                        }
+                        break;
+
+                    case '-':
+                        result = x - y;
+                        if(((x ^ y) & (x ^ result)) >= 0)
+                        {
+                            f.number = result;
+                            return true;
+                        }
+                        break;
+
+                    case '*':
+                        long high = Math.multiplyHigh(x, y);
+                        result = x * y;
+                        if((high == 0 && result >= 0) || (high == -1 && result < 0))
+                        {
+                            f.number = result;
+                            return true;
+                        }
+                        break;
+
+                    default:
+                        if(y == 0)
+                        {
+                            return false;
+                        }
+                        // Long.MIN_VALUE / -1 is the one division that overflows.
+                        if(y != -1 || x != Long.MIN_VALUE)
+                        {
+                            f.number = operator == '/' ? x / y : x % y;
+                            return true;
+                        }
+                        break;
+                }
+                // Overflowed, so it's a BigInteger.
+            }
+
+            // Strings that look like numbers and arrays times n are the Executor's.
+            if(!Values.isNumber(lTag) || !Values.isNumber(f.tag))
+            {
+                return false;
+            }
+            byte tag = Values.arithmetic(operator, lTag, x, lObject, f.tag, f.number, f.object, f.numbers, f.objects, 0);
+            if(tag == Values.NONE)
+            {
+                return false;
+            }
+            f.tag = tag;
+            f.number = f.numbers[0];
+            f.object = f.objects[0];
+            f.objects[0] = null;
+            return true;
+        }
+    }
+
+    /**
+     * < <= > >=
+     */
+    private static final class Order extends Node {
+        private final boolean less, orEqual;
+        private final Node left, right;
+
+        Order(boolean less, boolean orEqual, Node left, Node right)
+        {
+            this.less = less;
+            this.orEqual = orEqual;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        boolean eval(Frame f)
+        {
+            if(!left.eval(f))
+            {
+                return false;
+            }
+            byte lTag = f.tag;
+            long x = f.number;
+            Object lObject = f.object;
+            if(!right.eval(f))
+            {
+                return false;
+            }
+
+            boolean result = false;
+            if(Values.isNumber(lTag))
+            {
+                if(!Values.isNumber(f.tag))
+                {
+                    return false;
+                }
+                int difference = lTag == Values.NUMBER && f.tag == Values.NUMBER
+                    ? Long.compare(x, f.number)
+                    : Values.compare(lTag, x, lObject, f.tag, f.number, f.object);
+                result = (less ? difference < 0 : difference > 0) || (orEqual && difference == 0);
+            }
+            // Ordering only means something for numbers, anything else on the left is just false.
+            f.tag = Values.BOOLEAN;
+            f.number = result ? 1 : 0;
+            f.object = null;
+            return true;
+        }
+    }
+
+    /**
+     * == !=
+     */
+    private static final class Equality extends Node {
+        private final boolean equal;
+        private final Node left, right;
+
+        Equality(boolean equal, Node left, Node right)
+        {
+            this.equal = equal;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        boolean eval(Frame f)
+        {
+            if(!left.eval(f))
+            {
+                return false;
+            }
+            byte lTag = f.tag;
+            long x = f.number;
+            Object lObject = f.object;
+            if(!right.eval(f))
+            {
+                return false;
+            }
+            boolean result = lTag == Values.NUMBER && f.tag == Values.NUMBER
+                ? x == f.number
+                : Values.equal(lTag, x, lObject, f.tag, f.number, f.object);
+            f.tag = Values.BOOLEAN;
+            f.number = result == equal ? 1 : 0;
+            f.object = null;
+            return true;
+        }
+    }
+
+    /**
+     * | and &, both sides always evaluated.
+     */
+    private static final class Logic extends Node {
+        private final boolean or;
+        private final Node left, right;
+
+        Logic(boolean or, Node left, Node right)
+        {
+            this.or = or;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        boolean eval(Frame f)
+        {
+            if(!left.eval(f) || f.tag != Values.BOOLEAN)
+            {
+                return false;
+            }
+            long x = f.number;
+            if(!right.eval(f) || f.tag != Values.BOOLEAN)
+            {
+                return false;
+            }
+            f.number = or ? x | f.number : x & f.number;
+            return true;
+        }
+    }
+
+    /**
+     * || and &&, the right side only if the left one doesn't decide it.
+     */
+    private static final class ShortCircuit extends Node {
+        private final boolean or;
+        private final Node left, right;
+
+        ShortCircuit(boolean or, Node left, Node right)
+        {
+            this.or = or;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        boolean eval(Frame f)
+        {
+            if(!left.eval(f) || f.tag != Values.BOOLEAN)
+            {
+                return false;
+            }
+            if(or ? f.number == 1 : f.number == 0)
+            {
+                return true;
+            }
+            return right.eval(f) && f.tag == Values.BOOLEAN;
+        }
+    }
+
+    /**
+     * @return the value of index as an element of array, -1 if it isn't a whole number inside it.
+     */
+    private static int index(Frame f, Node index, ArrayValue array)
+    {
+        if(!index.eval(f) || f.tag != Values.NUMBER || f.number < 0 || f.number >= array.length())
+        {
+            return -1;
+        }
+        return (int)f.number;
+    }
+
+    /*
+     * Statements
+     */
+
+    private abstract static class Statement {
+        final Instruction instruction;
+        final int next; // Index of the statement after this one
+
+        Statement(Instruction instruction, int next)
+        {
+            this.instruction = instruction;
+            this.next = next;
+        }
+
+        /**
+         * @return index of the statement to run next
+         */
+        abstract int run(Frame f);
+
+        /**
+         * Runs the statement the tree backend's way.
+         */
+        final int execute(Frame f)
+        {
+            f.context.setProgramCounter(next);
+            if(f.executor.execute(instruction.getTokenMap()) < 0)
+            {
+                f.context.flush();
+                Interpreter.log("Interpreter encountered error while executing line: " + instruction.getLine());
+            }
+            return f.context.getProgramCounter();
+        }
+    }
+
+    /**
+     * Anything the nodes don't do.
+     */
+    private static final class Executed extends Statement {
+        Executed(Instruction instruction, int next)
+        {
+            super(instruction, next);
+        }
+
+        @Override
+        int run(Frame f)
+        {
+            return execute(f);
+        }
+    }
+
+    /**
+     * A line that didn't parse, the run stops there like it does on the tree backend.
+     */
+    private static final class Broken extends Statement {
+        Broken(Instruction instruction, int next)
+        {
+            super(instruction, next);
+        }
+
+        @Override
+        int run(Frame f)
+        {
+            f.context.flush();
+            Interpreter.log("Interpreter encountered error while parsing line: " + instruction.getLine());
+            return STOP;
+        }
+    }
+
+    /**
+     * x = value
+     */
+    private static final class Assign extends Statement {
+        private final int slot;
+        private final Node value;
+
+        Assign(Instruction instruction, int next, int slot, Node value)
+        {
+            super(instruction, next);
+            this.slot = slot;
+            this.value = value;
+        }
+
+        @Override
+        int run(Frame f)
+        {
+            if(!value.eval(f))
+            {
+                return execute(f);
+            }
+            f.variables.write(slot, f.tag, f.number, f.object);
+            return next;
+        }
+    }
+
+    /**
+     * a[i] = value, in the order the Evaluator does it: the array, the index, then the value.
+     */
+    private static final class Store extends Statement {
+        private final Node array, index, value;
+
+        Store(Instruction instruction, int next, Node array, Node index, Node value)
+        {
+            super(instruction, next);
+            this.array = array;
+            this.index = index;
+            this.value = value;
+        }
+
+        @Override
+        int run(Frame f)
+        {
+            if(!array.eval(f) || f.tag != Values.ARRAY)
+            {
+                return execute(f);
+            }
+            ArrayValue target = (ArrayValue)f.object;
+            int element = index(f, index, target);
+            if(element < 0 || !value.eval(f))
+            {
+                return execute(f);
+            }
+            target.set(element, f.tag, f.number, f.object);
+            return next;
+        }
+    }
+
+    private static final class Out extends Statement {
+        private final Node value;
+
+        Out(Instruction instruction, int next, Node value)
+        {
+            super(instruction, next);
+            this.value = value;
+        }
+
+        @Override
+        int run(Frame f)
+        {
+            if(!value.eval(f))
+            {
+                return execute(f);
+            }
+            f.context.getOutput().println(Values.toText(f.tag, f.number, f.object));
+            return next;
+        }
+    }
+
+    private static final class Jump extends Statement {
+        private final int target;
+
+        Jump(Instruction instruction, int next, int target)
+        {
+            super(instruction, next);
+            this.target = target;
+        }
+
+        @Override
+        int run(Frame f)
+        {
+            return target;
+        }
+    }
+
+    /**
+     * jump? condition tag, anything but false jumps.
+     */
+    private static final class JumpIf extends Statement {
+        private final Node condition;
+        private final int target;
+
+        JumpIf(Instruction instruction, int next, Node condition, int target)
+        {
+            super(instruction, next);
+            this.condition = condition;
+            this.target = target;
+        }
+
+        @Override
+        int run(Frame f)
+        {
+            if(!condition.eval(f))
+            {
+                return execute(f);
+            }
+            return f.tag == Values.BOOLEAN && f.number == 0 ? next : target;
+        }
+    }
+
+    /**
+     * An expression on its own, evaluated for its errors.
+     */
+    private static final class Evaluate extends Statement {
+        private final Node value;
+
+        Evaluate(Instruction instruction, int next, Node value)
+        {
+            super(instruction, next);
+            this.value = value;
+        }
+
+        @Override
+        int run(Frame f)
+        {
+            return value.eval(f) ? next : execute(f);
+        }
+    }
+
+    /*
+     * Compiling
+     */
+
+    private Procedure procedure;
+
+    /*
+     * Expression being turned into nodes.
+     */
+    private ITokenMap tm;
+    private int position;
+    private int end;
+
+    /**
+     * @param procedure a procedure that makes no calls, those need the tree backend's frames
+     * @return runs the statements' nodes in a context
+     */
+    public Consumer<ExecutionContext> compile(Procedure procedure)
+    {
+        this.procedure = procedure;
+        Instruction[] instructions = procedure.getInstructions();
+        Statement[] statements = new Statement[instructions.length];
+        int compiled = 0;
+        for(int i = 0; i < instructions.length; i++)
+        {
+            statements[i] = statement(instructions[i], i + 1);
+            if(!(statements[i] instanceof Executed))
+            {
+                compiled++;
+            }
+        }
+        Interpreter.log("Closure compiled " + compiled + " of " + instructions.length + " statements, the Executor runs the rest.");
+
+        return context -> {
+            Frame f = new Frame(context);
+            int next = 0;
+            while(next < statements.length)
+            {
+                next = statements[next].run(f);
+            }
+        };
+    }
+
+    /**
+     * Same cases as Executor.execute.
+     */
+    private Statement statement(Instruction instruction, int next)
+    {
+        tm = instruction.getTokenMap();
+        if(tm == null)
+        {
+            return new Broken(instruction, next);
+        }
+        // Only what the compiler resolved, and nothing that reads input.
+        if(tm.size() == 0 || tm.getSlots() == null || tm.getLiterals() == null || readsInput())
+        {
+            return new Executed(instruction, next);
+        }
+        int size = tm.size();
+        Statement statement = null;
+
+        if(tm.getKeywordIndex() == 0)
+        {
+            switch(tm.getLengths()[0])
+            {
+                case 3:
+                    // out
+                    Node value = expression(1, size);
+                    statement = value != null ? new Out(instruction, next, value) : null;
+                    break;
+
+                case 4:
+                    // jump
+                    int target = size == 2 ? target(1) : -1;
+                    statement = target >= 0 ? new Jump(instruction, next, target) : null;
+                    break;
+
+                case 5:
+                    // jump?
+                    target = size >= 3 ? target(size - 1) : -1;
+                    Node condition = target >= 0 ? expression(1, size - 1) : null;
+                    statement = condition != null ? new JumpIf(instruction, next, condition, target) : null;
+                    break;
+
+                default:
+                    break;
+            }
+        } else if(tm.getAssignmentIndex() > 0) {
+            int assignIndex = tm.getAssignmentIndex();
+            int last = assignIndex - 1;
+            if(tm.getSource().charAt(tm.getOffsets()[assignIndex]) != '=')
+            {
+                // Calls, the Executor's.
+                statement = null;
+            } else if(tm.getKinds()[last] == ITokenMap.VARIABLE && tm.getSlots()[last] >= 0) {
+                Node value = expression(assignIndex + 1, size);
+                statement = value != null ? new Assign(instruction, next, tm.getSlots()[last], value) : null;
+            } else if(tm.getKinds()[last] == ITokenMap.SET && tm.tokenEquals(last, "]")) {
+                int open = Parser.openingBracket(tm, last);
+                Node array = open > 0 ? expression(0, open) : null;
+                Node index = array != null ? expression(open + 1, last) : null;
+                Node value = index != null ? expression(assignIndex + 1, size) : null;
+                statement = value != null ? new Store(instruction, next, array, index, value) : null;
+            }
+        } else {
+            Node value = expression(0, size);
+            statement = value != null ? new Evaluate(instruction, next, value) : null;
+        }
+        return statement != null ? statement : new Executed(instruction, next);
+    }
+
+    private boolean readsInput()
+    {
+        for(int i = 0; i < tm.size(); i++)
+        {
+            if(tm.getKinds()[i] == ITokenMap.KEYWORD && tm.tokenEquals(i, "in"))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param index index of the tag name
+     * @return index of the statement after the tag, -1 if there's no such tag.
+     */
+    private int target(int index)
+    {
+        if(tm.getKinds()[index] != ITokenMap.VARIABLE)
+        {
+            return -1;
+        }
+        int target = procedure.getTagIndex(tm.getSlots()[index]);
+        return target >= 0 ? target : procedure.getTagIndex(tm.getToken(index));
+    }
+
+    /**
+     * @return nodes for tokens [from, to), null if there's anything in there the nodes don't do.
+     */
+    private Node expression(int from, int to)
+    {
+        if(from >= to)
+        {
+            return null;
+        }
+        position = from;
+        end = to;
+        Node node = expression(1);
+        return position == end ? node : null;
+    }
+
+    /**
+     * Precedence climbing, same as the Evaluator.
+     */
+    private Node expression(int minPrecedence)
+    {
+        Node left = primary();
+        while(left != null && position < end)
+        {
+            int precedence = Parser.precedence(tm, position);
+            if(precedence == 0 || precedence < minPrecedence)
+            {
+                break;
+            }
+            int operator = position++;
+            Node right = expression(precedence + 1);
+            left = right != null ? binary(operator, left, right) : null;
+        }
+        return left;
+    }
+
+    private Node binary(int operator, Node left, Node right)
+    {
+        char c = tm.getSource().charAt(tm.getOffsets()[operator]);
+        boolean twoCharacters = tm.getLengths()[operator] == 2;
+        switch(tm.getKinds()[operator])
+        {
+            case ITokenMap.COMPARATOR:
+                if(c == '=' || c == '!')
+                {
+                    return new Equality(c == '=', left, right);
+                }
+                return new Order(c == '<', twoCharacters, left, right);
+
+            case ITokenMap.BOPERATOR:
+                return twoCharacters ? new ShortCircuit(c == '|', left, right) : new Logic(c == '|', left, right);
+
+            default:
+                return c == '+' || c == '-' || c == '*' || c == '/' || c == '%' ? new Arithmetic(c, left, right) : null;
+        }
+    }
+
+    private Node primary()
+    {
+        if(position >= end)
+        {
+            return null;
+        }
+        int i = position++;
+        switch(tm.getKinds()[i])
+        {
+            case ITokenMap.NUMERIC:
+            case ITokenMap.STRING:
+            case ITokenMap.LOGIC:
+                Literals literals = tm.getLiterals();
+                byte tag = literals.getTags()[i];
+                return tag != Values.NONE ? new Literal(tag, literals.getNumbers()[i], literals.getObjects()[i]) : null;
+
+            case ITokenMap.VARIABLE:
+                if(tm.getSlots()[i] < 0)
+                {
+                    return null;
+                }
+                Node node = new Variable(tm.getSlots()[i]);
+                // a[i], a[i][j]...
+                while(node != null && position < end && isSet(position, '['))
+                {
+                    position++;
+                    Node index = expression(1);
+                    if(index == null || position >= end || !isSet(position, ']'))
+                    {
+                        return null;
+                    }
+                    position++;
+                    node = new Element(node, index);
+                }
+                return node;
+
+            case ITokenMap.OPERATOR:
+                if(tm.getSource().charAt(tm.getOffsets()[i]) == '-')
+                {
+                    Node operand = primary();
+                    return operand != null ? new Negate(operand) : null;
+                }
+                return null;
+
+            default:
+                // Array literals and anything odd.
+                return null;
+        }
+    }
+
+    private boolean isSet(int i, char c)
+    {
+        return tm.getKinds()[i] == ITokenMap.SET && tm.getSource().charAt(tm.getOffsets()[i]) == c;
+    }
+}
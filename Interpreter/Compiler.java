@@ -0,0 +1,201 @@
+package Interpreter;
+
+import Interpreter.Interfaces.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.regex.Pattern;
+
+public class Compiler implements ICompiler {
+    private static final Pattern startMatch = Pattern.compile(".*START.*");
+    private static final Pattern endMatch = Pattern.compile(".*END.*");
+
+    @Override
+    public Procedure compile(String[] lines)
+    {
+        ArrayList<Instruction> instructions = new ArrayList<Instruction>();
+        HashMap<String, Integer> tagIndices = new HashMap<String, Integer>();
+        SymbolTable symbols = new SymbolTable();
+        IParser parser = new Parser();
+        boolean startFlagFound = false;
+        int[] parameters = null;
+        Instruction results = null;
+
+        for(int lineCount = 1; lineCount <= lines.length; lineCount++)
+        {
+            String line = lines[lineCount - 1];
+            if(!startFlagFound)
+            {
+                if(isStart(line))
+                {
+                    Interpreter.log("Compiler found START flag on line " + lineCount);
+                    startFlagFound = true;
+                    parameters = compileParameters(line, lineCount, symbols);
+                }
+                continue;
+            }
+
+            if(!compileLine(line, lineCount, parser, instructions, tagIndices, symbols))
+            {
+                results = compileResults(line, lineCount, symbols);
+                break;
+            }
+        }
+
+        if(!startFlagFound)
+        {
+            return null;
+        }
+        return new Procedure(instructions.toArray(new Instruction[0]), tagIndices, symbols, parameters, results);
+    }
+
+    /**
+     * START <- [a, b]. The parameters get their slots before anything else does.
+     * @return slots of the parameters in order, empty if there are none (or the list is broken, which is logged).
+     */
+    int[] compileParameters(String line, int lineCount, SymbolTable symbols)
+    {
+        ITokenMap tm = new Parser().parseLine(line);
+        int size = tm == null ? 0 : tm.size();
+        if(size < 2 || !tm.tokenEquals(0, "START"))
+        {
+            return new int[0];
+        }
+
+        int count = tm.tokenEquals(1, "<-") ? Parser.listLength(tm, 2, size) : -1;
+        int[] parameters = new int[Math.max(count, 0)];
+        for(int i = 0; i < parameters.length; i++)
+        {
+            // Every other token is a comma.
+            int token = 3 + i * 2;
+            if(tm.getKinds()[token] != ITokenMap.VARIABLE || !tm.tokenEquals(token + 1, i == parameters.length - 1 ? "]" : ","))
+            {
+                count = -1;
+                break;
+            }
+            parameters[i] = symbols.resolve(tm.getToken(token));
+        }
+        if(count < 0)
+        {
+            Interpreter.log("Err. Parameters on line " + lineCount + " should be a list of variables: START <- [a, b]");
+            return new int[0];
+        }
+        return parameters;
+    }
+
+    /**
+     * END -> [a + b, c]. Compiled like any statement, the procedure evaluates it when it returns.
+     * @return the list, null if there is none (or it's broken, which is logged).
+     */
+    Instruction compileResults(String line, int lineCount, SymbolTable symbols)
+    {
+        ITokenMap tm = new Parser().parseLine(line);
+        int size = tm == null ? 0 : tm.size();
+        if(size < 2 || !tm.tokenEquals(0, "END"))
+        {
+            return null;
+        }
+
+        Instruction results = null;
+        if(tm.tokenEquals(1, "->") && Parser.listLength(tm, 2, size) >= 0)
+        {
+            results = compileStatement(line.substring(tm.getOffsets()[2]), lineCount, symbols);
+        }
+        if(results == null)
+        {
+            Interpreter.log("Err. Results on line " + lineCount + " should be a list: END -> [a, b]");
+        }
+        return results;
+    }
+
+    static boolean isStart(String line)
+    {
+        return startMatch.matcher(line).find();
+    }
+
+    /**
+     * Compiles one line after the START flag. MappedCompiler runs this on many chunks of a file at once, each with its own lists.
+     * @param lineCount line number in the source file
+     * @return false if the line is the END flag, nothing after it belongs to the procedure.
+     */
+    boolean compileLine(String line, int lineCount, IParser parser, ArrayList<Instruction> instructions, HashMap<String, Integer> tagIndices, SymbolTable symbols)
+    {
+        if(endMatch.matcher(line).find())
+        {
+            Interpreter.log("Compiler found END flag on line " + lineCount);
+            return false;
+        }
+
+        // Tags point at whatever instruction comes next.
+        if(Parser.isTag(line))
+        {
+            tagIndices.put(line.replace(":", ""), instructions.size());
+            if(Interpreter.isDebug())
+            {
+                Interpreter.log("Found a tag: " + line.replace(":", "") + " -> " + instructions.size());
+            }
+            return true;
+        }
+
+        ITokenMap parseResult = parser.parseLine(line);
+
+        if(parseResult == null)
+        {
+            // Keep the broken line so the error is reported when (and if) execution gets there.
+            instructions.add(new Instruction(null, lineCount));
+            return true;
+        }
+
+        if(!isEmpty(parseResult))
+        {
+            instructions.add(new Instruction(resolveSlots(parseResult, symbols), lineCount));
+        }
+        return true;
+    }
+
+    /**
+     * Compiles a single statement against an existing symbol table. The optimizer uses this to write statements back after rewriting them.
+     * @param text statement source
+     * @param line source line the statement is reported under
+     * @return the instruction, null if the text doesn't parse
+     */
+    public Instruction compileStatement(String text, int line, SymbolTable symbols)
+    {
+        ITokenMap parseResult = new Parser().parseLine(text);
+        if(parseResult == null)
+        {
+            return null;
+        }
+        return new Instruction(resolveSlots(parseResult, symbols), line);
+    }
+
+    /**
+     * Gives every variable token its slot so the executor never has to look a name up, and decodes the literals while at it.
+     */
+    private ITokenMap resolveSlots(ITokenMap tm, SymbolTable symbols)
+    {
+        int[] kinds = tm.getKinds();
+        int[] slots = new int[kinds.length];
+
+        for(int i = 0; i < kinds.length; i++)
+        {
+            slots[i] = kinds[i] == ITokenMap.VARIABLE ? symbols.resolve(tm.getToken(i)) : -1;
+        }
+        return new TokenMap(tm, slots, Literals.decode(tm));
+    }
+
+    /**
+     * Blank lines, comments and lone tags don't do anything, no point keeping them around.
+     */
+    private boolean isEmpty(ITokenMap tm)
+    {
+        for(int kind : tm.getKinds())
+        {
+            if(!(kind == ITokenMap.WHITESPACE || kind == ITokenMap.TAG))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+}
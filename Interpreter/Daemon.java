@@ -0,0 +1,287 @@
+package Interpreter;
+
+import Interpreter.Interfaces.IOutput;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Keeps one warm JVM around for running scripts: java interpreter daemon <socket> listens on a Unix domain socket, and
+ * java interpreter client <socket> <filename>.goss runs a script there instead of starting a JVM of its own. The daemon keeps compiled
+ * scripts (see ScriptCache) and protocols, the protocol index and the JIT's work from one run to the next, so a short script costs
+ * about what it does to run.
+ *
+ * The conversation is plain text. The client sends "run <absolute path>" on a line of its own, then its stdin for as long as it has
+ * any, and the daemon sends back everything the run prints, errors included, and closes the connection when the run ends. Every run
+ * has its own ExecutionContext, so runs on the same script at the same time don't see each other.
+ */
+public class Daemon {
+    public static final int CACHE_CAPACITY = 256; // Scripts
+    private static final String RUN = "run ";
+
+    private final Path socket;
+    private final Engine engine;
+    private final ScriptCache cache;
+    private final int threads;
+
+    /**
+     * @param socket path of the socket file
+     * @param engine compiles the scripts, its backend runs them
+     * @param threads runs at once, any more wait for one to finish
+     */
+    public Daemon(Path socket, Engine engine, int threads)
+    {
+        this.socket = socket;
+        this.engine = engine;
+        this.threads = threads;
+        cache = new ScriptCache(engine, CACHE_CAPACITY);
+    }
+
+    /**
+     * Listens until the process is stopped. A socket file left behind by a daemon that's gone is replaced, one that's still answering
+     * isn't.
+     */
+    public void serve() throws IOException
+    {
+        if(Files.exists(socket))
+        {
+            SocketChannel running = null;
+            try {
+                running = SocketChannel.open(UnixDomainSocketAddress.of(socket));
+            } catch(IOException e) {
+                Files.delete(socket);
+            }
+            if(running != null)
+            {
+                // Only connected to see if anyone answers.
+                running.close();
+                Interpreter.log("Err. A daemon is already listening on " + socket);
+                return;
+            }
+        }
+
+        ExecutorService workers = Executors.newFixedThreadPool(threads);
+        try(ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX))
+        {
+            server.bind(UnixDomainSocketAddress.of(socket));
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    Files.deleteIfExists(socket);
+                } catch(IOException e) {
+                    // Replaced by the next daemon anyway.
+                }
+            }));
+            System.out.println("Serving scripts on " + socket);
+
+            while(true)
+            {
+                SocketChannel connection = server.accept();
+                workers.execute(() -> serve(connection));
+            }
+        } finally {
+            workers.shutdownNow();
+        }
+    }
+
+    /**
+     * One run, start to end.
+     */
+    private void serve(SocketChannel connection)
+    {
+        try(connection)
+        {
+            BufferedReader input = new BufferedReader(new InputStreamReader(new ChannelInput(connection), StandardCharsets.UTF_8));
+            Writer writer = new OutputStreamWriter(new ChannelOutput(connection), StandardCharsets.UTF_8);
+            BufferedOutput output = new BufferedOutput(writer);
+            Interpreter.setLog(new LogOutput(writer));
+            try {
+                run(input.readLine(), input, output);
+            } finally {
+                output.flush();
+                Interpreter.setLog(null);
+            }
+        } catch(IOException e) {
+            // The client went away, nothing to tell it.
+            Interpreter.log("Connection failed: " + e.getMessage());
+        }
+    }
+
+    private void run(String request, BufferedReader input, BufferedOutput output)
+    {
+        if(request == null || !request.startsWith(RUN))
+        {
+            Interpreter.log("Err. Expected \"" + RUN + "<path>\", got: " + request);
+            return;
+        }
+        Path path = Path.of(request.substring(RUN.length()));
+        Script script;
+        try {
+            // Picks up protocols added or edited since the last run.
+            engine.getProtocols().refresh();
+            boolean compiled = path.getFileName().toString().endsWith(".gosc");
+            script = compiled ? engine.load(path) : cache.get(path);
+        } catch(IOException e) {
+            Interpreter.log("Err. Loading " + path + " failed: " + e.getMessage());
+            return;
+        }
+        if(script == null)
+        {
+            Interpreter.log("Err. No START flag found in " + path);
+            return;
+        }
+
+        ExecutionContext context = script.newContext();
+        context.setInput(input);
+        context.setOutput(output);
+        script.run(context);
+        Interpreter.log("Ran " + path + ", cache hits: " + cache.getHits() + ", misses: " + cache.getMisses());
+    }
+
+    /**
+     * The thin client: sends the run to the daemon, forwards stdin to it and prints what comes back.
+     * @return false if there's no daemon to talk to (logged)
+     */
+    public static boolean client(Path socket, Path script)
+    {
+        SocketChannel connection;
+        try {
+            connection = SocketChannel.open(UnixDomainSocketAddress.of(socket));
+        } catch(IOException e) {
+            Interpreter.log("Err. No daemon listening on " + socket + ", start one with: java interpreter daemon " + socket);
+            return false;
+        }
+
+        try(connection)
+        {
+            OutputStream request = new ChannelOutput(connection);
+            request.write((RUN + script.toAbsolutePath() + "\n").getBytes(StandardCharsets.UTF_8));
+
+            // Nobody knows when the script wants input, so stdin goes over as it comes. Daemon thread, so an unread terminal doesn't
+            // keep the client alive after the run.
+            Thread forward = new Thread(() -> {
+                try {
+                    System.in.transferTo(request);
+                    connection.shutdownOutput();
+                } catch(IOException e) {
+                    // The run is over and the connection closed.
+                }
+            });
+            forward.setDaemon(true);
+            forward.start();
+
+            new ChannelInput(connection).transferTo(System.out);
+            System.out.flush();
+        } catch(IOException e) {
+            Interpreter.log("Err. Lost the daemon: " + e.getMessage());
+        }
+        return true;
+    }
+
+    /**
+     * Where a run's log goes: straight to the connection. Whatever logs flushes the run's output first, so errors come after what was
+     * printed before them. Takes lines from several threads at once (parallel loops), the writer is the lock BufferedOutput uses too.
+     */
+    private static final class LogOutput implements IOutput {
+        private final Writer writer;
+
+        LogOutput(Writer writer)
+        {
+            this.writer = writer;
+        }
+
+        @Override
+        public void println(String line)
+        {
+            synchronized(writer)
+            {
+                try {
+                    writer.write(line + System.lineSeparator());
+                    writer.flush();
+                } catch(IOException e) {
+                    // The client is gone.
+                }
+            }
+        }
+
+        @Override
+        public void flush()
+        {
+            // Every line is written straight away.
+        }
+    }
+
+    /*
+     * Streams over the socket. Channels.newInputStream/newOutputStream take the same lock for reading and writing, so a run blocked
+     * reading input couldn't print its prompt. These call the channel directly, which reads and writes independently.
+     */
+
+    private static final class ChannelInput extends InputStream {
+        private final SocketChannel channel;
+
+        ChannelInput(SocketChannel channel)
+        {
+            this.channel = channel;
+        }
+
+        @Override
+        public int read() throws IOException
+        {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException
+        {
+            if(length == 0)
+            {
+                return 0;
+            }
+            int read;
+            do {
+                read = channel.read(ByteBuffer.wrap(bytes, offset, length));
+            } while(read == 0);
+            return read;
+        }
+    }
+
+    private static final class ChannelOutput extends OutputStream {
+        private final SocketChannel channel;
+
+        ChannelOutput(SocketChannel channel)
+        {
+            this.channel = channel;
+        }
+
+        @Override
+        public void write(int b) throws IOException
+        {
+            write(new byte[]{ (byte)b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException
+        {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes, offset, length);
+            while(buffer.hasRemaining())
+            {
+                channel.write(buffer);
+            }
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package Interpreter;
+
+import Interpreter.Interfaces.*;
+import Interpreter.Bytecode.BytecodeCompiler;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.function.Consumer;
+
+/**
+ * Entry point for running .goss from Java. Compiles source into Scripts, which are then run in ExecutionContexts:
+ *
+ *     Script script = new Engine().compile(lines);
+ *     ExecutionContext context = script.newContext();
+ *     context.setOutput(...);
+ *     script.run(context);
+ *
+ * The engine only holds its settings and the protocols its scripts call, so one engine can compile on many threads, and scripts can be
+ * run on many threads at once.
+ */
+public class Engine {
+    private final boolean optimize;
+    private final boolean fuse;
+    private final Interpreter.backendMode backend;
+    private final Protocols protocols;
+
+    /**
+     * Optimizing, tree backend.
+     */
+    public Engine()
+    {
+        this(true, Interpreter.backendMode.Tree);
+    }
+
+    /**
+     * @param optimize run the Optimizer over compiled procedures
+     * @param backend what runs the compiled procedure
+     */
+    public Engine(boolean optimize, Interpreter.backendMode backend)
+    {
+        this(optimize, backend, Paths.get(""));
+    }
+
+    /**
+     * @param protocolRoot calls go to the protocols (.gosp) under this directory, see ProtocolIndex
+     */
+    public Engine(boolean optimize, Interpreter.backendMode backend, Path protocolRoot)
+    {
+        this(optimize, true, backend, protocolRoot);
+    }
+
+    /**
+     * @param fuse run common statement shapes as superinstructions on the tree backend, see Superinstruction. Off to compare.
+     */
+    public Engine(boolean optimize, boolean fuse, Interpreter.backendMode backend, Path protocolRoot)
+    {
+        this.optimize = optimize;
+        this.fuse = fuse;
+        this.backend = backend;
+        // Protocols are compiled by this engine too, so they call the same protocols.
+        protocols = new Protocols(new ProtocolIndex(protocolRoot), this);
+    }
+
+    /**
+     * @return the protocols scripts of this engine call, shared by all of them
+     */
+    public Protocols getProtocols()
+    {
+        return protocols;
+    }
+
+    /**
+     * @param lines every line of the source file
+     * @return the compiled script. Null if no START flag was found.
+     */
+    public Script compile(String[] lines)
+    {
+        // Every statement is parsed exactly once, up front. Jumps just move the program counter around the compiled instructions.
+        ICompiler compiler = new Compiler();
+        return optimizeAndLink(compiler.compile(lines));
+    }
+
+    /**
+     * Compiles straight from the file: it's memory mapped and big files are compiled a chunk per core, see MappedCompiler.
+     * @param path .goss file
+     * @return the compiled script. Null if no START flag was found.
+     */
+    public Script compile(Path path) throws IOException
+    {
+        return optimizeAndLink(new MappedCompiler().compile(path));
+    }
+
+    /**
+     * Compiles and optimizes without picking a backend. Protocols are compiled with this, calls always run them on the tree backend.
+     * @param path .goss or .gosp file
+     * @return the procedure. Null if no START flag was found.
+     */
+    public Procedure compileProcedure(Path path) throws IOException
+    {
+        Procedure procedure = optimize(new MappedCompiler().compile(path), false);
+        return procedure != null && fuse ? Superinstruction.fuse(procedure) : procedure;
+    }
+
+    private Script optimizeAndLink(Procedure procedure)
+    {
+        procedure = optimize(procedure, true);
+        return procedure == null ? null : link(procedure);
+    }
+
+    /**
+     * @param script false for protocols, only their results outlive them (see Optimizer)
+     */
+    private Procedure optimize(Procedure procedure, boolean script)
+    {
+        if(procedure == null)
+        {
+            return null;
+        }
+        Interpreter.log("Compiled " + procedure.size() + " instructions.");
+
+        if(optimize)
+        {
+            IOptimizer optimizer = new Optimizer(script);
+            procedure = optimizer.optimize(procedure);
+        }
+        return procedure;
+    }
+
+    /**
+     * Loads a script precompiled to .gosc. It was optimized (or not) when it was compiled, only the backend is picked here.
+     * @param path .gosc file
+     * @return the script, null if the file can't be read as .gosc (logged).
+     */
+    public Script load(Path path) throws IOException
+    {
+        Procedure procedure = GoscFormat.load(path);
+        return procedure == null ? null : link(procedure);
+    }
+
+    /**
+     * Hands the procedure to the backend.
+     */
+    private Script link(Procedure procedure)
+    {
+        Consumer<ExecutionContext> generated = null;
+        if(backend != Interpreter.backendMode.Tree && procedure.makesCalls())
+        {
+            // Calls need the tree backend's frames: the generated code keeps variables in JVM locals, closures in one Variables.
+            Interpreter.log("Script makes calls, running it on the tree backend.");
+        } else if(backend == Interpreter.backendMode.Closure) {
+            generated = new ClosureCompiler().compile(procedure);
+        } else if(backend == Interpreter.backendMode.Bytecode) {
+            generated = new BytecodeCompiler().compile(procedure);
+            if(generated == null)
+            {
+                // Runs the same either way, so only debug says so.
+                Interpreter.log("Bytecode compilation failed, falling back to the tree backend.");
+            }
+        }
+        if(generated == null && fuse)
+        {
+            procedure = Superinstruction.fuse(procedure);
+        }
+        return new Script(procedure, generated, protocols);
+    }
+}
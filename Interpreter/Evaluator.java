@@ -0,0 +1,742 @@
+package Interpreter;
+
+import Interpreter.Interfaces.ITokenMap;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.Arrays;
+
+/**
+ * Evaluates expressions straight off the token map by precedence climbing (see Parser.precedence).
+ * Operands live on a reusable stack of tags/longs/objects so nothing is allocated per operator once the stack has grown.
+ * || and && only evaluate their right side when they have to, | and & always evaluate both.
+ */
+class Evaluator {
+    private Variables variables; // The running procedure's, calls switch them
+
+    /*
+     * Operand stack, see Values.
+     */
+    private byte[] tags = new byte[16];
+    private long[] numbers = new long[16];
+    private Object[] objects = new Object[16];
+    private int top = 0;
+
+    /*
+     * Expression being evaluated.
+     */
+    private ITokenMap tm;
+    private int[] kinds;
+    private int[] slots;
+    private Literals literals;
+    private String source;
+    private int position;
+    private int end;
+
+    /*
+     * Value of the last expression evaluated.
+     */
+    byte resultTag;
+    long resultNumber;
+    Object resultObject;
+
+    /*
+     * Set by the optimizer when it folds constants, failures there are the script's problem at runtime not at compile time.
+     */
+    boolean quiet = false;
+
+    /*
+     * Run the expressions belong to, in reads from its input. Null when folding constants.
+     */
+    private final ExecutionContext context;
+
+    Evaluator(Variables variables, ExecutionContext context)
+    {
+        this.variables = variables;
+        this.context = context;
+    }
+
+    void setVariables(Variables variables)
+    {
+        this.variables = variables;
+    }
+
+    /**
+     * Evaluates tokens [from, to) of the token map. The value ends up in resultTag/resultNumber/resultObject.
+     * @return false if the expression failed, the reason has been logged.
+     */
+    boolean evaluate(ITokenMap tm, int from, int to)
+    {
+        begin(tm, from, to);
+
+        if(from >= to)
+        {
+            log("Err. Missing expression.");
+            return false;
+        }
+
+        boolean ok = expression(1, false);
+        if(ok && position != end)
+        {
+            log("Err. Unexpected token: " + tm.getToken(position));
+            ok = false;
+        }
+        if(ok)
+        {
+            top--;
+            resultTag = tags[top];
+            resultNumber = numbers[top];
+            resultObject = objects[top];
+        }
+
+        // Drop references so strings don't hang around on the stack.
+        Arrays.fill(objects, 0, Math.min(objects.length, to - from + 1), null);
+        this.tm = null;
+        return ok;
+    }
+
+    /**
+     * Evaluates the list [from, to), [a, b + 1], a value at a time without making an array of it. For the arguments and results of
+     * calls. Value i is then listTag(i)/listNumber(i)/listObject(i), call clearList() once they've been copied.
+     * @return number of values, -1 if one failed (logged).
+     */
+    int evaluateList(ITokenMap tm, int from, int to)
+    {
+        begin(tm, from, to);
+
+        boolean ok = from < to && isSet(from, '[');
+        if(ok)
+        {
+            position++;
+            ok = elements(false);
+        } else {
+            log("Err. Expected a list: [a, b]");
+        }
+        if(ok && position != end)
+        {
+            log("Err. Unexpected token: " + tm.getToken(position));
+            ok = false;
+        }
+        this.tm = null;
+        if(!ok)
+        {
+            clearList();
+            return -1;
+        }
+        return top;
+    }
+
+    byte listTag(int i)
+    {
+        return tags[i];
+    }
+
+    long listNumber(int i)
+    {
+        return numbers[i];
+    }
+
+    Object listObject(int i)
+    {
+        return objects[i];
+    }
+
+    void clearList()
+    {
+        Arrays.fill(objects, 0, top, null);
+        top = 0;
+    }
+
+    private void begin(ITokenMap tm, int from, int to)
+    {
+        this.tm = tm;
+        kinds = tm.getKinds();
+        slots = tm.getSlots();
+        literals = tm.getLiterals();
+        source = tm.getSource();
+        position = from;
+        end = to;
+        top = 0;
+
+        // Every token pushes at most one operand.
+        if(tags.length < to - from + 1)
+        {
+            int capacity = to - from + 1;
+            tags = Arrays.copyOf(tags, capacity);
+            numbers = Arrays.copyOf(numbers, capacity);
+            objects = Arrays.copyOf(objects, capacity);
+        }
+    }
+
+    /**
+     * a[i] = value. Tokens [0, open) are the array, (open, close) the index and everything after the = is the value, evaluated in
+     * that order.
+     * @return false if any of it failed, the reason has been logged.
+     */
+    boolean store(ITokenMap tm, int open, int close)
+    {
+        if(!evaluate(tm, 0, open))
+        {
+            return false;
+        }
+        if(resultTag != Values.ARRAY)
+        {
+            log("Err. Not an array: " + Values.toText(resultTag, resultNumber, resultObject));
+            return false;
+        }
+        ArrayValue array = (ArrayValue)resultObject;
+
+        if(!evaluate(tm, open + 1, close))
+        {
+            return false;
+        }
+        // Checked on the stack like any other index.
+        push(resultTag, resultNumber, resultObject);
+        int element = checkIndex(array, 0);
+        top = 0;
+        objects[0] = null;
+        if(element < 0)
+        {
+            return false;
+        }
+
+        if(!evaluate(tm, tm.getAssignmentIndex() + 1, tm.size()))
+        {
+            return false;
+        }
+        array.set(element, resultTag, resultNumber, resultObject);
+        return true;
+    }
+
+    /**
+     * Precedence climbing. Leaves the value on top of the stack, or nothing when skipping.
+     * @param minPrecedence weakest operator this call may consume
+     * @param skip true to walk over the tokens without evaluating anything (right side of a short circuit)
+     */
+    private boolean expression(int minPrecedence, boolean skip)
+    {
+        if(!primary(skip))
+        {
+            return false;
+        }
+
+        while(position < end)
+        {
+            int precedence = Parser.precedence(tm, position);
+            if(precedence == 0 || precedence < minPrecedence)
+            {
+                break;
+            }
+            int operator = position++;
+
+            if(kinds[operator] == ITokenMap.BOPERATOR && tm.getLengths()[operator] == 2 && !skip)
+            {
+                // || and &&: the left side might already decide it.
+                int l = toBoolean(top - 1);
+                if(l < 0)
+                {
+                    return false;
+                }
+                boolean decided = source.charAt(tm.getOffsets()[operator]) == '|' ? l == 1 : l == 0;
+                if(decided)
+                {
+                    if(!expression(precedence + 1, true))
+                    {
+                        return false;
+                    }
+                    continue;
+                }
+
+                top--;
+                if(!expression(precedence + 1, false))
+                {
+                    return false;
+                }
+                int r = toBoolean(top - 1);
+                if(r < 0)
+                {
+                    return false;
+                }
+                continue;
+            }
+
+            if(!expression(precedence + 1, skip))
+            {
+                return false;
+            }
+            if(!skip && !apply(operator))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean primary(boolean skip)
+    {
+        if(position >= end)
+        {
+            log("Err. Missing operand.");
+            return false;
+        }
+
+        int i = position++;
+        switch(kinds[i])
+        {
+            case ITokenMap.NUMERIC:
+            case ITokenMap.STRING:
+            case ITokenMap.LOGIC:
+                if(skip)
+                {
+                    return true;
+                }
+                if(literals.getTags()[i] == Values.NONE)
+                {
+                    log("Err. Unable to format numeric type.");
+                    return false;
+                }
+                push(literals.getTags()[i], literals.getNumbers()[i], literals.getObjects()[i]);
+                return true;
+
+            case ITokenMap.VARIABLE:
+                if(skip)
+                {
+                    while(position < end && isSet(position, '['))
+                    {
+                        if(!index(true))
+                        {
+                            return false;
+                        }
+                    }
+                    return true;
+                }
+                int slot = slots != null && slots[i] >= 0 ? slots[i] : variables.lookupSlot(tm.getToken(i));
+                byte tag = variables.tag(slot);
+                if(tag == Values.NONE)
+                {
+                    log("Err. Variable not initialized: " + tm.getToken(i));
+                    return false;
+                }
+                push(tag, variables.numbers[slot], variables.objects[slot]);
+                // a[i], a[i][j]...
+                while(position < end && isSet(position, '['))
+                {
+                    if(!index(false))
+                    {
+                        return false;
+                    }
+                }
+                return true;
+
+            case ITokenMap.SET:
+                if(!isSet(i, '['))
+                {
+                    log("Err. Unexpected token: " + tm.getToken(i));
+                    return false;
+                }
+                return list(skip);
+
+            case ITokenMap.KEYWORD:
+                if(!tm.tokenEquals(i, "in"))
+                {
+                    log("Err. Unexpected keyword in expression: " + tm.getToken(i));
+                    return false;
+                }
+                return skip || readInput();
+
+            case ITokenMap.OPERATOR:
+                if(source.charAt(tm.getOffsets()[i]) != '-')
+                {
+                    log("Err. Unexpected token: " + tm.getToken(i));
+                    return false;
+                }
+                // Unary minus
+                if(!primary(skip))
+                {
+                    return false;
+                }
+                if(skip)
+                {
+                    return true;
+                }
+                return negate(top - 1);
+
+            default:
+                log("Err. Unexpected token: " + tm.getToken(i));
+                return false;
+        }
+    }
+
+    /**
+     * Pops both operands of the operator and pushes the result.
+     */
+    private boolean apply(int operator)
+    {
+        int r = --top;
+        int l = top - 1;
+        char c = source.charAt(tm.getOffsets()[operator]);
+        boolean orEqual = tm.getLengths()[operator] == 2;
+
+        switch(kinds[operator])
+        {
+            case ITokenMap.COMPARATOR:
+                boolean result = false;
+                if(c == '=' || c == '!')
+                {
+                    result = Values.equal(tags[l], numbers[l], objects[l], tags[r], numbers[r], objects[r]) == (c == '=');
+                } else if(Values.isNumber(tags[l])) {
+                    // Ordering only means something for numbers. Anything else on the left is just false.
+                    if(!Values.isNumber(tags[r]))
+                    {
+                        log("Err. Can't compare a number with: " + Values.toText(tags[r], numbers[r], objects[r]));
+                        return false;
+                    }
+                    int difference = tags[l] == Values.NUMBER && tags[r] == Values.NUMBER
+                        ? Long.compare(numbers[l], numbers[r])
+                        : Values.compare(tags[l], numbers[l], objects[l], tags[r], numbers[r], objects[r]);
+                    result = (c == '<' ? difference < 0 : difference > 0) || (orEqual && difference == 0);
+                }
+                set(l, Values.BOOLEAN, result ? 1 : 0, null);
+                return true;
+
+            case ITokenMap.BOPERATOR:
+                int lb = toBoolean(l), rb = toBoolean(r);
+                if(lb < 0 || rb < 0)
+                {
+                    return false;
+                }
+                set(l, Values.BOOLEAN, c == '|' ? lb | rb : lb & rb, null);
+                return true;
+
+            default:
+                if(c == '*' && tags[l] == Values.ARRAY)
+                {
+                    return repeat(l, r);
+                }
+                if(!toNumber(l) || !toNumber(r))
+                {
+                    return false;
+                }
+                if(c != '+' && c != '-' && c != '*' && c != '/' && c != '%')
+                {
+                    log("Err. Operator calculation fell through to defualt. Operator not recognised?");
+                    return false;
+                }
+                if(tags[l] == Values.NUMBER && tags[r] == Values.NUMBER)
+                {
+                    // Fast path, plain longs. Overflow drops through to BigInteger.
+                    long x = numbers[l], y = numbers[r];
+                    try {
+                        switch(c)
+                        {
+                            case '+':
+                                numbers[l] = Math.addExact(x, y);
+                                return true;
+
+                            case '-':
+                                numbers[l] = Math.subtractExact(x, y);
+                                return true;
+
+                            case '*':
+                                numbers[l] = Math.multiplyExact(x, y);
+                                return true;
+
+                            default:
+                                if(y == 0)
+                                {
+                                    log("Err. / by zero");
+                                    return false;
+                                }
+                                // Long.MIN_VALUE / -1 is the one division that overflows.
+                                if(y != -1 || x != Long.MIN_VALUE)
+                                {
+                                    numbers[l] = c == '/' ? x / y : x % y;
+                                    return true;
+                                }
+                                break;
+                        }
+                    } catch(ArithmeticException overflow) {
+                        // Too big for a long, so it's a BigInteger.
+                    }
+                }
+
+                byte tag = Values.arithmetic(c, tags[l], numbers[l], objects[l], tags[r], numbers[r], objects[r], numbers, objects, l);
+                if(tag == Values.NONE)
+                {
+                    log("Err. / by zero");
+                    return false;
+                }
+                tags[l] = tag;
+                return true;
+        }
+    }
+
+    /**
+     * [ element, element... ], position is just after the [. Leaves the new array on the stack.
+     */
+    private boolean list(boolean skip)
+    {
+        int first = top;
+        if(!elements(skip))
+        {
+            return false;
+        }
+        if(skip)
+        {
+            return true;
+        }
+
+        ArrayValue array = ArrayValue.of(tags, numbers, objects, first, top);
+        top = first;
+        push(Values.ARRAY, 0, array);
+        return true;
+    }
+
+    /**
+     * Values of a list up to and including its ], each pushed. The [ has been read already.
+     */
+    private boolean elements(boolean skip)
+    {
+        if(position < end && isSet(position, ']'))
+        {
+            position++;
+            return true;
+        }
+        while(true)
+        {
+            if(!expression(1, skip))
+            {
+                return false;
+            }
+            if(position < end && isSet(position, ','))
+            {
+                position++;
+                continue;
+            }
+            if(position < end && isSet(position, ']'))
+            {
+                position++;
+                return true;
+            }
+            log("Err. Missing ] after array.");
+            return false;
+        }
+    }
+
+    /**
+     * [ index ] after an array, position is at the [. Swaps the array on top of the stack for the element.
+     */
+    private boolean index(boolean skip)
+    {
+        position++;
+        if(!expression(1, skip))
+        {
+            return false;
+        }
+        if(position >= end || !isSet(position, ']'))
+        {
+            log("Err. Missing ] after index.");
+            return false;
+        }
+        position++;
+        if(skip)
+        {
+            return true;
+        }
+
+        int i = --top;
+        int a = top - 1;
+        if(tags[a] != Values.ARRAY)
+        {
+            log("Err. Not an array: " + Values.toText(tags[a], numbers[a], objects[a]));
+            return false;
+        }
+        ArrayValue array = (ArrayValue)objects[a];
+        int element = checkIndex(array, i);
+        if(element < 0)
+        {
+            return false;
+        }
+        set(a, array.tag(element), array.number(element), array.object(element));
+        return true;
+    }
+
+    /**
+     * @param index stack index of the index
+     * @return the index as an int, -1 if it isn't a whole number inside the array (logged).
+     */
+    private int checkIndex(ArrayValue array, int index)
+    {
+        if(!toNumber(index))
+        {
+            return -1;
+        }
+        if(tags[index] != Values.NUMBER || numbers[index] < 0 || numbers[index] >= array.length())
+        {
+            log("Err. Index " + Values.toText(tags[index], numbers[index], objects[index]) + " out of bounds for length " + array.length() + ".");
+            return -1;
+        }
+        return (int)numbers[index];
+    }
+
+    /**
+     * [x] * n
+     */
+    private boolean repeat(int l, int r)
+    {
+        if(!toNumber(r))
+        {
+            return false;
+        }
+        ArrayValue array = tags[r] == Values.NUMBER ? ((ArrayValue)objects[l]).repeat(numbers[r]) : null;
+        if(array == null)
+        {
+            log("Err. Can't make an array " + Values.toText(tags[r], numbers[r], objects[r]) + " times that long.");
+            return false;
+        }
+        set(l, Values.ARRAY, 0, array);
+        return true;
+    }
+
+    private boolean isSet(int i, char c)
+    {
+        return kinds[i] == ITokenMap.SET && source.charAt(tm.getOffsets()[i]) == c;
+    }
+
+    private boolean negate(int index)
+    {
+        switch(tags[index])
+        {
+            case Values.NUMBER:
+                if(numbers[index] != Long.MIN_VALUE)
+                {
+                    numbers[index] = -numbers[index];
+                    return true;
+                }
+                tags[index] = Values.fromBig(BigInteger.valueOf(numbers[index]).negate(), numbers, objects, index);
+                return true;
+
+            case Values.BIG:
+                tags[index] = Values.fromBig(((BigInteger)objects[index]).negate(), numbers, objects, index);
+                return true;
+
+            case Values.DECIMAL:
+                numbers[index] = Double.doubleToRawLongBits(-Double.longBitsToDouble(numbers[index]));
+                return true;
+
+            default:
+                log("Err. Can only negate numbers.");
+                return false;
+        }
+    }
+
+    /**
+     * @return 1 for true, 0 for false, -1 if the operand isn't a boolean.
+     */
+    private int toBoolean(int index)
+    {
+        if(tags[index] != Values.BOOLEAN)
+        {
+            log("Err. Not a boolean: " + Values.toText(tags[index], numbers[index], objects[index]));
+            return -1;
+        }
+        return (int)numbers[index];
+    }
+
+    /**
+     * Operands of operators have to be numbers, or strings that look like one (weak typing, "5" is as good as 5).
+     * Strings are turned into the number in place.
+     * @return false if the operand isn't numeric.
+     */
+    private boolean toNumber(int index)
+    {
+        if(Values.isNumber(tags[index]))
+        {
+            return true;
+        }
+        if(tags[index] == Values.STRING)
+        {
+            String s = (String)objects[index];
+            byte tag = Values.parseNumber(s, numbers, objects, index);
+            if(tag != Values.NONE)
+            {
+                tags[index] = tag;
+                return true;
+            }
+        }
+        log("Err. Unable to format numeric type: " + Values.toText(tags[index], numbers[index], objects[index]));
+        return false;
+    }
+
+    private boolean readInput()
+    {
+        String input;
+        BufferedReader reader = context != null ? context.getInput() : null;
+        if(context != null)
+        {
+            // The prompt has to be out before anyone can answer it.
+            context.flush();
+        }
+        if(reader != null)
+        {
+            try {
+                input = reader.readLine();
+            } catch(IOException e) {
+                log("Err. Reading input failed: " + e.getMessage());
+                return false;
+            }
+        } else {
+            // Get input from console!
+            if(System.console() == null)
+            {
+                log("Err. No console to read input from.");
+                return false;
+            }
+            input = System.console().readLine();
+        }
+        if(input == null)
+        {
+            log("Err. Invalid input.");
+            return false;
+        }
+
+        // Decoded once here, so numbers typed in are numbers from now on.
+        byte tag = Values.parseNumber(input, numbers, objects, top);
+        if(tag != Values.NONE)
+        {
+            tags[top++] = tag;
+        } else {
+            push(Values.STRING, 0, input);
+        }
+        return true;
+    }
+
+    private void push(byte tag, long number, Object object)
+    {
+        tags[top] = tag;
+        numbers[top] = number;
+        objects[top] = object;
+        top++;
+    }
+
+    private void set(int index, byte tag, long number, Object object)
+    {
+        tags[index] = tag;
+        numbers[index] = number;
+        objects[index] = object;
+    }
+
+    private void log(String s)
+    {
+        if(quiet)
+        {
+            return;
+        }
+        if(context != null)
+        {
+            context.flush();
+        }
+        Interpreter.log(s);
+    }
+}
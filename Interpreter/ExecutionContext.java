@@ -0,0 +1,272 @@
+package Interpreter;
+
+import Interpreter.Interfaces.IOutput;
+import Interpreter.Interfaces.ITokenMap;
+
+import java.io.BufferedReader;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+
+/**
+ * Everything a single run of a script changes: the variables, the program counter, the calls in progress and where in and out go.
+ * The compiled Script is shared and never changes, so any number of contexts can run the same script at once.
+ * A context belongs to one run on one thread, nothing in here is synchronized.
+ *
+ * Calls are a stack of frames in here rather than Java calls, so a script can recurse as deep as MAX_DEPTH without the interpreter
+ * running out of stack. Every call gets variables of its own, and when it returns they're cleared and kept for the next call of the
+ * same procedure. So calling in a loop, or recursing again after a deep recursion, doesn't allocate.
+ */
+public class ExecutionContext {
+    public static final int MAX_DEPTH = 1000000; // Calls in progress at once, a few hundred bytes each
+
+    private Procedure procedure; // The one running, the script's own unless in a call
+    Variables variables; // The running procedure's
+    private int programCounter = 0;
+    private BufferedReader input = null; // Null reads the console
+    private IOutput output = null; // Made on first use, buffering System.out
+    private Protocols protocols; // Made on first call unless the script came with some
+
+    /**
+     * A call in progress: what was running before it and where to carry on when it returns.
+     */
+    private static final class Frame {
+        Procedure procedure;
+        Variables variables;
+        int returnTo;
+        ITokenMap callSite;
+    }
+
+    private Frame[] frames = new Frame[8]; // [0, depth) in use, innermost last. The rest are kept for the next calls.
+    private int depth = 0;
+    private final IdentityHashMap<Procedure, ArrayList<Variables>> spareVariables = new IdentityHashMap<Procedure, ArrayList<Variables>>();
+    private final IdentityHashMap<ITokenMap, Procedure> callees = new IdentityHashMap<ITokenMap, Procedure>(); // By call statement
+
+    public ExecutionContext(Procedure procedure)
+    {
+        this(procedure, null);
+    }
+
+    /**
+     * @param protocols what calls are resolved against, null for the protocols under the working directory
+     */
+    public ExecutionContext(Procedure procedure, Protocols protocols)
+    {
+        this.procedure = procedure;
+        variables = new Variables(procedure.getSymbols());
+        this.protocols = protocols;
+    }
+
+    /**
+     * @return the procedure running right now, which also has the tags jumps go to. The script's own unless it's in a call.
+     */
+    public Procedure getProcedure()
+    {
+        return procedure;
+    }
+
+    /**
+     * @return index of the next instruction to execute
+     */
+    public int getProgramCounter()
+    {
+        return programCounter;
+    }
+
+    /**
+     * Jumps write here.
+     */
+    public void setProgramCounter(int programCounter)
+    {
+        this.programCounter = programCounter;
+    }
+
+    /**
+     * @return where in reads lines from, null for the console
+     */
+    public BufferedReader getInput()
+    {
+        return input;
+    }
+
+    public void setInput(BufferedReader input)
+    {
+        this.input = input;
+    }
+
+    /**
+     * @return where out prints to, a BufferedOutput on System.out by default
+     */
+    public IOutput getOutput()
+    {
+        if(output == null)
+        {
+            output = new BufferedOutput(System.out);
+        }
+        return output;
+    }
+
+    public void setOutput(IOutput output)
+    {
+        this.output = output;
+    }
+
+    /**
+     * Buffers out with the default buffer size, see BufferedOutput.
+     */
+    public void setOutput(OutputStream output)
+    {
+        this.output = new BufferedOutput(output);
+    }
+
+    /**
+     * Buffers out with the default buffer size, see BufferedOutput.
+     */
+    public void setOutput(Writer output)
+    {
+        this.output = new BufferedOutput(output);
+    }
+
+    /**
+     * Writes out whatever out has buffered. Runs flush when they end, this is for flushing in the middle of one.
+     */
+    public void flush()
+    {
+        if(output != null)
+        {
+            output.flush();
+        }
+    }
+
+    /**
+     * @return the protocols calls go to
+     */
+    public Protocols getProtocols()
+    {
+        if(protocols == null)
+        {
+            protocols = new Protocols(new ProtocolIndex(Paths.get("")), new Engine());
+        }
+        return protocols;
+    }
+
+    public void setProtocols(Protocols protocols)
+    {
+        this.protocols = protocols;
+    }
+
+    /*
+     * Calls, see Executor.
+     */
+
+    /**
+     * @return calls in progress, 0 while the script itself is running
+     */
+    public int getDepth()
+    {
+        return depth;
+    }
+
+    /**
+     * @return the procedure the call statement called last time, null if it hasn't run yet
+     */
+    Procedure getCallee(ITokenMap callSite)
+    {
+        return callees.get(callSite);
+    }
+
+    void setCallee(ITokenMap callSite, Procedure callee)
+    {
+        callees.put(callSite, callee);
+    }
+
+    /**
+     * Starts running callee from its first instruction, with variables that have nothing in them.
+     * @param callSite the call statement, handed back by leave()
+     * @return false if there are already MAX_DEPTH calls in progress.
+     */
+    boolean enter(Procedure callee, ITokenMap callSite)
+    {
+        if(depth == MAX_DEPTH)
+        {
+            return false;
+        }
+        if(depth == frames.length)
+        {
+            frames = Arrays.copyOf(frames, Math.min(depth * 2, MAX_DEPTH));
+        }
+        Frame frame = frames[depth];
+        if(frame == null)
+        {
+            frame = frames[depth] = new Frame();
+        }
+        frame.procedure = procedure;
+        frame.variables = variables;
+        frame.returnTo = programCounter;
+        frame.callSite = callSite;
+        depth++;
+
+        ArrayList<Variables> spare = spareVariables.get(callee);
+        procedure = callee;
+        variables = spare != null && !spare.isEmpty() ? spare.remove(spare.size() - 1) : new Variables(callee.getSymbols());
+        programCounter = 0;
+        return true;
+    }
+
+    /**
+     * Goes back to whatever made the innermost call, right after the call statement. Its variables are cleared and kept.
+     * @return the call statement
+     */
+    ITokenMap leave()
+    {
+        Frame frame = frames[--depth];
+        release(procedure, variables);
+        procedure = frame.procedure;
+        variables = frame.variables;
+        programCounter = frame.returnTo;
+        ITokenMap callSite = frame.callSite;
+        frame.procedure = null;
+        frame.variables = null;
+        frame.callSite = null;
+        return callSite;
+    }
+
+    /**
+     * Abandons every call in progress, back to the script itself. A run that stopped in the middle of a call leaves them behind.
+     */
+    void unwind()
+    {
+        while(depth > 0)
+        {
+            leave();
+        }
+    }
+
+    private void release(Procedure owner, Variables released)
+    {
+        released.clear();
+        ArrayList<Variables> spare = spareVariables.get(owner);
+        if(spare == null)
+        {
+            spare = new ArrayList<Variables>();
+            spareVariables.put(owner, spare);
+        }
+        spare.add(released);
+    }
+
+    /**
+     * Reads a variable after (or during) a run, for programs embedding the interpreter.
+     * Only sees the tree backend's variables, the bytecode backend keeps them in JVM locals.
+     * @param name variable name
+     * @return value of the variable as text, null if it was never assigned.
+     */
+    public String getValue(String name)
+    {
+        int slot = variables.lookupSlot(name);
+        byte tag = variables.tag(slot);
+        return tag == Values.NONE ? null : Values.toText(tag, variables.numbers[slot], variables.objects[slot]);
+    }
+}
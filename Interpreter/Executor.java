@@ -3,545 +3,446 @@ package Interpreter;
 import Interpreter.Interfaces.IExecutor;
 import Interpreter.Interfaces.*;
 
-import java.util.*;
-
 public class Executor implements IExecutor{
 
-    private static ArrayList<String> variableNames = new ArrayList<String>(); // e.g. i1
-    private static ArrayList<Object> variableValues = new ArrayList<Object>(); // e.g. 59 
+    private final ExecutionContext context;
+    private Variables variables; // The running procedure's, calls switch them
+    private final Evaluator evaluator; // Reused for every statement
+
+    /**
+     * @param context run the statements belong to. The executor only ever touches this context, so one per run.
+     */
+    public Executor(ExecutionContext context)
+    {
+        this.context = context;
+        variables = context.variables;
+        evaluator = new Evaluator(variables, context);
+    }
 
     @Override
     public int execute(ITokenMap tm)
     {
-        /*
-         * Handling Comparisons
-         */
-        tm = executeComparison(tm);
-        if(tm == null){return -1;}
+        if(tm.getLiterals() == null)
+        {
+            // Not from the compiler, decode the literals here.
+            tm = new TokenMap(tm, tm.getSlots(), Literals.decode(tm));
+        }
+        if(tm.size() == 0)
+        {
+            return 0;
+        }
 
         /*
-         * Handling boolean operators
+         * Handling keywords! in is just a value, so it's handled with the expressions.
          */
-        tm = executeBOperator(tm);
-        if(tm == null){return -1;}
-        
-        /*
-         * Handling Operators. (Integers for now : 17.09.23)
-        */
-        tm = executeOperator(tm);
-        if(tm == null){return -1;}
-        
+        if(tm.getKeywordIndex() == 0 && !tm.tokenEquals(0, "in"))
+        {
+            return executeKeyword(tm) ? 0 : -1;
+        }
+
         /*
-         * Handling keywords!
+         * Assignment to variables. Everything right of the assignment symbol is the value. The arrows are calls.
          */
-        tm = executeKeyword(tm);
-        if(tm == null){return -1;}
+        if(tm.getAssignmentIndex() > 0)
+        {
+            if(tm.getSource().charAt(tm.getOffsets()[tm.getAssignmentIndex()]) != '=')
+            {
+                return call(tm);
+            }
+            return executeAssignment(tm) ? 0 : -1;
+        }
 
         /*
-         * Assignment to variables. Should only be done after all operations have been completed. Expression should be reduced to 3 tokens, 1 assignment symbol and L + R
+         * Anything else is just an expression. Evaluated anyway so errors get reported.
          */
-        tm = executeAssignment(tm);
-        if(tm == null){return -1;}
-        
-        return 0;
+        return evaluator.evaluate(tm, 0, tm.size()) ? 0 : -1;
     }
 
-    private ITokenMap executeComparison(ITokenMap tM)
+    private boolean executeKeyword(ITokenMap tm)
     {
-        String[] tokenTypes = tM.getTokenTypes();
-        String[] tokens = tM.getTokens();
-        IParser parser = new Parser(); //TODO: WRITE A PARSER FACTORY!
+        int size = tm.size();
 
-        int comparatorInstanceCount = Collections.frequency(Arrays.asList(tokenTypes), "<Comparator>");
-        if(comparatorInstanceCount > 0)
-        {
-            for(int i = 0; i < comparatorInstanceCount; i++)
-            {
-                int comparatorIndex = Arrays.asList(tokenTypes).indexOf("<Comparator>");
-                if(comparatorIndex < 0)
+        // Handle the keyword.
+        switch (tm.getLengths()[0]) {
+            case 3:
+                // Output to console. (out)
+                if(!evaluator.evaluate(tm, 1, size))
                 {
-                    log("Err. Couldn't find the comparator I found.");
-                    return null;
+                    log("Err. Incorrect usage of out keyword.");
+                    return false;
                 }
+                context.getOutput().println(Values.toText(evaluator.resultTag, evaluator.resultNumber, evaluator.resultObject));
+                return true;
 
-                boolean result = false;
-                if(tokenTypes[comparatorIndex - 1] != null && tokenTypes[comparatorIndex + 1] != null)
+            case 4:
+                // jump
+                if(size != 2)
                 {
-                    String type = tokenTypes[comparatorIndex - 1];
-                    String l,r;
-                    l = tokens[comparatorIndex-1];
-                    r = tokens[comparatorIndex+1];
-
-                    if(type.equals("<Variable>"))
-                    {
-                        if(variableNames.contains(l))
-                        {
-                            l = (String)variableValues.get(variableNames.indexOf(l));
-                            l = l.replace("\"", "");
-                            type = parser.parse(new String[]{l}).getTokenTypes()[0];
-                        }
-                    }
+                    log("Err. Incorrect usage of jump keyword.");
+                    return false;
+                }
+                return jump(tm, 1);
 
-                    if(tokenTypes[comparatorIndex + 1].equals("<Variable>"))
-                    {
-                        if(variableNames.contains(r))
-                        {
-                            r = (String)variableValues.get(variableNames.indexOf(r));
-                            r = r.replace("\"", "");
-                            tokenTypes[comparatorIndex + 1] = parser.parse(new String[]{r}).getTokenTypes()[0];
-                        }
-                    }
-                    
-
-                    switch (tokens[comparatorIndex]) {
-                        case "==":
-                            result = l.equals(r);
-                            break;
-
-                        case "!=":
-                            result = !(l.equals(r));
-                            break;
-
-                        case "<=":
-                            if(type.equals("<Numeric>")) // This looks stupid. Someone fix.
-                            {
-                                result = Integer.parseInt(l) <= Integer.parseInt(r);
-                            }
-                            break;
-
-                        case ">=":
-                            if(type.equals("<Numeric>"))
-                            {
-                                result = Integer.parseInt(l) >= Integer.parseInt(r);
-                            }
-                            break;
-
-                        case "<":
-                            if(type.equals(("<Numeric>")))
-                            {
-                                result = Integer.parseInt(l) < Integer.parseInt(r);
-                            }
-                            break;
-
-                        case ">":
-                            if(type.equals("<Numeric>"))
-                            {
-                                result = Integer.parseInt(l) > Integer.parseInt(r);
-                            }
-                            break;
-                    
-                        default:
-                        log("Err. Comparator switch fell through to default");
-                            return null;
-                    }
-                    log("Result of comparison: " + l + " " + tokens[comparatorIndex] + " " + r + " = " + result);
-                    
-                } else {
-                    log("Err. Incorrect number of operands for comparison.");
-                    return null;
+            case 5:
+                // jump? Everything between the keyword and the last token is the condition, the last token is the destination.
+                if(size < 3)
+                {
+                    log("Err. Incorrect usage of jump? keyword.");
+                    return false;
+                }
+                if(!evaluator.evaluate(tm, 1, size - 1))
+                {
+                    return false;
                 }
 
-                tokens[comparatorIndex + 1] = result ? "true" : "false";
-                tokenTypes[comparatorIndex + 1] = "<Logic>";
-                tokens = popIndexInStringArray(tokens, comparatorIndex - 1);
-                tokens = popIndexInStringArray(tokens, comparatorIndex - 1);
-                tokenTypes = popIndexInStringArray(tokenTypes, comparatorIndex - 1);
-                tokenTypes = popIndexInStringArray(tokenTypes, comparatorIndex - 1);  
-            }
+                // Anything but false jumps.
+                if(evaluator.resultTag == Values.BOOLEAN && evaluator.resultNumber == 0)
+                {
+                    return true;
+                }
+                return jump(tm, size - 1);
+        
+            default:
+                log("Err. The keyword switch fell through to default.");
+                return false;
         }
-        return new TokenMap(tokens, tokenTypes);
     }
 
-    private ITokenMap executeBOperator(ITokenMap tM)
+    /**
+     * @param index index of the tag name
+     */
+    private boolean jump(ITokenMap tm, int index)
     {
-        String[] tokenTypes = tM.getTokenTypes();
-        String[] tokens = tM.getTokens();
-
-        int bOperatorInstanceCount = Collections.frequency(Arrays.asList(tokenTypes), "<BOperator>");
-        if(bOperatorInstanceCount > 0)
+        Procedure procedure = context.getProcedure();
+        int target = tm.getSlots() != null ? procedure.getTagIndex(tm.getSlots()[index]) : -1;
+        if(target < 0)
         {
-            // Iterate through every boolean operator in the expression.
-            for(int i = 0; i < bOperatorInstanceCount; i++)
-            {
-                int bOperatorIndex = Arrays.asList(tokenTypes).indexOf("<BOperator>");
+            target = procedure.getTagIndex(tm.getToken(index));
+        }
+        if(target < 0)
+        {
+            log("Err. Unexpected tag found.");
+            return false;
+        }
+        context.setProgramCounter(target);
+        return true;
+    }
 
-                if(bOperatorIndex < 0)
-                {
-                    log("Err. Execution found a bOperator but also didn't.");
-                    return null;
-                }
+    private boolean executeAssignment(ITokenMap tm)
+    {
+        int assignIndex = tm.getAssignmentIndex(); // Should normally just be 1 but who knows.
+        int target = assignIndex - 1;
 
-                boolean l = false, r = false;
-                String bOperator = "";
-                
-                bOperator = tokens[bOperatorIndex];
-                if(tokenTypes[bOperatorIndex - 1].equals("<Logic>"))
+        switch(tm.getSource().charAt(tm.getOffsets()[assignIndex]))
+        {
+            case '=':
+                if(tm.getKinds()[target] == ITokenMap.SET && tm.tokenEquals(target, "]"))
                 {
-                    if(tokens[bOperatorIndex-1].equals("true"))
+                    // a[i] = value
+                    int open = Parser.openingBracket(tm, target);
+                    if(open <= 0)
                     {
-                        l = true;
-                    } else {
-                        l = false;
-                    } 
-                } else if(tokenTypes[bOperatorIndex - 1].equals("<Variable>")) {
-                    if(!variableNames.contains(tokens[bOperatorIndex - 1]))
-                    {
-                        log("Err. Variable not initialized.");
-                        return null; 
-                    }
-
-                    if(variableValues.get(variableNames.indexOf(tokens[bOperatorIndex-1])).equals("true"))
-                    {
-                        l = true;
-                    } else if(variableValues.get(variableNames.indexOf(tokens[bOperatorIndex-1])).equals("false"))
-                    {
-                        l = false;
-                    }  else {
-                        // l variable is apparently not initialized or not of correct type
-                        log("Err. Variable: " + tokens[bOperatorIndex-1] + " is not a boolean.");
-                        return null;
+                        log("Err. Can only assign to a variable.");
+                        return false;
                     }
+                    return evaluator.store(tm, open, target);
                 }
-                
-                if(tokenTypes[bOperatorIndex + 1].equals("<Logic>"))
+                if(tm.getKinds()[target] != ITokenMap.VARIABLE)
                 {
-                    if(tokens[bOperatorIndex+1].equals("true"))
-                    {
-                        r = true;
-                    } else {
-                        r = false;
-                    } 
-                } else if(tokenTypes[bOperatorIndex + 1].equals("<Variable>")) {
-                    if(!variableNames.contains(tokens[bOperatorIndex + 1]))
-                    {
-                        log("Err. Variable not initialized.");
-                        return null; 
-                    }
-
-                    if(variableValues.get(variableNames.indexOf(tokens[bOperatorIndex+1])).equals("true"))
-                    {
-                        r = true;
-                    } else if(variableValues.get(variableNames.indexOf(tokens[bOperatorIndex+1])).equals("false"))
-                    {
-                        r = false;
-                    }  else {
-                        // l variable is apparently not initialized or not of correct type
-                        log("Err. Variable: " + tokens[bOperatorIndex+1] + " is not a boolean.");
-                        return null;
-                    }
+                    log("Err. Can only assign to a variable.");
+                    return false;
                 }
-                 
-                // Now perform the boolean operation
-                boolean result = false;
-                switch (bOperator) {
-                    case "|":
-                    case "||":
-                        log("OR: " + l + " || " + r);
-                        result = l || r;
-                        break;
-                    
-                    case "&":
-                    case "&&":
-                        log("AND");
-                        result = l && r;
-                        break;
-
-                    default:
-                        log("Err. BOperator calculation fell through to default. Operator not recognised?");
-                        return null;
+                if(!evaluator.evaluate(tm, assignIndex + 1, tm.size()))
+                {
+                    return false;
                 }
 
-                tokens[bOperatorIndex + 1] = result ? "true" : "false";
-                tokenTypes[bOperatorIndex + 1] = "<Logic>";
-                tokens = popIndexInStringArray(tokens, bOperatorIndex - 1);
-                tokens = popIndexInStringArray(tokens, bOperatorIndex - 1);
-                tokenTypes = popIndexInStringArray(tokenTypes, bOperatorIndex - 1);
-                tokenTypes = popIndexInStringArray(tokenTypes, bOperatorIndex - 1);
-            }
-            log("bOperation complete, result: " + Arrays.toString(tokenTypes) + " : " + Arrays.toString(tokens));
-        } 
-        return new TokenMap(tokens, tokenTypes);
+                int slot = tm.getSlots() != null && tm.getSlots()[target] >= 0 ? tm.getSlots()[target] : variables.resolveSlot(tm.getToken(target));
+                variables.write(slot, evaluator.resultTag, evaluator.resultNumber, evaluator.resultObject);
+                if(Interpreter.isDebug())
+                {
+                    log("Assigned value: " + Values.toText(evaluator.resultTag, evaluator.resultNumber, evaluator.resultObject) + " to variable: " + tm.getToken(target));
+                }
+                break;
+
+            default:
+                break;
+        }
+        return true;
     }
 
-    private ITokenMap executeOperator(ITokenMap tM)
+    /**
+     * x <- Name [a, b] calls the procedure Name with the values of a and b and puts what it returns in x, [q, r] <- Name [a, b] if it
+     * returns two values. [a, b] -> Name calls it just for what it does, whatever it returns is thrown away.
+     * Name is a protocol, see Protocols. The arguments are evaluated here, then the callee runs from the next instruction on in a frame
+     * of its own (see ExecutionContext) until returnToCaller() finishes the call.
+     * @return 1 if the callee is running now, -1 if the call failed.
+     */
+    private int call(ITokenMap tm)
     {
-        String[] tokenTypes = tM.getTokenTypes();
-        String[] tokens = tM.getTokens();
+        if(Parser.isLoop(tm))
+        {
+            return loop(tm) ? 0 : -1;
+        }
+        int assignIndex = tm.getAssignmentIndex();
+        int size = tm.size();
+        int name = assignIndex + 1;
+        boolean returns = tm.getSource().charAt(tm.getOffsets()[assignIndex]) == '<';
+
+        int argumentsFrom = returns ? name + 1 : 0;
+        int argumentsTo = returns ? size : assignIndex;
+        int arguments = argumentsFrom == argumentsTo ? 0 : Parser.listLength(tm, argumentsFrom, argumentsTo);
+        int targets = returns ? targetCount(tm, assignIndex) : 0;
+        if(name >= size || tm.getKinds()[name] != ITokenMap.VARIABLE || (!returns && name != size - 1) || arguments < 0 || targets < 0)
+        {
+            log("Err. A call is x <- Name [a, b], [x, y] <- Name [a, b] or [a, b] -> Name.");
+            return -1;
+        }
+
+        Procedure callee = callee(tm, name);
+        if(callee == null)
+        {
+            return -1;
+        }
+        int[] parameters = callee.getParameters();
+        if(arguments != parameters.length)
+        {
+            log("Err. " + tm.getToken(name) + " takes " + parameters.length + " arguments, " + arguments + " given.");
+            return -1;
+        }
+        if(returns && targets != callee.getResultCount())
+        {
+            log("Err. " + tm.getToken(name) + " returns " + callee.getResultCount() + " values, " + targets + " wanted.");
+            return -1;
+        }
 
-        int operatorInstanceCount = Collections.frequency(Arrays.asList(tokenTypes), "<Operator>"); // There are obvious ways to improve performance. Calculate this when parsing for example.
-        if(operatorInstanceCount > 0)
+        if(arguments > 0 && evaluator.evaluateList(tm, argumentsFrom, argumentsTo) < 0)
+        {
+            return -1;
+        }
+        if(!context.enter(callee, tm))
         {
-            for(int i = 0; i < operatorInstanceCount; i++)
+            evaluator.clearList();
+            log("Err. Too many calls in progress, the limit is " + ExecutionContext.MAX_DEPTH + ".");
+            return -1;
+        }
+        switchVariables();
+        for(int i = 0; i < arguments; i++)
+        {
+            variables.write(parameters[i], evaluator.listTag(i), evaluator.listNumber(i), evaluator.listObject(i));
+        }
+        evaluator.clearList();
+
+        if(Interpreter.isDebug())
+        {
+            log("Called " + tm.getToken(name) + ", " + context.getDepth() + " calls in progress.");
+        }
+        return 1;
+    }
+
+    /**
+     * total <- sum Body [1, 100] runs Body for every i in [1, 100) at once and adds up what it returns, see ParallelLoop.
+     * [a, b] <- [sum, max] Body [1, 100] [x, y] reduces two results and passes x and y to Body after i. Unlike a call this one is
+     * over before the next statement, the iterations don't run in this context.
+     * @return false if the loop didn't run, the reason has been logged.
+     */
+    private boolean loop(ITokenMap tm)
+    {
+        int assignIndex = tm.getAssignmentIndex();
+        int size = tm.size();
+        int name = Parser.calleeIndex(tm);
+        int targets = targetCount(tm, assignIndex);
+
+        // Reductions: sum or [sum, max]
+        byte[] reductions = null;
+        if(name > 0 && name == assignIndex + 2)
+        {
+            reductions = new byte[]{ ParallelLoop.reduction(tm, assignIndex + 1) };
+        } else if(name > 0) {
+            int count = Parser.listLength(tm, assignIndex + 1, name);
+            reductions = new byte[Math.max(count, 0)];
+            for(int i = assignIndex + 2, r = 0; r < reductions.length; i += 2, r++)
             {
-                int operatorIndex = Arrays.asList(tokenTypes).indexOf("<Operator>"); // Gets index of first operator instance
-                
-                if(operatorIndex < 0)
-                {
-                    log("Err. Searching for percieved operator in expression failed.");
-                    return null;
-                }
+                reductions[r] = tm.getKinds()[i] == ITokenMap.VARIABLE ? ParallelLoop.reduction(tm, i) : -1;
+            }
+        }
 
-                int l, r;
-                String operator = tokens[operatorIndex];
-                try{
-                    if(tokenTypes[operatorIndex - 1].equals("<Numeric>"))
-                    {
-                        l = Integer.parseInt(tokens[operatorIndex-1]);
-                    } else if(tokenTypes[operatorIndex - 1].equals("<Variable>")) {
-                        l = Integer.parseInt(((String)variableValues.get(variableNames.indexOf(tokens[operatorIndex - 1]))).replace("\"", ""));
-                    } else {
-                        log("Err. unexpected type left of operator.");
-                        return null;
-                    }
+        // Range, then maybe the arguments
+        int rangeTo = name > 0 && name + 1 < size ? Parser.closingBracket(tm, name + 1) + 1 : 0;
+        boolean wellFormed = reductions != null && reductions.length > 0 && reductions.length == targets && rangeTo > 0
+            && Parser.listLength(tm, name + 1, rangeTo) == 2 && (rangeTo == size || Parser.listLength(tm, rangeTo, size) >= 0);
+        for(int r = 0; wellFormed && r < reductions.length; r++)
+        {
+            wellFormed = reductions[r] >= 0;
+        }
+        if(!wellFormed)
+        {
+            log("Err. A parallel loop is x <- sum Name [from, to] or [x, y] <- [sum, max] Name [from, to] [a, b]. Reductions are sum, min, max, and, or.");
+            return false;
+        }
 
-                    if(tokenTypes[operatorIndex + 1].equals("<Numeric>"))
-                    {
-                        r = Integer.parseInt(tokens[operatorIndex + 1]);
-                    } else if(tokenTypes[operatorIndex + 1].equals("<Variable>")) {
-                        r = Integer.parseInt(((String)variableValues.get(variableNames.indexOf(tokens[operatorIndex + 1]))).replace("\"", ""));
-                    } else {
-                        log("Err. unexpected type right of operator.");
-                        return null;
-                    }
-                } catch (NumberFormatException nfe) {
-                    log("Err. Unable to format numeric type.");
-                    nfe.printStackTrace();
-                    return null;
-                }
+        Procedure body = callee(tm, name);
+        if(body == null)
+        {
+            return false;
+        }
+        int arguments = rangeTo == size ? 0 : Parser.listLength(tm, rangeTo, size);
+        if(body.getParameters().length != arguments + 1)
+        {
+            log("Err. " + tm.getToken(name) + " takes " + body.getParameters().length + " arguments, a parallel loop passes i and " + arguments + " more.");
+            return false;
+        }
+        if(body.getResultCount() != reductions.length)
+        {
+            log("Err. " + tm.getToken(name) + " returns " + body.getResultCount() + " values, " + reductions.length + " reductions given.");
+            return false;
+        }
 
-                //Now perform the integer operation
-                int result = 0;
-                try{
-                    switch (operator) {
-                        case "+":
-                            result = l + r;
-                            break;
-
-                        case "-":
-                            result = l - r;
-                            break;
-
-                        case "/":
-                            result = l / r;
-                            break;
-
-                        case "*":
-                            result = l * r;
-                            break;
-
-                        case "%":
-                            result = l % r;
-                            break;
-                    
-                        default:
-                            log("Err. Operator calculation fell through to defualt. Operator not recognised?");
-                            return null;
-                    }
-                } catch(Exception e) {
-                    e.printStackTrace();
-                    return null;
-                }
+        if(evaluator.evaluateList(tm, name + 1, rangeTo) < 0)
+        {
+            return false;
+        }
+        if(evaluator.listTag(0) != Values.NUMBER || evaluator.listTag(1) != Values.NUMBER)
+        {
+            evaluator.clearList();
+            log("Err. The range of a parallel loop has to be whole numbers.");
+            return false;
+        }
+        long from = evaluator.listNumber(0);
+        long to = evaluator.listNumber(1);
+        evaluator.clearList();
 
-                tokens[operatorIndex + 1] = String.valueOf(result);
-                tokenTypes[operatorIndex + 1] = "<Numeric>";
-                tokens = popIndexInStringArray(tokens, operatorIndex - 1);
-                tokens = popIndexInStringArray(tokens, operatorIndex - 1);
-                tokenTypes = popIndexInStringArray(tokenTypes, operatorIndex - 1);
-                tokenTypes = popIndexInStringArray(tokenTypes, operatorIndex - 1);
-                
+        ParallelLoop loop = new ParallelLoop(body, context.getProtocols(), reductions, context.getInput());
+        if(arguments > 0)
+        {
+            if(evaluator.evaluateList(tm, rangeTo, size) < 0)
+            {
+                return false;
+            }
+            byte[] tags = new byte[arguments];
+            long[] numbers = new long[arguments];
+            Object[] objects = new Object[arguments];
+            for(int a = 0; a < arguments; a++)
+            {
+                tags[a] = evaluator.listTag(a);
+                numbers[a] = evaluator.listNumber(a);
+                objects[a] = evaluator.listObject(a);
+            }
+            evaluator.clearList();
+            loop.setArguments(tags, numbers, objects);
+        }
+
+        // Anything printed so far comes before what the iterations print.
+        context.flush();
+        loop.run(from, to, context.getOutput());
+        for(int r = 0; r < reductions.length; r++)
+        {
+            // The min or max of no iterations leaves the variable as it was.
+            if(loop.isSet(r))
+            {
+                write(tm, assignIndex == 1 ? 0 : 1 + 2 * r, loop.tag(r), loop.number(r), loop.object(r));
             }
-        } 
-        return new TokenMap(tokens, tokenTypes);
+        }
+        if(Interpreter.isDebug())
+        {
+            log("Ran " + tm.getToken(name) + " for " + Math.max(to - from, 0) + " values of i.");
+        }
+        return true;
     }
 
-    private ITokenMap executeKeyword(ITokenMap tM)
+    /**
+     * Looked up once per call statement, after that it's a map lookup on the statement.
+     * @return the procedure called at token index name, null if there isn't one (logged).
+     */
+    private Procedure callee(ITokenMap tm, int name)
     {
-        String[] tokenTypes = tM.getTokenTypes();
-        String[] tokens = tM.getTokens();
-        IParser parser = new Parser();
-        
-        if(java.util.Arrays.stream(tokenTypes).anyMatch("<Keyword>"::equals))
+        Procedure callee = context.getCallee(tm);
+        if(callee == null)
         {
-            int keywordIndex = Arrays.binarySearch(tokenTypes, "<Keyword>");
-            if(keywordIndex < 0)
+            // Compiling the protocol may log, anything printed so far comes first.
+            context.flush();
+            callee = context.getProtocols().get(tm.getToken(name));
+            if(callee == null)
             {
-                log("Err. The keyword could not be found in the expression.");
                 return null;
-            } else {
-                // Handle the keyword.
-                String keyword = tokens[keywordIndex];
-                switch (keyword) {
-                    case "out":
-                        // Output to console.
-                        if(tokens.length > 2 || !(tokenTypes[1].equals("<Variable>") || tokenTypes[1].equals("<String>")))
-                        {
-                            log("Err. Incorrect usage of out keyword.");
-                            return null;
-                        } else {
-                            if(tokenTypes[1].equals("<Variable>"))
-                            {
-                                if(variableNames.contains(tokens[1]))
-                                {
-                                    // Output variable value
-                                    System.out.println(((String)variableValues.get(variableNames.indexOf(tokens[1]))).replace("\"", ""));
-                                } else {
-                                    log("Err. Incorrect usage of out keyword. Variable Access Error.");
-                                    return null;
-                                }
-                            } else {
-                                System.out.println(tokens[1].replace("\"", ""));
-                            }
-                        }
-                        return tM;
-
-                    case "in":
-                        // Get input from console!
-                        String inString ="\"" + System.console().readLine() + "\"";
-                        ITokenMap inputTokenMap = parser.parse(new String[]{inString});
-                        if(inputTokenMap == null)
-                        {
-                            log("Err. Invalid input.");
-                            return null;
-                        }
-                        String token = inputTokenMap.getTokens()[0];
-                        String tokenType = inputTokenMap.getTokenTypes()[0];
-                        
-                        tokens[keywordIndex] = token;
-                        tokenTypes[keywordIndex] = tokenType;
-                        log("Read input: " + token + " : " + tokenType);
-                        break;
-
-                    case "jump":
-                        if(tokens[1] != null)
-                        {
-                            int tagIndex = 1; // Hacky
-                            if(tagIndex < 0)
-                            {
-                                return null;
-                            }
-
-                            String tagName = tokens[tagIndex];
-                            if(Interpreter.tagNames.contains(tagName))
-                            {
-                                Interpreter.lineCount = Interpreter.tagLines.get(Interpreter.tagNames.indexOf(tagName));
-                            } else {
-                                log("Err. Unexpected tag found.");
-                                return null;
-                            }
-                        }
-                        break;
-
-                    case "jump?":
-                        if(tokens[1] != null && tokens[2] != null)
-                        {
-                            // Token 1 will be the condition... Token 2 will be the destination
-                            if(tokenTypes[1].equals("<Logic>"))
-                            {
-                                if(tokens[1].equals("false"))
-                                {
-                                    break;
-                                }
-                            } else if(tokenTypes[1].equals("<Variable>")) {
-                                if(variableNames.contains(tokens[1]))
-                                {
-                                    if(variableValues.get(variableNames.indexOf(tokens[1])) == "false")
-                                    {
-                                        break;
-                                    }
-                                } else {
-                                    log("Err. Unknown variable.");
-                                    return null;
-                                }
-                            } else {
-                                log("Err. Unexpected type @ condition.");
-                                return null;
-                            }
-
-                            int tagIndex = 2;
-                            if(tagIndex < 0)
-                            {
-                                return null;
-                            }
-
-                            String tagName = tokens[tagIndex];
-                            if(Interpreter.tagNames.contains(tagName))
-                            {
-                                Interpreter.lineCount = Interpreter.tagLines.get(Interpreter.tagNames.indexOf(tagName));
-                            } else {
-                                log("Err. Unexpected tag found.");
-                                return null;
-                            }
-                        }
-                        break;
-                
-                    default:
-                        log("Err. The keyword switch fell through to default.");
-                        return null;
-                }
             }
+            context.setCallee(tm, callee);
         }
-        return tM;
+        return callee;
     }
 
-    private ITokenMap executeAssignment(ITokenMap tM)
+    /**
+     * @return how many variables are left of the arrow: 1 for x, 2 for [x, y]. -1 if it isn't a variable or a list of them.
+     */
+    private static int targetCount(ITokenMap tm, int assignIndex)
     {
-        String[] tokenTypes = tM.getTokenTypes();
-        String[] tokens = tM.getTokens();
-
-        if(java.util.Arrays.stream(tokenTypes).anyMatch("<Assignment>"::equals))
+        if(assignIndex == 1)
+        {
+            return tm.getKinds()[0] == ITokenMap.VARIABLE ? 1 : -1;
+        }
+        int count = Parser.listLength(tm, 0, assignIndex);
+        // [x, y]: every other token is a variable.
+        for(int i = 1; i < assignIndex - 1; i += 2)
         {
-            int assignIndex = java.util.Arrays.binarySearch(tokenTypes, "<Assignment>"); // Should normally just be 1 but who knows.
-            //System.out.println(assignIndex);
-            if(assignIndex > 0)
+            if(tm.getKinds()[i] != ITokenMap.VARIABLE || tm.getKinds()[i + 1] != ITokenMap.SET)
             {
-                String varName = tokens[assignIndex-1];
-                String varVal = tokens[assignIndex+1];
-
-                switch(tokens[assignIndex])
-                {
-                    case "=":
-                        if(variableNames.contains(varName))
-                        {
-                            variableValues.set(variableNames.indexOf(varName), varVal);
-                            log("Assigned value: " + varVal + " to variable: " + varName);
-                        } else {
-                            variableNames.add(varName);
-                            variableValues.add(variableNames.indexOf(varName), varVal);
-                            log("Assigned value: " + varVal + " to new variable: " + varName);
-                        }
-                        break;
-
-                    case "->":
-                        //Handle a pointer assignment
-                        break;
-
-                    case "<-":
-                        //Handle a pointer assignement
-                        break;
-
-                    default:
-                        break;
-                }
+                return -1;
             }
         }
-        return new TokenMap(tokens, tokenTypes);
+        return count;
     }
 
-    private String[] popIndexInStringArray(String[] arr, int index)
+    @Override
+    public boolean returnToCaller()
     {
-        String[] local = new String[arr.length - 1];
+        // The results are evaluated with the callee's variables, then go to the caller's.
+        Instruction results = context.getProcedure().getResults();
+        boolean ok = true;
+        if(results != null && evaluator.evaluateList(results.getTokenMap(), 0, results.getTokenMap().size()) < 0)
+        {
+            log("Err. Returning the results on line " + results.getLine() + " failed.");
+            ok = false;
+        }
 
-        int j = 0;
-        for(int i = 0; i < arr.length; i++)
+        ITokenMap callSite = context.leave();
+        switchVariables();
+        int assignIndex = callSite.getAssignmentIndex();
+        if(ok && callSite.getSource().charAt(callSite.getOffsets()[assignIndex]) == '<')
         {
-            if(i != index)
+            if(assignIndex == 1)
+            {
+                write(callSite, 0, 0);
+            }
+            for(int i = 1, value = 0; i < assignIndex - 1; i += 2, value++)
             {
-                local[j] = arr[i];
-                j++;
+                write(callSite, i, value);
             }
         }
+        evaluator.clearList();
+        return ok;
+    }
+
+    /**
+     * Stores value i of the last list the evaluator evaluated in the variable at token index.
+     */
+    private void write(ITokenMap tm, int index, int i)
+    {
+        write(tm, index, evaluator.listTag(i), evaluator.listNumber(i), evaluator.listObject(i));
+    }
+
+    /**
+     * Stores a value in the variable at token index.
+     */
+    private void write(ITokenMap tm, int index, byte tag, long number, Object object)
+    {
+        int slot = tm.getSlots() != null && tm.getSlots()[index] >= 0 ? tm.getSlots()[index] : variables.resolveSlot(tm.getToken(index));
+        variables.write(slot, tag, number, object);
+    }
 
-        return local;
+    private void switchVariables()
+    {
+        variables = context.variables;
+        evaluator.setVariables(variables);
     }
 
     /**
@@ -555,6 +456,8 @@ public class Executor implements IExecutor{
 
     private void log(String s)
     {
+        // Anything printed before the error comes before it.
+        context.flush();
         Interpreter.log(s);
     }
-}
\ No newline at end of file
+}
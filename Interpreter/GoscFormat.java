@@ -0,0 +1,371 @@
+package Interpreter;
+
+import Interpreter.Interfaces.IDecoder;
+import Interpreter.Interfaces.ITokenMap;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Precompiled scripts (.gosc): a procedure after the compiler and optimizer, so loading one never runs the lexer, parser or optimizer.
+ * Everything is big endian:
+ *
+ *     "GOSC" u2 version
+ *     u4 constant count, then per constant: u4 byte length, UTF-8 bytes       (sources of the statements, variable and tag names)
+ *     u4 symbol count, then per symbol: u4 constant                            (in slot order)
+ *     u4 tag count, then per tag: u4 constant, u4 instruction index
+ *     u1 1 if any statement is a call, 0 if none is
+ *     u4 instruction count, then per instruction:
+ *         u4 line, i4 source constant (-1 if the line didn't parse), u2 token count, then per token:
+ *         u1 kind, u2 offset, u2 length, i4 slot, u1 literal tag, i8 literal number (only for numbers, decimals and booleans)
+ *     u2 parameter count, then per parameter: u4 slot
+ *     u1 1 and the END -> [...] list as an instruction, or u1 0 if the procedure returns nothing
+ *     u4 CRC32 of everything before it
+ *
+ * Loading maps the file and only scans the statements; each one is decoded from the mapped bytes the first time it runs (see
+ * Instruction), so a big script where most lines never run doesn't pay for them. String literals and numbers too big for a long
+ * aren't stored, they're cut out of the statement source when it's decoded.
+ * A file whose CRC doesn't match is refused as corrupt, and so is a statement with a token outside it when it's decoded.
+ */
+public final class GoscFormat {
+    private static final int MAGIC = 0x474F5343; // "GOSC"
+    public static final int VERSION = 5; // 2: BIG and DECIMAL literals, 3: parameters and results, 4: CRC, 5: calls flag
+
+    private GoscFormat() {}
+
+    /**
+     * @param procedure compiled (and usually optimized) procedure
+     * @param path where the .gosc goes
+     * @return false if the procedure can't be stored, the reason has been logged.
+     */
+    public static boolean write(Procedure procedure, Path path) throws IOException
+    {
+        SymbolTable symbols = procedure.getSymbols();
+        Instruction[] instructions = procedure.getInstructions();
+        HashMap<String, Integer> tags = procedure.getTagIndices();
+        int[] parameters = procedure.getParameters();
+        Instruction results = procedure.getResults();
+        if(parameters.length > 0xFFFF)
+        {
+            Interpreter.log("Err. Too many parameters for a .gosc file.");
+            return false;
+        }
+
+        // Constant pool, every string once.
+        ArrayList<String> constants = new ArrayList<String>();
+        HashMap<String, Integer> constantIndices = new HashMap<String, Integer>();
+        for(int slot = 0; slot < symbols.size(); slot++)
+        {
+            constant(symbols.getName(slot), constants, constantIndices);
+        }
+        for(String tagName : tags.keySet())
+        {
+            constant(tagName, constants, constantIndices);
+        }
+        ArrayList<Instruction> statements = new ArrayList<Instruction>(Arrays.asList(instructions));
+        if(results != null)
+        {
+            statements.add(results);
+        }
+        for(Instruction instruction : statements)
+        {
+            ITokenMap tm = instruction.getTokenMap();
+            if(tm == null)
+            {
+                continue;
+            }
+            if(tm.getSource().length() > 0xFFFF || tm.size() > 0xFFFF)
+            {
+                Interpreter.log("Err. Line " + instruction.getLine() + " is too long for a .gosc file.");
+                return false;
+            }
+            constant(tm.getSource(), constants, constantIndices);
+        }
+
+        CheckedOutputStream checked = new CheckedOutputStream(new BufferedOutputStream(Files.newOutputStream(path)), new CRC32());
+        try(DataOutputStream out = new DataOutputStream(checked))
+        {
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+
+            out.writeInt(constants.size());
+            for(String constant : constants)
+            {
+                byte[] bytes = constant.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+
+            out.writeInt(symbols.size());
+            for(int slot = 0; slot < symbols.size(); slot++)
+            {
+                out.writeInt(constantIndices.get(symbols.getName(slot)));
+            }
+
+            out.writeInt(tags.size());
+            for(String tagName : tags.keySet())
+            {
+                out.writeInt(constantIndices.get(tagName));
+                out.writeInt(tags.get(tagName));
+            }
+
+            out.writeByte(procedure.makesCalls() ? 1 : 0);
+            out.writeInt(instructions.length);
+            for(Instruction instruction : instructions)
+            {
+                writeInstruction(instruction, out, constantIndices);
+            }
+
+            out.writeShort(parameters.length);
+            for(int slot : parameters)
+            {
+                out.writeInt(slot);
+            }
+            out.writeByte(results != null ? 1 : 0);
+            if(results != null)
+            {
+                writeInstruction(results, out, constantIndices);
+            }
+            out.flush();
+            out.writeInt((int)checked.getChecksum().getValue());
+        }
+        return true;
+    }
+
+    private static void writeInstruction(Instruction instruction, DataOutputStream out, HashMap<String, Integer> constantIndices) throws IOException
+    {
+        ITokenMap tm = instruction.getTokenMap();
+        out.writeInt(instruction.getLine());
+        if(tm == null)
+        {
+            out.writeInt(-1);
+            out.writeShort(0);
+            return;
+        }
+        Literals literals = tm.getLiterals() != null ? tm.getLiterals() : Literals.decode(tm);
+        out.writeInt(constantIndices.get(tm.getSource()));
+        out.writeShort(tm.size());
+        for(int i = 0; i < tm.size(); i++)
+        {
+            out.writeByte(tm.getKinds()[i]);
+            out.writeShort(tm.getOffsets()[i]);
+            out.writeShort(tm.getLengths()[i]);
+            out.writeInt(tm.getSlots() != null ? tm.getSlots()[i] : -1);
+            byte tag = literals.getTags()[i];
+            out.writeByte(tag);
+            if(tag == Values.NUMBER || tag == Values.BOOLEAN || tag == Values.DECIMAL)
+            {
+                out.writeLong(literals.getNumbers()[i]);
+            }
+        }
+    }
+
+    private static void constant(String s, ArrayList<String> constants, HashMap<String, Integer> constantIndices)
+    {
+        if(!constantIndices.containsKey(s))
+        {
+            constantIndices.put(s, constants.size());
+            constants.add(s);
+        }
+    }
+
+    /**
+     * Maps the file and builds the procedure on the mapped bytes, see the class comment.
+     * @param path .gosc file
+     * @return the procedure, null if the file isn't a .gosc this version can read (logged).
+     */
+    public static Procedure load(Path path) throws IOException
+    {
+        MappedByteBuffer buffer;
+        try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
+        {
+            // The mapping outlives the channel.
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        try {
+            return new Reader(buffer, path).read();
+        } catch(BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException | NegativeArraySizeException e) {
+            Interpreter.log("Err. " + path + " is truncated or corrupt.");
+            return null;
+        }
+    }
+
+    /**
+     * Reads the file and decodes its statements later on, from any thread: every decode reads a buffer of its own.
+     */
+    private static final class Reader implements IDecoder {
+        private final ByteBuffer buffer;
+        private final Path path;
+        private int[] constantPositions;
+        private String[] constants; // Decoded when first needed
+
+        Reader(ByteBuffer buffer, Path path)
+        {
+            this.buffer = buffer;
+            this.path = path;
+        }
+
+        Procedure read()
+        {
+            if(buffer.remaining() < 6 || buffer.getInt() != MAGIC)
+            {
+                Interpreter.log("Err. Not a .gosc file.");
+                return null;
+            }
+            int version = buffer.getShort() & 0xFFFF;
+            if(version != VERSION)
+            {
+                Interpreter.log("Err. Unsupported .gosc version " + version + ", expected " + VERSION + ". Compile the script again.");
+                return null;
+            }
+            CRC32 crc = new CRC32();
+            crc.update(buffer.slice(0, buffer.limit() - 4));
+            if((int)crc.getValue() != buffer.getInt(buffer.limit() - 4))
+            {
+                throw new IllegalArgumentException("CRC mismatch");
+            }
+
+            constantPositions = new int[buffer.getInt()];
+            constants = new String[constantPositions.length];
+            for(int i = 0; i < constantPositions.length; i++)
+            {
+                constantPositions[i] = buffer.position();
+                buffer.position(buffer.position() + 4 + buffer.getInt(buffer.position()));
+            }
+
+            SymbolTable symbols = new SymbolTable();
+            int symbolCount = buffer.getInt();
+            for(int slot = 0; slot < symbolCount; slot++)
+            {
+                symbols.resolve(constant(buffer.getInt()));
+            }
+
+            HashMap<String, Integer> tags = new HashMap<String, Integer>();
+            int tagCount = buffer.getInt();
+            for(int i = 0; i < tagCount; i++)
+            {
+                String tagName = constant(buffer.getInt());
+                tags.put(tagName, buffer.getInt());
+            }
+
+            boolean calls = buffer.get() != 0;
+            Instruction[] instructions = new Instruction[buffer.getInt()];
+            for(int n = 0; n < instructions.length; n++)
+            {
+                instructions[n] = skipInstruction();
+            }
+
+            int[] parameters = new int[buffer.getShort() & 0xFFFF];
+            for(int i = 0; i < parameters.length; i++)
+            {
+                parameters[i] = buffer.getInt();
+            }
+            Instruction results = null;
+            if(buffer.get() != 0)
+            {
+                results = decode(buffer.position(), buffer.getInt(buffer.position()));
+            }
+            return new Procedure(instructions, tags, symbols, parameters, results, calls);
+        }
+
+        /**
+         * Steps over a statement, leaving it encoded.
+         */
+        private Instruction skipInstruction()
+        {
+            int position = buffer.position();
+            int line = buffer.getInt();
+            int sourceIndex = buffer.getInt();
+            int size = buffer.getShort() & 0xFFFF;
+            for(int i = 0; i < size; i++)
+            {
+                buffer.position(buffer.position() + 9); // Kind, offset, length, slot
+                byte tag = buffer.get();
+                if(tag == Values.NUMBER || tag == Values.BOOLEAN || tag == Values.DECIMAL)
+                {
+                    buffer.position(buffer.position() + 8);
+                }
+            }
+            return sourceIndex < 0 ? new Instruction(null, line) : new Instruction(this, position, line);
+        }
+
+        private String constant(int index)
+        {
+            String constant = constants[index];
+            if(constant == null)
+            {
+                int position = constantPositions[index];
+                int length = buffer.getInt(position);
+                constant = constants[index] = StandardCharsets.UTF_8.decode(buffer.slice(position + 4, length)).toString();
+            }
+            return constant;
+        }
+
+        @Override
+        public Instruction decode(int position, int line)
+        {
+            try {
+                return readInstruction(buffer.duplicate().position(position), line);
+            } catch(BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e) {
+                Interpreter.log("Err. Line " + line + " of " + path + " is corrupt.");
+                return new Instruction(null, line);
+            }
+        }
+
+        private Instruction readInstruction(ByteBuffer buffer, int line)
+        {
+            buffer.getInt(); // The line, already known
+            int sourceIndex = buffer.getInt();
+            int size = buffer.getShort() & 0xFFFF;
+            if(sourceIndex < 0)
+            {
+                return new Instruction(null, line);
+            }
+
+            String source = constant(sourceIndex);
+            int[] kinds = new int[size], offsets = new int[size], lengths = new int[size], slots = new int[size];
+            byte[] literalTags = new byte[size];
+            long[] numbers = new long[size];
+            Object[] objects = new Object[size];
+            for(int i = 0; i < size; i++)
+            {
+                kinds[i] = buffer.get();
+                offsets[i] = buffer.getShort() & 0xFFFF;
+                lengths[i] = buffer.getShort() & 0xFFFF;
+                if(offsets[i] + lengths[i] > source.length())
+                {
+                    // The CRC catches damage, this catches a file that was written wrong.
+                    throw new IllegalArgumentException("Token outside its statement");
+                }
+                slots[i] = buffer.getInt();
+                literalTags[i] = buffer.get();
+                if(literalTags[i] == Values.NUMBER || literalTags[i] == Values.BOOLEAN || literalTags[i] == Values.DECIMAL)
+                {
+                    numbers[i] = buffer.getLong();
+                } else if(literalTags[i] == Values.STRING) {
+                    objects[i] = source.substring(offsets[i] + 1, offsets[i] + lengths[i] - 1);
+                } else if(literalTags[i] == Values.BIG) {
+                    objects[i] = new BigInteger(source.substring(offsets[i], offsets[i] + lengths[i]));
+                }
+            }
+            ITokenMap tm = new TokenMap(source, kinds, offsets, lengths);
+            return new Instruction(new TokenMap(tm, slots, new Literals(literalTags, numbers, objects)), line);
+        }
+    }
+}
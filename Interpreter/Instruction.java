@@ -0,0 +1,91 @@
+package Interpreter;
+
+import Interpreter.Interfaces.IDecoder;
+import Interpreter.Interfaces.ITokenMap;
+
+/**
+ * A single pre-parsed statement of a procedure. Built once by the Compiler and never modified afterwards.
+ * One loaded from a .gosc can also stay encoded until it's first needed (see IDecoder), it's decoded then and the decoded
+ * statement is kept.
+ */
+public class Instruction {
+    private final ITokenMap tokenMap;
+    private final int line;
+    private final Superinstruction fused;
+    private final IDecoder decoder; // Null for a decoded statement
+    private final int position;
+    // Threads running the same script may both decode it, they get the same thing and everything in it is final, so no lock.
+    private Instruction decoded;
+
+    public Instruction(ITokenMap tokenMap, int line)
+    {
+        this(tokenMap, line, null);
+    }
+
+    /**
+     * @param fused runs the statement in one step when it can, see Superinstruction
+     */
+    public Instruction(ITokenMap tokenMap, int line, Superinstruction fused)
+    {
+        this.tokenMap = tokenMap;
+        this.line = line;
+        this.fused = fused;
+        decoder = null;
+        position = 0;
+    }
+
+    /**
+     * A statement that's decoded the first time it's needed.
+     * @param position where it is, passed back to the decoder
+     */
+    public Instruction(IDecoder decoder, int position, int line)
+    {
+        tokenMap = null;
+        this.line = line;
+        fused = null;
+        this.decoder = decoder;
+        this.position = position;
+    }
+
+    /**
+     * @return false if the statement is still encoded
+     */
+    public boolean isDecoded()
+    {
+        return decoder == null || decoded != null;
+    }
+
+    private Instruction decoded()
+    {
+        Instruction instruction = decoded;
+        if(instruction == null)
+        {
+            instruction = decoded = decoder.decode(position, line);
+        }
+        return instruction;
+    }
+
+    /**
+     * @return parsed tokens of the statement, or null if the line failed to parse.
+     */
+    public ITokenMap getTokenMap()
+    {
+        return decoder == null ? tokenMap : decoded().tokenMap;
+    }
+
+    /**
+     * @return line number in the source file (NOT index!)
+     */
+    public int getLine()
+    {
+        return line;
+    }
+
+    /**
+     * @return the superinstruction for the statement, null if it isn't fused (and always runs through the Executor).
+     */
+    public Superinstruction getFused()
+    {
+        return decoder == null ? fused : decoded().fused;
+    }
+}
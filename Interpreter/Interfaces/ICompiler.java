@@ -0,0 +1,14 @@
+package Interpreter.Interfaces;
+
+import Interpreter.Procedure;
+
+/**
+ * Compiler turns the lines of a .goss file into a procedure, parsing every statement exactly once.
+ */
+public interface ICompiler {
+    /**
+     * @param lines every line of the source file
+     * @return the compiled procedure. Null if no START flag was found.
+     */
+    public Procedure compile(String[] lines);
+}
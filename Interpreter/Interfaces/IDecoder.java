@@ -0,0 +1,16 @@
+package Interpreter.Interfaces;
+
+import Interpreter.Instruction;
+
+/**
+ * Decoder keeps statements encoded until they're first needed, see Instruction. Loading a precompiled script this way costs a scan of
+ * the file instead of building every statement up front.
+ */
+public interface IDecoder {
+    /**
+     * @param position where the statement is, as the decoder handed it out
+     * @param line line number in the source file
+     * @return the statement, decoded. Never null, a statement that can't be decoded comes back as one that failed to parse.
+     */
+    public Instruction decode(int position, int line);
+}
@@ -4,12 +4,16 @@ public interface IExecutor {
     /**
      * Executes a set of tokens. Calls appropriate methods as needed.
      * @param tM
-     * @see executeComparison
-     * @see executeBOperator
-     * @see executeOperator
      * @see executeKeyword
      * @see executeAssignment
-     * @return integer. < 0 indicates error.
+     * @see Evaluator
+     * @return integer. < 0 indicates error, > 0 that the statement called a procedure, which is now the one running.
      */
     public int execute(ITokenMap tM);
+
+    /**
+     * Finishes the innermost call once its procedure has run to the end: hands its results to the caller and carries on there.
+     * @return false if the results failed, the reason has been logged. The call is over either way.
+     */
+    public boolean returnToCaller();
 }
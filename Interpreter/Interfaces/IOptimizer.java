@@ -0,0 +1,14 @@
+package Interpreter.Interfaces;
+
+import Interpreter.Procedure;
+
+/**
+ * Optimizer rewrites a compiled procedure into a cheaper one that prints exactly the same things.
+ */
+public interface IOptimizer {
+    /**
+     * @param procedure procedure straight from the compiler
+     * @return the optimized procedure, sharing the symbol table of the original.
+     */
+    public Procedure optimize(Procedure procedure);
+}
@@ -0,0 +1,16 @@
+package Interpreter.Interfaces;
+
+/**
+ * Where out sends its lines. Every ExecutionContext has one, see BufferedOutput for the usual one.
+ */
+public interface IOutput {
+    /**
+     * @param line one line of output, without the line break
+     */
+    public void println(String line);
+
+    /**
+     * Pushes everything printed so far out to wherever the output ends up. Called at the end of every run.
+     */
+    public void flush();
+}
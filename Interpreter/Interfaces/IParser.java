@@ -5,4 +5,11 @@ package Interpreter.Interfaces;
  */
 public interface IParser {
     public ITokenMap parse(String[] tokens);
+
+    /**
+     * Tokenizes a whole line in one pass. Tokens don't need to be separated by whitespace.
+     * @param line a raw source line
+     * @return token map, null if the line could not be tokenized
+     */
+    public ITokenMap parseLine(String line);
 }
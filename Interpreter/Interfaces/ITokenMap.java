@@ -1,18 +1,102 @@
 package Interpreter.Interfaces;
 
+import Interpreter.Literals;
+
 /**
  * Necessary so that the executor can access the tokens and their types.
+ * Tokens are slices (offset + length) of the source line and their types are one of the kinds below, so nothing is copied
+ * and checking a type is an int comparison.
  */
 public interface ITokenMap{
+    /*
+     * Token kinds. Same order as Parser.tokenMapping.
+     */
+    public static final int WHITESPACE = 0;
+    public static final int STRING = 1;
+    public static final int TAG = 2;
+    public static final int NUMERIC = 3;
+    public static final int OPERATOR = 4;
+    public static final int BOPERATOR = 5;
+    public static final int ASSIGNMENT = 6;
+    public static final int COMPARATOR = 7;
+    public static final int KEYWORD = 8;
+    public static final int LOGIC = 9;
+    public static final int SET = 10;
+    public static final int COMMENT = 11;
+    public static final int VARIABLE = 12;
+
+    /**
+     * @return number of tokens
+     */
+    public int size();
+
+    /**
+     * Access the line the tokens were cut from
+     * @return source line
+     */
+    public String getSource();
+
+    /**
+     * Access the token kinds
+     * @return kind of every token, see the constants above
+     */
+    public int[] getKinds();
+
+    /**
+     * @return offset of every token in the source line
+     */
+    public int[] getOffsets();
+
+    /**
+     * @return length of every token
+     */
+    public int[] getLengths();
+
+    /**
+     * Copies a token out of the source line. Allocates, keep it off the hot path.
+     * @param i token index
+     * @return token text
+     */
+    public String getToken(int i);
+
+    /**
+     * @param i token index
+     * @return specifically formatted token type string, e.g. "<Variable>". For logging.
+     */
+    public String getTokenType(int i);
+
+    /**
+     * @param i token index
+     * @param s
+     * @return true if the token is exactly s
+     */
+    public boolean tokenEquals(int i, String s);
+
+    /**
+     * Positions of every comparator, boolean operator and operator, left to right. Worked out by the parser.
+     * @return token indices
+     */
+    public int[] getOperatorPositions();
+
+    /**
+     * @return index of the first keyword, -1 if there isn't one
+     */
+    public int getKeywordIndex();
+
+    /**
+     * @return index of the first assignment symbol, -1 if there isn't one
+     */
+    public int getAssignmentIndex();
+
     /**
-     * Access the raw tokens
-     * @return array of token strings
+     * Access the variable slots resolved by the compiler
+     * @return slot of every variable token, -1 for everything else. Null if nothing has been resolved.
      */
-    public String[] getTokens();
+    public int[] getSlots();
 
     /**
-     * Access the token types
-     * @return array of specifically formatted token type strings
+     * Access the literal values decoded by the compiler
+     * @return decoded literals, null if they haven't been decoded.
      */
-    public String[] getTokenTypes();
+    public Literals getLiterals();
 }
@@ -4,10 +4,12 @@ package Interpreter;
 import Interpreter.Interfaces.*;
 
 import java.io.BufferedReader;
-import java.io.FileReader;
+import java.io.BufferedWriter;
 import java.io.IOException;
-import java.util.stream.*;
-import java.util.LinkedList;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.nio.file.*;
@@ -18,10 +20,56 @@ public class Interpreter
      * Debug attributes for modification via cmd line args
     */
     private static boolean debug = false;
+    private static final ThreadLocal<IOutput> logOutput = new ThreadLocal<IOutput>(); // Null logs to System.out, see setLog
+
+    /**
+     * Which backend runs the compiled procedure. Tree walks the instructions with the Executor, Closure runs them as prebuilt node
+     * trees (see ClosureCompiler), Bytecode generates a JVM class.
+     */
+    public enum backendMode{
+        Tree,
+        Closure,
+        Bytecode
+    }
+    private static backendMode backend = backendMode.Tree;
+
+    /**
+     * Runs the Optimizer over the compiled procedure before handing it to the backend. noopt turns it off to compare.
+     */
+    private static boolean optimize = true;
+
+    /**
+     * Runs the common statement shapes as superinstructions on the tree backend. nofuse turns it off to compare.
+     */
+    private static boolean fuse = true;
+
+    /**
+     * profile counts and times every line and prints a hotspot report at the end. profile=<file> also writes collapsed stacks for a flame graph.
+     */
+    private static boolean profile = false;
+    private static String profileOutput = null;
+
+    /**
+     * batch runs the script once per line of stdin (batch=<file> reads the file instead), on threads=<n> worker threads. See BatchRunner.
+     */
+    private static boolean batch = false;
+    private static String batchInput = null;
+    private static int threads = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * checkpoint saves where the run is every=<n> instructions and every seconds=<n> seconds (default: every minute) to
+     * <filename>.goss.checkpoint, checkpoint=<file> picks the file. resume carries on from the last checkpoint. See Checkpointer.
+     */
+    private static boolean checkpoint = false;
+    private static String checkpointFile = null;
+    private static long checkpointEvery = 0;
+    private static long checkpointSeconds = 60;
+    private static boolean resume = false;
 
     enum fileSearchRegex{
         Script(".*\\.goss"),
-        Protocol(".*\\.gosp");
+        Protocol(".*\\.gosp"),
+        Compiled(".*\\.gosc");
         private final String regex;
 
         private fileSearchRegex(String s)
@@ -36,7 +84,12 @@ public class Interpreter
     }
 
     static enum errorMessage{
-        Usage("Humbly report, the usage is as follows: \njava interpreter <filename>.goss");
+        Usage("Humbly report, the usage is as follows: \njava interpreter <filename>.goss|<filename>.gosc [debug] [tree|closure|bytecode] [noopt] [nofuse] [profile[=<file>]] [batch[=<file>] [threads=<n>]]"
+            + " [checkpoint[=<file>] [every=<n>] [seconds=<n>]] [resume]"
+            + "\njava interpreter compile <filename>.goss [<filename>.gosc] [debug] [noopt]"
+            + "\njava interpreter protocols [debug]"
+            + "\njava interpreter daemon <socket> [debug] [tree|closure|bytecode] [noopt] [nofuse] [threads=<n>]"
+            + "\njava interpreter client <socket> <filename>.goss|<filename>.gosc");
         private final String msg;
 
         private errorMessage(String s)
@@ -50,175 +103,410 @@ public class Interpreter
         }
     }
 
-    /*
-     * Tags for jumping. Accessors?
-     */
-    public static LinkedList<String> tagNames = new LinkedList<String>();
-    public static LinkedList<Integer> tagLines = new LinkedList<Integer>();
-    public static int lineCount = 1;
-
     public static void main(String args[])
     {
+        if(args.length > 0 && args[0].equals("compile"))
+        {
+            compileGoss(args);
+            return;
+        }
+        if(args.length > 0 && args[0].equals("protocols"))
+        {
+            listProtocols(args);
+            return;
+        }
+        if(args.length > 0 && args[0].equals("daemon"))
+        {
+            startDaemon(args);
+            return;
+        }
+        if(args.length > 0 && args[0].equals("client"))
+        {
+            if(args.length != 3)
+            {
+                log("Err. " + errorMessage.Usage.msg);
+                return;
+            }
+            Daemon.client(Paths.get(args[1]), Paths.get(args[2]));
+            return;
+        }
+
         // Args will likely contain path to a .goss file for now.
-        switch(args.length)
+        if(args.length == 0)
         {
-            case 2:
-                // Enables usage of full interpreter debug log.
-                if(args[1].equals("debug"))
+            log("Err. " + errorMessage.Usage.msg);
+            return;
+        }
+        if(args.length >= 2)
+        {
+            // Options can come in any order after the file.
+            for(int i = 1; i < args.length; i++)
+            {
+                if(engineOption(args[i]))
                 {
-                    debug = true;
+                    continue;
                 }
-            case 1:
-                //Only one argument is likely to be a file to interpret!
-                Pattern goss_match = Pattern.compile(fileSearchRegex.Script.regex);
-                Matcher matcher = goss_match.matcher(args[0]);
-                boolean is_goss = matcher.find();
-
-                if(is_goss)
+                switch(args[i])
                 {
-                    //Interpret the goss
-                    log("Interpreter recieved a .goss path. Searching...");
-                } else {
-                    //Not a .goss file, what else could it be?
-                    log(errorMessage.Usage.msg);
-                    return;
+                    case "profile":
+                        profile = true;
+                        break;
+
+                    case "batch":
+                        batch = true;
+                        break;
+
+                    case "checkpoint":
+                        checkpoint = true;
+                        break;
+
+                    case "resume":
+                        checkpoint = true;
+                        resume = true;
+                        break;
+
+                    default:
+                        if(args[i].startsWith("profile="))
+                        {
+                            profile = true;
+                            profileOutput = args[i].substring("profile=".length());
+                            break;
+                        }
+                        if(args[i].startsWith("batch="))
+                        {
+                            batch = true;
+                            batchInput = args[i].substring("batch=".length());
+                            break;
+                        }
+                        if(args[i].startsWith("checkpoint="))
+                        {
+                            checkpoint = true;
+                            checkpointFile = args[i].substring("checkpoint=".length());
+                            break;
+                        }
+                        if(args[i].startsWith("every=") && args[i].substring("every=".length()).matches("[1-9][0-9]{0,17}"))
+                        {
+                            checkpointEvery = Long.parseLong(args[i].substring("every=".length()));
+                            break;
+                        }
+                        if(args[i].startsWith("seconds=") && args[i].substring("seconds=".length()).matches("[0-9]{1,9}"))
+                        {
+                            checkpointSeconds = Long.parseLong(args[i].substring("seconds=".length()));
+                            break;
+                        }
+                        log("Err. Unknown option: " + args[i] + "\n" + errorMessage.Usage.msg);
+                        return;
                 }
-                break;
+            }
+        }
 
-            default:
-                log("Err. " + errorMessage.Usage.msg);
-                return;
+        // The first argument is the file to interpret!
+        Pattern goss_match = Pattern.compile(fileSearchRegex.Script.regex);
+        Matcher matcher = goss_match.matcher(args[0]);
+        boolean is_goss = matcher.find();
+        boolean is_gosc = Pattern.compile(fileSearchRegex.Compiled.regex).matcher(args[0]).find();
 
+        if(is_goss)
+        {
+            //Interpret the goss
+            log("Interpreter recieved a .goss path. Searching...");
+        } else if(is_gosc) {
+            log("Interpreter recieved a .gosc path. Loading...");
+            loadGosc(args[0]);
+            return;
+        } else {
+            //Not a .goss file, what else could it be?
+            log(errorMessage.Usage.msg);
+            return;
         }
-        discoverProtocolFiles();
+
+        // Protocols aren't looked for here, the index finds them when the first one is used.
         parseGoss(args[0]);
     }
 
-    private static String[] discoverProtocolFiles()
+    /**
+     * Options running a script and the daemon both take: debug, tree|closure|bytecode, noopt, nofuse and threads=<n>.
+     * @return false if the option isn't one of them
+     */
+    private static boolean engineOption(String option)
     {
-        String[] protocolFilePaths = null;
+        switch(option)
+        {
+            case "debug":
+                // Enables usage of full interpreter debug log.
+                debug = true;
+                return true;
 
-        try(Stream<Path> stream = Files.walk(Paths.get("./"))){
-            Object[] paths = stream.filter(path -> path.getFileName().toString().matches(fileSearchRegex.Protocol.regex)).toArray();
-            for (Object p : paths) {
-                log("Found protocol file: " + p.toString());
-            }
-        } catch (Exception e) {
-            log("Err. Loading protocols failed.");
-            e.printStackTrace();
+            case "tree":
+                backend = backendMode.Tree;
+                return true;
+
+            case "closure":
+                backend = backendMode.Closure;
+                return true;
+
+            case "bytecode":
+                backend = backendMode.Bytecode;
+                return true;
+
+            case "noopt":
+                optimize = false;
+                return true;
+
+            case "nofuse":
+                fuse = false;
+                return true;
+
+            default:
+                if(option.startsWith("threads=") && option.substring("threads=".length()).matches("[1-9][0-9]{0,3}"))
+                {
+                    threads = Integer.parseInt(option.substring("threads=".length()));
+                    return true;
+                }
+                return false;
         }
+    }
 
-        return protocolFilePaths;
+    /**
+     * Lists every protocol under the working directory, refreshing the index (see ProtocolIndex) first.
+     */
+    private static void listProtocols(String[] args)
+    {
+        for(int i = 1; i < args.length; i++)
+        {
+            if(args[i].equals("debug"))
+            {
+                debug = true;
+            } else {
+                log("Err. Unknown option: " + args[i] + "\n" + errorMessage.Usage.msg);
+                return;
+            }
+        }
+        ProtocolIndex index = new ProtocolIndex(Paths.get(""));
+        index.refresh();
+        for(Map.Entry<String, Path> protocol : index.all().entrySet())
+        {
+            System.out.println(protocol.getKey() + " " + protocol.getValue());
+        }
     }
     
-    private static void parseGoss(String pathToGoss)
+    /**
+     * daemon <socket> [debug] [tree|closure|bytecode] [noopt] [nofuse] [threads=<n>]. Serves runs until stopped, see Daemon.
+     */
+    private static void startDaemon(String[] args)
     {
-        BufferedReader reader;
-        boolean startFlagFound = false;
-
-        Executor executor = new Executor();
+        if(args.length < 2)
+        {
+            log("Err. " + errorMessage.Usage.msg);
+            return;
+        }
+        for(int i = 2; i < args.length; i++)
+        {
+            if(!engineOption(args[i]))
+            {
+                log("Err. Unknown option: " + args[i] + "\n" + errorMessage.Usage.msg);
+                return;
+            }
+        }
+        try {
+            new Daemon(Paths.get(args[1]), engine(), threads).serve();
+        } catch(IOException e) {
+            log("Err. Serving on " + args[1] + " failed: " + e.getMessage());
+        }
+    }
 
+    private static void parseGoss(String pathToGoss)
+    {
         try {
-            reader = new BufferedReader(new FileReader(pathToGoss));
-            String[] lines = reader.lines().toArray(String[]::new);
+            Script script = engine().compile(Paths.get(pathToGoss));
+            if(script == null)
+            {
+                log("Err. No START flag found in " + pathToGoss);
+                return;
+            }
+            runScript(script, pathToGoss);
+        } catch(IOException e) {
+            // TODO: handle exception
+            e.printStackTrace();
+        }
+    }
 
-            // Need to iterate through the whole document first to look for tags!
-            String line = lines[lineCount - 1];
-            while(lineCount <= lines.length)
+    /**
+     * Runs a script precompiled with the compile command. No lexing, parsing or optimizing, the file is mapped and run.
+     */
+    private static void loadGosc(String pathToGosc)
+    {
+        try {
+            Script script = engine().load(Paths.get(pathToGosc));
+            if(script != null)
             {
-                line = lines[lineCount - 1];
-                lines[lineCount - 1] = line;
+                runScript(script, pathToGosc);
+            }
+        } catch(IOException e) {
+            log("Err. Loading " + pathToGosc + " failed: " + e);
+        }
+    }
 
-                //Check for any tags
-                if(Parser.isTag(line))
-                {
-                    tagNames.add(line.replace(":", ""));
-                    tagLines.add(lineCount); // NB This is line number NOT index!
-                    log("Found a tag: " + line.replace(":", "") + " -> " + lineCount);
-                }
+    /**
+     * compile <filename>.goss [<filename>.gosc] [debug] [noopt]. Writes the compiled (and optimized) script next to the source unless told where.
+     */
+    private static void compileGoss(String[] args)
+    {
+        String pathToGoss = null, pathToGosc = null;
+        for(int i = 1; i < args.length; i++)
+        {
+            if(args[i].equals("debug"))
+            {
+                debug = true;
+            } else if(args[i].equals("noopt")) {
+                optimize = false;
+            } else if(pathToGoss == null && Pattern.compile(fileSearchRegex.Script.regex).matcher(args[i]).find()) {
+                pathToGoss = args[i];
+            } else if(pathToGosc == null && Pattern.compile(fileSearchRegex.Compiled.regex).matcher(args[i]).find()) {
+                pathToGosc = args[i];
+            } else {
+                log("Err. Unknown option: " + args[i] + "\n" + errorMessage.Usage.msg);
+                return;
+            }
+        }
+        if(pathToGoss == null)
+        {
+            log("Err. " + errorMessage.Usage.msg);
+            return;
+        }
+        if(pathToGosc == null)
+        {
+            pathToGosc = pathToGoss.substring(0, pathToGoss.length() - ".goss".length()) + ".gosc";
+        }
 
-                lineCount++;
+        try {
+            Script script = new Engine(optimize, backendMode.Tree).compile(Paths.get(pathToGoss));
+            if(script == null)
+            {
+                log("Err. No START flag found in " + pathToGoss);
+                return;
             }
-            reader.close();
-            
-            lineCount = 1;
-            while(lineCount - 1 < lines.length)
+            if(GoscFormat.write(script.getProcedure(), Paths.get(pathToGosc)))
             {
-                line = lines[lineCount - 1];
-                if(startFlagFound)
-                {
-                    Pattern endMatch = Pattern.compile(".*END.*");
-                    if(endMatch.matcher(line).find())
-                    {
-                        log("Interpreter found END flag on line " + lineCount);
-                        break;
-                    }
-                    
-                    /*
-                     * Have found a statement to parse. Many lines are likely to be whitespace!
-                     */
-                    log("-----\nParsing: " + line+"\n-----");
-
-                    /*
-                     * Line splitting system needs to be re-written:
-                     * - Iterate through every character until it STOPS matching a token? Then go to the previous character and there is your token!
-                     * - e.g. variable1 would only be matched to a token until the space after variable1 was found.
-                     * - e.g. variable2+variable3 would only be matched to <Var><Op><Var> Because variables cannot contain + character!
-                     * - This is not top priority atm, save for later.
-                     */
-                    line = line.replaceAll("\\t+", "").replaceAll("\\s+|^ +| +$|( )+", " ").trim();
-                    String[] blocks = line.split("\\s+");
-
-                    /*
-                     * Instantiate parser instance
-                     */
-                    IParser parser = new Parser();
-
-                    ITokenMap parseResult = parser.parse(blocks);
-
-                    if(parseResult == null)
-                    {
-                        // Error!
-                        log("Interpreter encountered error while parsing line: " + lineCount);
-                        return;
-                    }
-                    
-                    if(executor.execute(parseResult) < 0)
-                    {
-                        log("Interpreter encountered error while executing line: " + lineCount);
-                        //return;
-                    } 
-
-                }   else    {
-                    if(line != null)
-                    {
-                        Pattern startMatch = Pattern.compile(".*START.*");
-                        if(startMatch.matcher(line).find()) // Placed after potential parse to avoid parsing the START flag!
-                        {
-                            log("Interpreter found START flag on line " + lineCount);
-                            startFlagFound = true;
-                        }
-                    } else {
-                        log("Null line!?");
-                        return;
-                    }
-                }
-                
-                // Read the next instruction!
-                lineCount++;
+                log("Compiled " + pathToGoss + " to " + pathToGosc);
             }
-            reader.close();
         } catch(IOException e) {
-            // TODO: handle exception
-            e.printStackTrace();
+            log("Err. Compiling " + pathToGoss + " failed: " + e.getMessage());
         }
     }
-    
+
+    /**
+     * Only the tree backend runs one instruction at a time, so profiling and checkpoints always run on that.
+     */
+    private static Engine engine()
+    {
+        return new Engine(optimize, fuse, profile || checkpoint ? backendMode.Tree : backend, Paths.get(""));
+    }
+
+    private static void runScript(Script script, String path)
+    {
+        if(checkpoint && (batch || profile))
+        {
+            log("Err. checkpoint and resume don't go with " + (batch ? "batch." : "profile."));
+            return;
+        }
+        if(checkpoint && checkpointEvery == 0 && checkpointSeconds == 0)
+        {
+            log("Err. With seconds=0, checkpoint needs every=<n>.");
+            return;
+        }
+        if(batch)
+        {
+            runBatch(script);
+            return;
+        }
+
+        ExecutionContext context = script.newContext();
+        if(System.console() == null)
+        {
+            // Piped in, in reads stdin instead.
+            context.setInput(new BufferedReader(new InputStreamReader(System.in)));
+        }
+        if(checkpoint)
+        {
+            Checkpointer checkpointer = new Checkpointer(Paths.get(checkpointFile != null ? checkpointFile : path + ".checkpoint"),
+                script.getProcedure(), checkpointEvery, checkpointSeconds);
+            if(resume)
+            {
+                checkpointer.resume(context);
+            }
+            script.run(context, checkpointer);
+            return;
+        }
+        if(!profile)
+        {
+            script.run(context);
+            return;
+        }
+
+        Profiler profiler = new Profiler(script.getProcedure());
+        script.profile(context, profiler);
+        profiler.report(System.out);
+        if(profileOutput != null)
+        {
+            try {
+                profiler.writeCollapsedStacks(Paths.get(profileOutput), Paths.get(path).getFileName().toString());
+                log("Wrote collapsed stacks to " + profileOutput);
+            } catch(IOException e) {
+                log("Err. Writing the profile failed: " + e.getMessage());
+            }
+        }
+    }
+
+    private static void runBatch(Script script)
+    {
+        Writer output = new BufferedWriter(new OutputStreamWriter(System.out), BufferedOutput.DEFAULT_SIZE);
+        try(BufferedReader records = batchInput == null
+                ? new BufferedReader(new InputStreamReader(System.in))
+                : Files.newBufferedReader(Paths.get(batchInput)))
+        {
+            new BatchRunner(script, threads).run(records, output);
+        } catch(IOException e) {
+            log("Err. Batch failed: " + e);
+        }
+    }
+
+    /**
+     * @return true if the debug log is on. Check before building expensive log messages.
+     */
+    public static boolean isDebug()
+    {
+        return debug;
+    }
+
+    /**
+     * Sends what this thread logs to output instead of System.out, null goes back to System.out. The daemon does this so a run's errors
+     * go to whoever asked for the run. The output has to take lines from several threads at once.
+     */
+    public static void setLog(IOutput output)
+    {
+        logOutput.set(output);
+    }
+
+    /**
+     * @return where this thread logs to, null for System.out
+     */
+    public static IOutput getLog()
+    {
+        return logOutput.get();
+    }
+
     public static void log(String s)
     {
         if(debug || s.contains("Err"))
         {
-            System.out.println(s);
+            IOutput output = logOutput.get();
+            if(output != null)
+            {
+                output.println(s);
+            } else {
+                System.out.println(s);
+            }
         }
     }
 
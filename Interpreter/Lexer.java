@@ -0,0 +1,292 @@
+package Interpreter;
+
+import Interpreter.Parser.tokenMapping;
+
+import java.util.Arrays;
+
+/**
+ * Hand-written single pass lexer. Walks a line one character at a time and records where every token starts and ends, so
+ * tokens don't need whitespace between them (a+b is <Variable><Operator><Variable>).
+ * Token kinds are the ITokenMap kinds. Buffers are reused between lines, so keep one Lexer per thread.
+ */
+public class Lexer {
+    private int[] kinds = new int[16];
+    private int[] starts = new int[16];
+    private int[] ends = new int[16];
+    private int count = 0;
+    private int errorIndex = -1;
+
+    /**
+     * Tokenizes the whole line. Comments end the line, whitespace is skipped.
+     * @param line
+     * @return false if some character could not be matched to a token. See getErrorIndex().
+     */
+    public boolean lex(CharSequence line)
+    {
+        int length = line.length();
+        int i = 0;
+        count = 0;
+        errorIndex = -1;
+
+        while(i < length)
+        {
+            char c = line.charAt(i);
+            int start = i;
+
+            if(c == ' ' || c == '\t' || c == '\r' || c == '\n' || c == '\f')
+            {
+                i++;
+                continue;
+            }
+
+            if(isIdentifierStart(c) || (c == '!' && i + 1 < length && isIdentifierStart(line.charAt(i + 1))))
+            {
+                // Variables, keywords, logic and tags all start the same way.
+                boolean negated = c == '!';
+                if(negated)
+                {
+                    i++;
+                }
+                int identStart = i;
+                while(i < length && isIdentifierPart(line.charAt(i)))
+                {
+                    i++;
+                }
+
+                if(!negated && i < length && line.charAt(i) == ':' && isTagName(line, identStart, i))
+                {
+                    add(tokenMapping.Tag, start, ++i);
+                } else if(negated) {
+                    add(tokenMapping.Variable, start, i);
+                } else if(matches(line, identStart, i, "jump") && i < length && line.charAt(i) == '?') {
+                    add(tokenMapping.Keyword, start, ++i);
+                } else if(matches(line, identStart, i, "in") || matches(line, identStart, i, "out") || matches(line, identStart, i, "jump")) {
+                    add(tokenMapping.Keyword, start, i);
+                } else if(matches(line, identStart, i, "true") || matches(line, identStart, i, "false")) {
+                    add(tokenMapping.Logic, start, i);
+                } else {
+                    add(tokenMapping.Variable, start, i);
+                }
+                continue;
+            }
+
+            if(c >= '0' && c <= '9')
+            {
+                while(i < length && line.charAt(i) >= '0' && line.charAt(i) <= '9')
+                {
+                    i++;
+                }
+                // Decimal part, only if there are digits after the point.
+                if(i + 1 < length && line.charAt(i) == '.' && line.charAt(i + 1) >= '0' && line.charAt(i + 1) <= '9')
+                {
+                    i++;
+                    while(i < length && line.charAt(i) >= '0' && line.charAt(i) <= '9')
+                    {
+                        i++;
+                    }
+                }
+                add(tokenMapping.Numeric, start, i);
+                continue;
+            }
+
+            char next = i + 1 < length ? line.charAt(i + 1) : '\0';
+            switch(c)
+            {
+                case '"':
+                    // Strings run to the next quote and may contain anything, spaces included.
+                    i++;
+                    while(i < length && line.charAt(i) != '"')
+                    {
+                        i++;
+                    }
+                    if(i >= length)
+                    {
+                        errorIndex = start;
+                        return false;
+                    }
+                    add(tokenMapping.String, start, ++i);
+                    break;
+
+                case '/':
+                    if(next == '/')
+                    {
+                        // Comment found, rest of the line should not be lexed.
+                        return true;
+                    }
+                    add(tokenMapping.Operator, start, ++i);
+                    break;
+
+                case '-':
+                    if(next == '>')
+                    {
+                        i += 2;
+                        add(tokenMapping.Assignment, start, i);
+                    } else {
+                        add(tokenMapping.Operator, start, ++i);
+                    }
+                    break;
+
+                case '+':
+                case '*':
+                case '%':
+                    add(tokenMapping.Operator, start, ++i);
+                    break;
+
+                case '|':
+                case '&':
+                    i += next == c ? 2 : 1;
+                    add(tokenMapping.BOperator, start, i);
+                    break;
+
+                case '=':
+                    if(next == '=')
+                    {
+                        i += 2;
+                        add(tokenMapping.Comparator, start, i);
+                    } else {
+                        add(tokenMapping.Assignment, start, ++i);
+                    }
+                    break;
+
+                case '<':
+                    if(next == '-')
+                    {
+                        i += 2;
+                        add(tokenMapping.Assignment, start, i);
+                    } else {
+                        i += next == '=' ? 2 : 1;
+                        add(tokenMapping.Comparator, start, i);
+                    }
+                    break;
+
+                case '>':
+                    i += next == '=' ? 2 : 1;
+                    add(tokenMapping.Comparator, start, i);
+                    break;
+
+                case '!':
+                    if(next != '=')
+                    {
+                        errorIndex = start;
+                        return false;
+                    }
+                    i += 2;
+                    add(tokenMapping.Comparator, start, i);
+                    break;
+
+                case '[':
+                case ']':
+                case ',':
+                    // Arrays, each one is a token of its own.
+                    add(tokenMapping.Set, start, ++i);
+                    break;
+
+                default:
+                    errorIndex = start;
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return number of tokens found by the last call to lex()
+     */
+    public int getCount()
+    {
+        return count;
+    }
+
+    /**
+     * @param i token index
+     * @return ITokenMap kind of the token
+     */
+    public int getKind(int i)
+    {
+        return kinds[i];
+    }
+
+    public int getStart(int i)
+    {
+        return starts[i];
+    }
+
+    public int getEnd(int i)
+    {
+        return ends[i];
+    }
+
+    /**
+     * @return index of the character the last lex() failed on, -1 if it didn't fail.
+     */
+    public int getErrorIndex()
+    {
+        return errorIndex;
+    }
+
+    private void add(tokenMapping kind, int start, int end)
+    {
+        if(count == kinds.length)
+        {
+            kinds = Arrays.copyOf(kinds, count * 2);
+            starts = Arrays.copyOf(starts, count * 2);
+            ends = Arrays.copyOf(ends, count * 2);
+        }
+        kinds[count] = kind.kind;
+        starts[count] = start;
+        ends[count] = end;
+        count++;
+    }
+
+    private static boolean matches(CharSequence line, int start, int end, String word)
+    {
+        if(end - start != word.length())
+        {
+            return false;
+        }
+        for(int i = 0; i < word.length(); i++)
+        {
+            if(line.charAt(start + i) != word.charAt(i))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Tags are stricter than variables: [a-zA-Z]+[0-9]*
+     */
+    static boolean isTagName(CharSequence line, int start, int end)
+    {
+        int i = start;
+        while(i < end && isLetter(line.charAt(i)))
+        {
+            i++;
+        }
+        if(i == start)
+        {
+            return false;
+        }
+        while(i < end && line.charAt(i) >= '0' && line.charAt(i) <= '9')
+        {
+            i++;
+        }
+        return i == end;
+    }
+
+    private static boolean isLetter(char c)
+    {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    private static boolean isIdentifierStart(char c)
+    {
+        return isLetter(c) || c == '_';
+    }
+
+    private static boolean isIdentifierPart(char c)
+    {
+        return isIdentifierStart(c) || (c >= '0' && c <= '9');
+    }
+}
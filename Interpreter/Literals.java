@@ -0,0 +1,78 @@
+package Interpreter;
+
+import Interpreter.Interfaces.ITokenMap;
+
+/**
+ * Decoded values of the literal tokens of a statement, in the Values representation. Tokens that aren't literals are NONE.
+ */
+public class Literals {
+    private final byte[] tags;
+    private final long[] numbers;
+    private final Object[] objects;
+
+    private Literals(int length)
+    {
+        this(new byte[length], new long[length], new Object[length]);
+    }
+
+    /**
+     * Literals decoded somewhere else already, e.g. read back from a .gosc file.
+     */
+    public Literals(byte[] tags, long[] numbers, Object[] objects)
+    {
+        this.tags = tags;
+        this.numbers = numbers;
+        this.objects = objects;
+    }
+
+    /**
+     * Decodes every numeric, string and logic token. Done once by the compiler so the executor never parses a literal.
+     * @param tm
+     * @return
+     */
+    public static Literals decode(ITokenMap tm)
+    {
+        int[] kinds = tm.getKinds();
+        Literals literals = new Literals(kinds.length);
+
+        for(int i = 0; i < kinds.length; i++)
+        {
+            switch(kinds[i])
+            {
+                case ITokenMap.NUMERIC:
+                    // Any length. NONE if it somehow isn't a number, the executor reports it if the statement runs.
+                    literals.tags[i] = Values.parseNumber(tm.getToken(i), literals.numbers, literals.objects, i);
+                    break;
+
+                case ITokenMap.STRING:
+                    literals.objects[i] = tm.getSource().substring(tm.getOffsets()[i] + 1, tm.getOffsets()[i] + tm.getLengths()[i] - 1);
+                    literals.tags[i] = Values.STRING;
+                    break;
+
+                case ITokenMap.LOGIC:
+                    literals.numbers[i] = tm.tokenEquals(i, "true") ? 1 : 0;
+                    literals.tags[i] = Values.BOOLEAN;
+                    break;
+
+                default:
+                    break;
+            }
+        }
+        return literals;
+    }
+
+    public byte[] getTags()
+    {
+        return tags;
+    }
+
+    public long[] getNumbers()
+    {
+        return numbers;
+    }
+
+    public Object[] getObjects()
+    {
+        return objects;
+    }
+}
@@ -0,0 +1,293 @@
+package Interpreter;
+
+import Interpreter.Interfaces.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
+
+/**
+ * Compiler for big (usually generated) source files. The file is memory mapped instead of read into lines, cut into chunks at line
+ * breaks and the chunks are compiled on the fork/join pool, each with its own parser, tag table and symbol table. The chunks are then
+ * stitched together in order: their symbols are merged into one table (in the order the plain Compiler would have found them), tag
+ * indices are shifted by the instructions before the chunk, and everything after the first END is dropped.
+ * Only the compiled statements end up on the heap, the file itself, comments and blank lines never do.
+ */
+public class MappedCompiler {
+    private static final int MIN_CHUNK_SIZE = 1 << 16; // Smaller than this isn't worth a task
+    private static final int CHUNKS_PER_THREAD = 4; // Some slack so one slow chunk doesn't hold everyone up
+
+    private final ForkJoinPool pool;
+
+    public MappedCompiler()
+    {
+        this(ForkJoinPool.commonPool());
+    }
+
+    public MappedCompiler(ForkJoinPool pool)
+    {
+        this.pool = pool;
+    }
+
+    /**
+     * Everything one chunk compiled, numbered as if the chunk were the whole procedure.
+     */
+    private static class Chunk {
+        final ArrayList<Instruction> instructions = new ArrayList<Instruction>();
+        final HashMap<String, Integer> tagIndices = new HashMap<String, Integer>();
+        final SymbolTable symbols = new SymbolTable();
+        boolean ended = false; // Found the END flag
+        String endLine; // The END line itself and its number, it has the results
+        int endLineNumber;
+        int[] slotMap; // Chunk slot -> procedure slot, filled in by the merge
+    }
+
+    /**
+     * @param path source file, at most 2GB
+     * @return the compiled procedure. Null if no START flag was found.
+     */
+    public Procedure compile(Path path) throws IOException
+    {
+        try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
+        {
+            if(channel.size() > Integer.MAX_VALUE)
+            {
+                Interpreter.log("Err. " + path + " is too large to compile, the limit is 2GB.");
+                return null;
+            }
+            // The mapping outlives the channel.
+            return compile(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Only absolute gets are used on the buffer, so every task can read it at once.
+     */
+    Procedure compile(ByteBuffer source)
+    {
+        int size = source.limit();
+
+        // START is nearly always the first line, no need for threads to find it.
+        int position = 0;
+        int startLine = 0;
+        String start = null;
+        while(position < size && start == null)
+        {
+            int end = lineEnd(source, position, size);
+            startLine++;
+            String line = line(source, position, end);
+            if(Compiler.isStart(line))
+            {
+                Interpreter.log("Compiler found START flag on line " + startLine);
+                start = line;
+            }
+            position = end + 1;
+        }
+        if(start == null)
+        {
+            return null;
+        }
+
+        // Chunk boundaries, each just after a line break.
+        long remaining = Math.max(0, size - position);
+        int chunkCount = (int)Math.max(1, Math.min(remaining / MIN_CHUNK_SIZE, (long)pool.getParallelism() * CHUNKS_PER_THREAD));
+        int[] bounds = new int[chunkCount + 1];
+        bounds[0] = Math.min(position, size);
+        for(int c = 1; c < chunkCount; c++)
+        {
+            int target = Math.max(bounds[c - 1], (int)(position + remaining * c / chunkCount));
+            bounds[c] = Math.min(size, lineEnd(source, target, size) + 1);
+        }
+        bounds[chunkCount] = size;
+
+        // Line number of the first line of every chunk, so instructions know where they came from.
+        int[] firstLines = new int[chunkCount + 1];
+        forEachChunk(chunkCount, c -> firstLines[c + 1] = countLines(source, bounds[c], bounds[c + 1]));
+        firstLines[0] = startLine + 1;
+        for(int c = 1; c <= chunkCount; c++)
+        {
+            firstLines[c] += firstLines[c - 1];
+        }
+
+        Chunk[] chunks = new Chunk[chunkCount];
+        forEachChunk(chunkCount, c -> chunks[c] = compileChunk(source, bounds[c], bounds[c + 1], firstLines[c]));
+
+        // Merge, in order. Symbols first so slots match what the plain compiler gives, parameters before everything.
+        Compiler compiler = new Compiler();
+        SymbolTable symbols = new SymbolTable();
+        int[] parameters = compiler.compileParameters(start, startLine, symbols);
+        HashMap<String, Integer> tagIndices = new HashMap<String, Integer>();
+        int[] instructionOffsets = new int[chunkCount + 1];
+        int used = 0;
+        while(used < chunkCount)
+        {
+            Chunk chunk = chunks[used];
+            chunk.slotMap = new int[chunk.symbols.size()];
+            for(int slot = 0; slot < chunk.slotMap.length; slot++)
+            {
+                chunk.slotMap[slot] = symbols.resolve(chunk.symbols.getName(slot));
+            }
+            for(String tagName : chunk.tagIndices.keySet())
+            {
+                tagIndices.put(tagName, instructionOffsets[used] + chunk.tagIndices.get(tagName));
+            }
+            instructionOffsets[used + 1] = instructionOffsets[used] + chunk.instructions.size();
+            used++;
+            if(chunk.ended)
+            {
+                break;
+            }
+        }
+
+        Instruction[] instructions = new Instruction[instructionOffsets[used]];
+        forEachChunk(used, c -> {
+            Chunk chunk = chunks[c];
+            for(int i = 0; i < chunk.instructions.size(); i++)
+            {
+                Instruction instruction = chunk.instructions.get(i);
+                remapSlots(instruction.getTokenMap(), chunk.slotMap);
+                instructions[instructionOffsets[c] + i] = instruction;
+            }
+        });
+
+        Chunk last = chunks[used - 1];
+        Instruction results = last.ended ? compiler.compileResults(last.endLine, last.endLineNumber, symbols) : null;
+
+        if(Interpreter.isDebug())
+        {
+            Interpreter.log("Compiled " + (size - bounds[0]) + " bytes in " + chunkCount + " chunks.");
+        }
+        return new Procedure(instructions, tagIndices, symbols, parameters, results);
+    }
+
+    private static Chunk compileChunk(ByteBuffer source, int from, int to, int firstLine)
+    {
+        Chunk chunk = new Chunk();
+        Compiler compiler = new Compiler();
+        IParser parser = new Parser();
+        int lineCount = firstLine;
+        int position = from;
+        while(position < to)
+        {
+            int end = lineEnd(source, position, to);
+            String line = line(source, position, end);
+            if(!compiler.compileLine(line, lineCount, parser, chunk.instructions, chunk.tagIndices, chunk.symbols))
+            {
+                chunk.ended = true;
+                chunk.endLine = line;
+                chunk.endLineNumber = lineCount;
+                break;
+            }
+            lineCount++;
+            position = end + 1;
+        }
+        return chunk;
+    }
+
+    /**
+     * Slot arrays were made by this chunk's compile and nobody else has seen them yet, so they're rewritten in place.
+     */
+    private static void remapSlots(ITokenMap tm, int[] slotMap)
+    {
+        if(tm == null)
+        {
+            return;
+        }
+        int[] slots = tm.getSlots();
+        for(int i = 0; i < slots.length; i++)
+        {
+            if(slots[i] >= 0)
+            {
+                slots[i] = slotMap[slots[i]];
+            }
+        }
+    }
+
+    /**
+     * Runs body for chunks [0, count) on the pool, halving the range until each task has one chunk.
+     */
+    private void forEachChunk(int count, IntConsumer body)
+    {
+        if(count == 1)
+        {
+            body.accept(0);
+            return;
+        }
+        pool.invoke(new ChunkTask(0, count, body));
+    }
+
+    private static class ChunkTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int from, to;
+        private final IntConsumer body;
+
+        ChunkTask(int from, int to, IntConsumer body)
+        {
+            this.from = from;
+            this.to = to;
+            this.body = body;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if(to - from == 1)
+            {
+                body.accept(from);
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new ChunkTask(from, middle, body), new ChunkTask(middle, to, body));
+        }
+    }
+
+    /**
+     * @return index of the line break ending the line that starts at from, or limit if the line runs to the end.
+     */
+    private static int lineEnd(ByteBuffer source, int from, int limit)
+    {
+        int i = from;
+        while(i < limit && source.get(i) != '\n')
+        {
+            i++;
+        }
+        return i;
+    }
+
+    private static int countLines(ByteBuffer source, int from, int to)
+    {
+        int lines = 0;
+        for(int i = from; i < to; i++)
+        {
+            if(source.get(i) == '\n')
+            {
+                lines++;
+            }
+        }
+        // A last line without a line break is still a line.
+        return to > from && source.get(to - 1) != '\n' ? lines + 1 : lines;
+    }
+
+    /**
+     * @return bytes [from, end) as a line, without the \r of a \r\n.
+     */
+    private static String line(ByteBuffer source, int from, int end)
+    {
+        if(end > from && source.get(end - 1) == '\r')
+        {
+            end--;
+        }
+        byte[] bytes = new byte[end - from];
+        source.get(from, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,879 @@
+package Interpreter;
+
+import Interpreter.Interfaces.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Objects;
+
+/**
+ * Dataflow optimizer that runs between the Compiler and the backends.
+ * Splits the procedure into basic blocks at tags and jumps, then repeats until nothing changes:
+ *  - constant propagation and folding (MAX = 10 makes i < MAX into i < 10, 2 * 3 into 6)
+ *  - jump? on a constant condition becomes a jump, or disappears if it is never taken
+ *  - blocks nothing can reach are dropped, and so are jumps to the next statement
+ *  - assignments nobody reads are dropped once their value has folded to a constant, so never one that could fail or reads input
+ * Statements are rewritten as source text and compiled again, so the backends never know the optimizer was there.
+ * What the script prints is kept the same, errors included: a statement that can fail stays, so its error still shows up at runtime.
+ */
+public class Optimizer implements IOptimizer {
+    private static final int MAX_PASSES = 8;
+
+    /*
+     * Statement shapes, the same ones the Executor dispatches on.
+     */
+    private static final int OPAQUE = 0; // Does nothing we can reason about (or always fails)
+    private static final int BROKEN = 1; // Failed to parse, execution stops here
+    private static final int EXPRESSION = 2;
+    private static final int ASSIGN = 3;
+    private static final int OUT = 4;
+    private static final int JUMP = 5;
+    private static final int JUMPIF = 6;
+    private static final int STORE = 7; // a[i] = value, reads every variable in it and never assigns one
+    private static final int CALL = 8; // x <- Name [a, b] or [a, b] -> Name, reads the arguments and assigns what's left of <-
+
+    /*
+     * Constant lattice. UNDEF is "no path got here yet", NAC is "not a constant".
+     */
+    private static final byte UNDEF = 0;
+    private static final byte CONST = 1;
+    private static final byte NAC = 2;
+
+    /*
+     * Results of folding an expression.
+     */
+    private static final int UNKNOWN = 0;
+    private static final int FOLDED = 1;
+    private static final int FAILS = 2;
+
+    private final Compiler compiler = new Compiler();
+    private final boolean script; // Every variable is read at the end, see the constructor
+
+    /**
+     * For scripts: whoever runs one can read any of its variables once it ends (ExecutionContext.getValue), so none of them dies there.
+     */
+    public Optimizer()
+    {
+        this(true);
+    }
+
+    /**
+     * @param script false for protocols, whose variables go away when the call returns so only the END results are read at the end
+     */
+    public Optimizer(boolean script)
+    {
+        this.script = script;
+    }
+
+    private SymbolTable symbols;
+    private Variables scratch; // Constants are copied in here for the evaluator to fold with
+    private Evaluator evaluator;
+
+    /*
+     * Current state of the procedure. Removed statements are nulled and compacted at the end of a pass.
+     */
+    private Instruction[] statements;
+    private HashMap<String, Integer> tags;
+
+    /*
+     * Control flow graph of the current statements.
+     */
+    private int[] blockStarts; // First statement of every block, plus statements.length at the end
+    private int[] blockOf; // Statement -> block
+    private int[][] successors;
+    private boolean[] exits; // Block can run off the end of the procedure
+    private BitSet results; // Variables the END -> [...] list reads, all of them for a script
+
+    @Override
+    public Procedure optimize(Procedure procedure)
+    {
+        symbols = procedure.getSymbols();
+        scratch = new Variables(symbols);
+        evaluator = new Evaluator(scratch, null);
+        evaluator.quiet = true;
+        statements = procedure.getInstructions().clone();
+        tags = procedure.getTagIndices();
+        results = new BitSet();
+        if(script)
+        {
+            results.set(0, symbols.size());
+        }
+        Instruction resultList = procedure.getResults();
+        if(resultList != null)
+        {
+            ITokenMap tm = resultList.getTokenMap();
+            for(int i = 0; i < tm.size(); i++)
+            {
+                if(tm.getKinds()[i] == ITokenMap.VARIABLE && tm.getSlots()[i] >= 0)
+                {
+                    results.set(tm.getSlots()[i]);
+                }
+            }
+        }
+
+        int pass = 0;
+        boolean changed = true;
+        while(changed && pass++ < MAX_PASSES)
+        {
+            buildBlocks();
+            changed = propagateConstants();
+            changed |= compact();
+
+            buildBlocks();
+            changed |= removeUnreachable();
+            changed |= compact();
+
+            buildBlocks();
+            changed |= removeDeadStores();
+            changed |= compact();
+        }
+
+        Interpreter.log("Optimizer took " + procedure.size() + " instructions down to " + statements.length + " in " + pass + " passes.");
+        if(Interpreter.isDebug())
+        {
+            buildBlocks();
+            dump();
+        }
+        return new Procedure(statements, tags, symbols, procedure.getParameters(), procedure.getResults());
+    }
+
+    /*
+     * CFG
+     */
+
+    private void buildBlocks()
+    {
+        int n = statements.length;
+        boolean[] leader = new boolean[n + 1];
+        leader[0] = true;
+        for(int target : tags.values())
+        {
+            leader[Math.min(target, n)] = true;
+        }
+        for(int i = 0; i < n; i++)
+        {
+            int shape = shape(statements[i]);
+            if(shape == JUMP || shape == JUMPIF || shape == BROKEN)
+            {
+                leader[i + 1] = true;
+            }
+        }
+
+        int count = 0;
+        for(int i = 0; i < n; i++)
+        {
+            count += leader[i] ? 1 : 0;
+        }
+        blockStarts = new int[count + 1];
+        blockOf = new int[n];
+        int block = -1;
+        for(int i = 0; i < n; i++)
+        {
+            if(leader[i])
+            {
+                blockStarts[++block] = i;
+            }
+            blockOf[i] = block;
+        }
+        blockStarts[count] = n;
+
+        successors = new int[count][];
+        exits = new boolean[count];
+        for(int b = 0; b < count; b++)
+        {
+            int last = blockStarts[b + 1] - 1;
+            int shape = shape(statements[last]);
+            int fallthrough = last + 1 < n ? blockOf[last + 1] : -1;
+            int target = shape == JUMP || shape == JUMPIF ? jumpTarget(statements[last]) : -1;
+            int taken = target >= 0 && target < n ? blockOf[target] : -1;
+
+            if(shape == BROKEN || (shape == JUMP && target >= 0))
+            {
+                // Unconditional. A jump to a tag at the very end just leaves.
+                successors[b] = taken >= 0 ? new int[]{ taken } : new int[0];
+                exits[b] = shape == JUMP && target >= n;
+            } else if(shape == JUMPIF && target >= 0) {
+                successors[b] = edges(fallthrough, target < n ? taken : -1);
+                exits[b] = fallthrough < 0 || target >= n;
+            } else {
+                // Anything else, including jumps to tags that don't exist (those fail and carry on).
+                successors[b] = edges(fallthrough, -1);
+                exits[b] = fallthrough < 0;
+            }
+        }
+    }
+
+    private static int[] edges(int a, int b)
+    {
+        if(a < 0)
+        {
+            return b < 0 ? new int[0] : new int[]{ b };
+        }
+        return b < 0 || b == a ? new int[]{ a } : new int[]{ a, b };
+    }
+
+    /**
+     * @return index the jump goes to, -1 if the tag doesn't exist.
+     */
+    private int jumpTarget(Instruction statement)
+    {
+        ITokenMap tm = statement.getTokenMap();
+        Integer target = tags.get(tm.getToken(tm.size() - 1));
+        return target == null ? -1 : target;
+    }
+
+    private static int shape(Instruction statement)
+    {
+        ITokenMap tm = statement.getTokenMap();
+        if(tm == null)
+        {
+            return BROKEN;
+        }
+        if(tm.size() == 0)
+        {
+            return OPAQUE;
+        }
+
+        if(tm.getKeywordIndex() == 0 && !tm.tokenEquals(0, "in"))
+        {
+            switch(tm.getLengths()[0])
+            {
+                case 3:
+                    return OUT;
+                case 4:
+                    return tm.size() == 2 ? JUMP : OPAQUE;
+                case 5:
+                    return tm.size() >= 3 ? JUMPIF : OPAQUE;
+                default:
+                    return OPAQUE;
+            }
+        }
+
+        int assignIndex = tm.getAssignmentIndex();
+        if(assignIndex > 0)
+        {
+            if(tm.getSource().charAt(tm.getOffsets()[assignIndex]) != '=')
+            {
+                return CALL;
+            }
+            switch(tm.getKinds()[assignIndex - 1])
+            {
+                case ITokenMap.VARIABLE:
+                    return ASSIGN;
+                case ITokenMap.SET:
+                    return STORE;
+                default:
+                    return OPAQUE;
+            }
+        }
+        return EXPRESSION;
+    }
+
+    /**
+     * @return tokens [from, to) of the statement that get evaluated. Empty for shapes that don't evaluate anything.
+     */
+    private static int[] readRange(Instruction statement, int shape)
+    {
+        ITokenMap tm = statement.getTokenMap();
+        switch(shape)
+        {
+            case EXPRESSION:
+                return new int[]{ 0, tm.size() };
+            case ASSIGN:
+                return new int[]{ tm.getAssignmentIndex() + 1, tm.size() };
+            case OUT:
+                return new int[]{ 1, tm.size() };
+            case JUMPIF:
+                return new int[]{ 1, tm.size() - 1 };
+            case STORE:
+                return new int[]{ 0, tm.size() };
+            case CALL:
+                // Only the arguments, the name is a protocol and reductions aren't variables either.
+                int assignIndex = tm.getAssignmentIndex();
+                int name = Parser.calleeIndex(tm);
+                if(name < 0)
+                {
+                    return new int[]{ 0, 0 };
+                }
+                return tm.tokenEquals(assignIndex, "<-") ? new int[]{ name + 1, tm.size() } : new int[]{ 0, assignIndex };
+            default:
+                return new int[]{ 0, 0 };
+        }
+    }
+
+    /*
+     * Constant propagation
+     */
+
+    /**
+     * Forward dataflow over the blocks, then rewrites every statement using the constants known right before it.
+     * @return true if any statement changed.
+     */
+    private boolean propagateConstants()
+    {
+        int blocks = successors.length;
+        Constants[] in = new Constants[blocks];
+        for(int b = 0; b < blocks; b++)
+        {
+            in[b] = new Constants(symbols.size(), b == 0 ? NAC : UNDEF);
+        }
+
+        // Worklist until the block inputs stop changing. The lattice is shallow so this settles quickly.
+        ArrayList<Integer> worklist = new ArrayList<Integer>();
+        boolean[] queued = new boolean[blocks];
+        if(blocks > 0)
+        {
+            worklist.add(0);
+            queued[0] = true;
+        }
+        while(!worklist.isEmpty())
+        {
+            int b = worklist.remove(worklist.size() - 1);
+            queued[b] = false;
+
+            Constants state = in[b].copy();
+            for(int i = blockStarts[b]; i < blockStarts[b + 1]; i++)
+            {
+                transfer(statements[i], state);
+            }
+            for(int s : successors[b])
+            {
+                if(in[s].merge(state) && !queued[s])
+                {
+                    worklist.add(s);
+                    queued[s] = true;
+                }
+            }
+        }
+
+        boolean changed = false;
+        for(int b = 0; b < blocks; b++)
+        {
+            Constants state = in[b];
+            for(int i = blockStarts[b]; i < blockStarts[b + 1]; i++)
+            {
+                Instruction before = statements[i];
+                changed |= rewrite(i, state);
+                transfer(before, state);
+            }
+        }
+        return changed;
+    }
+
+    private void transfer(Instruction statement, Constants state)
+    {
+        int shape = shape(statement);
+        if(shape == CALL)
+        {
+            // Whatever comes back isn't known until it runs.
+            ITokenMap tm = statement.getTokenMap();
+            int assignIndex = tm.getAssignmentIndex();
+            for(int i = 0; i < assignIndex && tm.tokenEquals(assignIndex, "<-"); i++)
+            {
+                if(tm.getKinds()[i] == ITokenMap.VARIABLE && tm.getSlots()[i] >= 0)
+                {
+                    state.states[tm.getSlots()[i]] = NAC;
+                }
+            }
+            return;
+        }
+        if(shape != ASSIGN)
+        {
+            return;
+        }
+        ITokenMap tm = statement.getTokenMap();
+        int[] range = readRange(statement, ASSIGN);
+        int target = tm.getSlots()[tm.getAssignmentIndex() - 1];
+
+        switch(fold(tm, range[0], range[1], state))
+        {
+            case FOLDED:
+                state.set(target, evaluator.resultTag, evaluator.resultNumber, evaluator.resultObject);
+                break;
+            case UNKNOWN:
+                state.states[target] = NAC;
+                break;
+            default:
+                // Fails every time, so the variable keeps whatever it had.
+                break;
+        }
+    }
+
+    /**
+     * Replaces statement i with its folded or propagated form, or removes it.
+     * @return true if the statement changed.
+     */
+    private boolean rewrite(int i, Constants state)
+    {
+        Instruction statement = statements[i];
+        int shape = shape(statement);
+        if(shape != EXPRESSION && shape != ASSIGN && shape != OUT && shape != JUMPIF && shape != CALL)
+        {
+            return false;
+        }
+
+        ITokenMap tm = statement.getTokenMap();
+        int[] range = readRange(statement, shape);
+        int folded = fold(tm, range[0], range[1], state);
+        if(folded == FAILS)
+        {
+            // Leave it be so the error still shows up at runtime.
+            return false;
+        }
+
+        String text = null;
+        if(folded == FOLDED)
+        {
+            String literal = literal(evaluator.resultTag, evaluator.resultNumber, evaluator.resultObject);
+            switch(shape)
+            {
+                case EXPRESSION:
+                    // Computes something and throws it away.
+                    statements[i] = null;
+                    return true;
+
+                case JUMPIF:
+                    if(evaluator.resultTag == Values.BOOLEAN && evaluator.resultNumber == 0)
+                    {
+                        statements[i] = null;
+                        return true;
+                    }
+                    text = "jump " + tm.getToken(tm.size() - 1);
+                    break;
+
+                default:
+                    // A loop's range and arguments are two lists, folding them would index one with the other.
+                    if(literal != null && shape != CALL)
+                    {
+                        text = join(tm, 0, range[0]) + " " + literal + join(tm, range[1], tm.size());
+                    }
+                    break;
+            }
+        }
+
+        if(text == null)
+        {
+            text = substitute(tm, range[0], range[1], state);
+        }
+        if(text.equals(join(tm, 0, tm.size())))
+        {
+            return false;
+        }
+
+        Instruction rewritten = compiler.compileStatement(text, statement.getLine(), symbols);
+        if(rewritten == null || rewritten.getTokenMap() == null)
+        {
+            return false;
+        }
+        if(Interpreter.isDebug())
+        {
+            Interpreter.log("Optimizer rewrote line " + statement.getLine() + ": " + join(tm, 0, tm.size()) + " => " + text);
+        }
+        statements[i] = rewritten;
+        return true;
+    }
+
+    /**
+     * Evaluates tokens [from, to) if every variable in there is a known constant.
+     * @param state known constants, null if there are none
+     * @return FOLDED with the value left in the evaluator, FAILS if it errors every time, UNKNOWN if it depends on runtime values.
+     */
+    private int fold(ITokenMap tm, int from, int to, Constants state)
+    {
+        int[] kinds = tm.getKinds();
+        int[] slots = tm.getSlots();
+        for(int i = from; i < to; i++)
+        {
+            switch(kinds[i])
+            {
+                case ITokenMap.NUMERIC:
+                case ITokenMap.STRING:
+                case ITokenMap.LOGIC:
+                case ITokenMap.OPERATOR:
+                case ITokenMap.BOPERATOR:
+                case ITokenMap.COMPARATOR:
+                    break;
+
+                case ITokenMap.VARIABLE:
+                    if(state == null || slots[i] < 0 || state.states[slots[i]] != CONST)
+                    {
+                        return UNKNOWN;
+                    }
+                    scratch.write(slots[i], state.tags[slots[i]], state.numbers[slots[i]], state.objects[slots[i]]);
+                    break;
+
+                default:
+                    // in, and anything that would need the executor.
+                    return UNKNOWN;
+            }
+        }
+        return evaluator.evaluate(tm, from, to) ? FOLDED : FAILS;
+    }
+
+    /**
+     * @return statement text with constant variables in [from, to) swapped for their values.
+     */
+    private String substitute(ITokenMap tm, int from, int to, Constants state)
+    {
+        StringBuilder text = new StringBuilder(join(tm, 0, from));
+        for(int i = from; i < to; i++)
+        {
+            String token = tm.getToken(i);
+            int slot = tm.getSlots()[i];
+            if(tm.getKinds()[i] == ITokenMap.VARIABLE && slot >= 0 && state.states[slot] == CONST)
+            {
+                String literal = literal(state.tags[slot], state.numbers[slot], state.objects[slot]);
+                token = literal != null ? literal : token;
+            }
+            if(text.length() > 0)
+            {
+                text.append(' ');
+            }
+            text.append(token);
+        }
+        return text.append(join(tm, to, tm.size())).toString();
+    }
+
+    /**
+     * @return the value as source text, null if it can't be written as a literal.
+     */
+    private static String literal(byte tag, long number, Object object)
+    {
+        switch(tag)
+        {
+            case Values.NUMBER:
+                // Long.MIN_VALUE has no positive literal to negate.
+                return number != Long.MIN_VALUE ? Long.toString(number) : null;
+            case Values.BIG:
+                return object.toString();
+            case Values.DECIMAL:
+                // Only if it prints as a literal, 1.0E20 doesn't.
+                String text = Values.toText(tag, number, object);
+                return text.matches("-?[0-9]+\\.[0-9]+") ? text : null;
+            case Values.BOOLEAN:
+                return number != 0 ? "true" : "false";
+            case Values.STRING:
+                return ((String)object).indexOf('"') < 0 ? "\"" + object + "\"" : null;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * @return tokens [from, to) separated by spaces. Leading space if from > 0 so pieces can be glued together.
+     */
+    private static String join(ITokenMap tm, int from, int to)
+    {
+        StringBuilder text = new StringBuilder();
+        for(int i = from; i < to; i++)
+        {
+            if(i > 0)
+            {
+                text.append(' ');
+            }
+            text.append(tm.getToken(i));
+        }
+        return text.toString();
+    }
+
+    /*
+     * Dead code
+     */
+
+    private boolean removeUnreachable()
+    {
+        int blocks = successors.length;
+        boolean[] reached = new boolean[blocks];
+        ArrayList<Integer> worklist = new ArrayList<Integer>();
+        if(blocks > 0)
+        {
+            worklist.add(0);
+            reached[0] = true;
+        }
+        while(!worklist.isEmpty())
+        {
+            int b = worklist.remove(worklist.size() - 1);
+            for(int s : successors[b])
+            {
+                if(!reached[s])
+                {
+                    reached[s] = true;
+                    worklist.add(s);
+                }
+            }
+        }
+
+        boolean changed = false;
+        for(int b = 0; b < blocks; b++)
+        {
+            int last = blockStarts[b + 1] - 1;
+            if(reached[b] && shape(statements[last]) == JUMP && jumpTarget(statements[last]) == last + 1)
+            {
+                // Jumps to the next statement anyway.
+                if(Interpreter.isDebug())
+                {
+                    Interpreter.log("Optimizer removed jump to the next line on line " + statements[last].getLine());
+                }
+                statements[last] = null;
+                changed = true;
+            }
+            if(reached[b])
+            {
+                continue;
+            }
+            for(int i = blockStarts[b]; i < blockStarts[b + 1]; i++)
+            {
+                if(Interpreter.isDebug())
+                {
+                    Interpreter.log("Optimizer removed unreachable line " + statements[i].getLine());
+                }
+                statements[i] = null;
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Backward liveness over the blocks. An assignment is dead if nothing reads the variable before it is overwritten.
+     * Only assignments that can't fail count as overwriting: a failed one leaves the old value behind for later reads.
+     * Likewise only those are removed, one that might fail has to stay so its error still shows up at runtime.
+     */
+    private boolean removeDeadStores()
+    {
+        int blocks = successors.length;
+        BitSet[] liveIn = new BitSet[blocks];
+        for(int b = 0; b < blocks; b++)
+        {
+            liveIn[b] = new BitSet();
+        }
+
+        boolean changed = true;
+        while(changed)
+        {
+            changed = false;
+            for(int b = blocks - 1; b >= 0; b--)
+            {
+                BitSet live = liveOut(b, liveIn);
+                for(int i = blockStarts[b + 1] - 1; i >= blockStarts[b]; i--)
+                {
+                    step(statements[i], live);
+                }
+                if(!live.equals(liveIn[b]))
+                {
+                    liveIn[b] = live;
+                    changed = true;
+                }
+            }
+        }
+
+        boolean removed = false;
+        for(int b = 0; b < blocks; b++)
+        {
+            BitSet live = liveOut(b, liveIn);
+            for(int i = blockStarts[b + 1] - 1; i >= blockStarts[b]; i--)
+            {
+                Instruction statement = statements[i];
+                if(shape(statement) == ASSIGN)
+                {
+                    ITokenMap tm = statement.getTokenMap();
+                    int target = tm.getSlots()[tm.getAssignmentIndex() - 1];
+                    int[] range = readRange(statement, ASSIGN);
+                    // Folding without constants only succeeds on literals (so never for in), and tells whether it fails.
+                    if(!live.get(target) && fold(tm, range[0], range[1], null) == FOLDED)
+                    {
+                        if(Interpreter.isDebug())
+                        {
+                            Interpreter.log("Optimizer removed dead store on line " + statement.getLine() + ": " + join(tm, 0, tm.size()));
+                        }
+                        statements[i] = null;
+                        removed = true;
+                        continue;
+                    }
+                }
+                step(statement, live);
+            }
+        }
+        return removed;
+    }
+
+    private BitSet liveOut(int b, BitSet[] liveIn)
+    {
+        BitSet live = new BitSet();
+        if(exits[b])
+        {
+            // Returning reads the results (a script's caller may read anything).
+            live.or(results);
+        }
+        for(int s : successors[b])
+        {
+            live.or(liveIn[s]);
+        }
+        return live;
+    }
+
+    /**
+     * Moves the live set from after the statement to before it.
+     */
+    private void step(Instruction statement, BitSet live)
+    {
+        int shape = shape(statement);
+        ITokenMap tm = statement.getTokenMap();
+        int[] range = readRange(statement, shape);
+
+        if(shape == ASSIGN && fold(tm, range[0], range[1], null) == FOLDED)
+        {
+            live.clear(tm.getSlots()[tm.getAssignmentIndex() - 1]);
+        }
+        for(int i = range[0]; i < range[1]; i++)
+        {
+            if(tm.getKinds()[i] == ITokenMap.VARIABLE && tm.getSlots()[i] >= 0)
+            {
+                live.set(tm.getSlots()[i]);
+            }
+        }
+    }
+
+    /**
+     * Squeezes out removed statements and moves the tags along with them.
+     * @return true if anything was removed.
+     */
+    private boolean compact()
+    {
+        int n = statements.length;
+        int[] newIndex = new int[n + 1];
+        int kept = 0;
+        for(int i = 0; i < n; i++)
+        {
+            newIndex[i] = kept;
+            kept += statements[i] != null ? 1 : 0;
+        }
+        newIndex[n] = kept;
+        if(kept == n)
+        {
+            return false;
+        }
+
+        Instruction[] compacted = new Instruction[kept];
+        for(int i = 0, j = 0; i < n; i++)
+        {
+            if(statements[i] != null)
+            {
+                compacted[j++] = statements[i];
+            }
+        }
+        for(String tagName : tags.keySet())
+        {
+            tags.put(tagName, newIndex[Math.min(tags.get(tagName), n)]);
+        }
+        statements = compacted;
+        return true;
+    }
+
+    private void dump()
+    {
+        // Tags by index, so blocks can be labelled with them.
+        HashMap<Integer, String> labels = new HashMap<Integer, String>();
+        for(String tagName : tags.keySet())
+        {
+            labels.merge(tags.get(tagName), tagName, (a, b) -> a + ", " + b);
+        }
+
+        Interpreter.log("Optimized control flow graph:");
+        for(int b = 0; b < successors.length; b++)
+        {
+            StringBuilder header = new StringBuilder("B" + b);
+            String label = labels.get(blockStarts[b]);
+            if(label != null)
+            {
+                header.append(" (").append(label).append(")");
+            }
+            header.append(" ->");
+            for(int s : successors[b])
+            {
+                header.append(" B").append(s);
+            }
+            if(successors[b].length == 0)
+            {
+                header.append(" exit");
+            }
+            Interpreter.log(header.toString());
+
+            for(int i = blockStarts[b]; i < blockStarts[b + 1]; i++)
+            {
+                ITokenMap tm = statements[i].getTokenMap();
+                Interpreter.log("    " + statements[i].getLine() + ": " + (tm == null ? "<parse error>" : join(tm, 0, tm.size())));
+            }
+        }
+    }
+
+    /**
+     * What is known about every variable at one point of the procedure.
+     */
+    private static class Constants {
+        final byte[] states;
+        final byte[] tags;
+        final long[] numbers;
+        final Object[] objects;
+
+        Constants(int slots, byte initial)
+        {
+            states = new byte[slots];
+            tags = new byte[slots];
+            numbers = new long[slots];
+            objects = new Object[slots];
+            Arrays.fill(states, initial);
+        }
+
+        private Constants(Constants other)
+        {
+            states = other.states.clone();
+            tags = other.tags.clone();
+            numbers = other.numbers.clone();
+            objects = other.objects.clone();
+        }
+
+        Constants copy()
+        {
+            return new Constants(this);
+        }
+
+        void set(int slot, byte tag, long number, Object object)
+        {
+            states[slot] = CONST;
+            tags[slot] = tag;
+            numbers[slot] = number;
+            objects[slot] = object;
+        }
+
+        /**
+         * Meets this with the state coming in from another edge.
+         * @return true if this changed.
+         */
+        boolean merge(Constants other)
+        {
+            boolean changed = false;
+            for(int i = 0; i < states.length; i++)
+            {
+                if(other.states[i] == UNDEF || states[i] == NAC)
+                {
+                    continue;
+                }
+                if(states[i] == UNDEF)
+                {
+                    states[i] = other.states[i];
+                    tags[i] = other.tags[i];
+                    numbers[i] = other.numbers[i];
+                    objects[i] = other.objects[i];
+                    changed = true;
+                } else if(other.states[i] == NAC || tags[i] != other.tags[i] || numbers[i] != other.numbers[i] || !Objects.equals(objects[i], other.objects[i])) {
+                    states[i] = NAC;
+                    changed = true;
+                }
+            }
+            return changed;
+        }
+    }
+}
@@ -0,0 +1,299 @@
+package Interpreter;
+
+import Interpreter.Interfaces.IOutput;
+import Interpreter.Interfaces.ITokenMap;
+
+import java.io.BufferedReader;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Parallel range loop: total <- sum Body [1, 1000] runs the protocol Body once for every i from 1 up to (not including) 1000, passing it
+ * i, and adds up what it returns. [count, largest] <- [sum, max] Body [1, 1000] [limit] reduces two results at once, and passes limit
+ * along after i. The reductions are sum, min, max, and, or. See Executor for the parsing.
+ *
+ * The range is split into chunks on the fork/join pool. Every chunk runs in an ExecutionContext of its own, so an iteration only ever
+ * sees its own variables, and the partial results are merged in range order. What the iterations print is kept per chunk and printed
+ * in range order as well, errors included, so the output is the same as running the loop one i at a time. They do share the caller's input, and any
+ * array passed in: writing to one of those from the iterations is a race.
+ */
+public class ParallelLoop {
+    public static final byte SUM = 0;
+    public static final byte MIN = 1;
+    public static final byte MAX = 2;
+    public static final byte AND = 3;
+    public static final byte OR = 4;
+    private static final String[] NAMES = { "sum", "min", "max", "and", "or" };
+
+    private static final int CHUNKS_PER_THREAD = 8; // Slack for when some iterations take longer than others
+
+    private final Procedure body;
+    private final Protocols protocols;
+    private final byte[] reductions;
+    private final BufferedReader input;
+
+    /*
+     * Arguments passed after i, the same for every iteration.
+     */
+    private byte[] argumentTags = new byte[0];
+    private long[] argumentNumbers = new long[0];
+    private Object[] argumentObjects = new Object[0];
+
+    private Partial result;
+
+    /**
+     * What a part of the range came to: one value per reduction and everything it printed.
+     */
+    private final class Partial {
+        final byte[] tags = new byte[reductions.length];
+        final long[] numbers = new long[reductions.length];
+        final Object[] objects = new Object[reductions.length];
+        final boolean[] set = new boolean[reductions.length]; // The min or max of nothing is nothing
+        final TextOutput output = new TextOutput();
+
+        Partial()
+        {
+            for(int r = 0; r < reductions.length; r++)
+            {
+                // sum, and and or start from what they'd be for no iterations at all.
+                set[r] = reductions[r] == SUM || reductions[r] == AND || reductions[r] == OR;
+                tags[r] = reductions[r] == SUM ? Values.NUMBER : Values.BOOLEAN;
+                numbers[r] = reductions[r] == AND ? 1 : 0;
+            }
+        }
+
+        /**
+         * Folds in what the range right after this one came to.
+         */
+        void merge(Partial next)
+        {
+            for(int r = 0; r < reductions.length; r++)
+            {
+                if(next.set[r])
+                {
+                    reduce(r, next.tags[r], next.numbers[r], next.objects[r]);
+                }
+            }
+            output.append(next.output);
+        }
+
+        /**
+         * @return false if the value can't go into the reduction, logged.
+         */
+        boolean reduce(int r, byte tag, long number, Object object)
+        {
+            byte reduction = reductions[r];
+            boolean numeric = reduction == SUM || reduction == MIN || reduction == MAX;
+            if(numeric ? !Values.isNumber(tag) : tag != Values.BOOLEAN)
+            {
+                Interpreter.log("Err. Can't " + NAMES[reduction] + " " + Values.toText(tag, number, object) + ", it isn't a " + (numeric ? "number." : "boolean."));
+                return false;
+            }
+
+            switch(reduction)
+            {
+                case SUM:
+                    long sum = numbers[r] + number;
+                    if(tags[r] == Values.NUMBER && tag == Values.NUMBER && ((numbers[r] ^ sum) & (number ^ sum)) >= 0)
+                    {
+                        numbers[r] = sum;
+                    } else {
+                        // Overflowed, or not two longs.
+                        tags[r] = Values.arithmetic('+', tags[r], numbers[r], objects[r], tag, number, object, numbers, objects, r);
+                    }
+                    break;
+
+                case MIN:
+                case MAX:
+                    int order = set[r] ? Values.compare(tag, number, object, tags[r], numbers[r], objects[r]) : 0;
+                    if(!set[r] || (reduction == MIN ? order < 0 : order > 0))
+                    {
+                        tags[r] = tag;
+                        numbers[r] = number;
+                        objects[r] = object;
+                    }
+                    break;
+
+                case AND:
+                    numbers[r] &= number;
+                    break;
+
+                default:
+                    numbers[r] |= number;
+                    break;
+            }
+            set[r] = true;
+            return true;
+        }
+    }
+
+    /**
+     * @param body protocol run for every i, takes i (and the arguments) and returns a value per reduction
+     * @param protocols what the body's own calls go to
+     * @param reductions SUM, MIN, MAX, AND or OR per value the body returns
+     * @param input what in reads in the body, null for the console
+     */
+    public ParallelLoop(Procedure body, Protocols protocols, byte[] reductions, BufferedReader input)
+    {
+        this.body = body;
+        this.protocols = protocols;
+        this.reductions = reductions;
+        this.input = input;
+    }
+
+    /**
+     * @return SUM, MIN, MAX, AND or OR for the token, -1 if it isn't a reduction.
+     */
+    public static byte reduction(ITokenMap tm, int i)
+    {
+        for(byte reduction = 0; reduction < NAMES.length; reduction++)
+        {
+            if(tm.tokenEquals(i, NAMES[reduction]))
+            {
+                return reduction;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Arguments passed to the body after i.
+     */
+    public void setArguments(byte[] tags, long[] numbers, Object[] objects)
+    {
+        argumentTags = tags;
+        argumentNumbers = numbers;
+        argumentObjects = objects;
+    }
+
+    /**
+     * Runs the body for every i in [from, to) and waits for all of them.
+     * @param output where what the iterations printed goes, in range order
+     */
+    public void run(long from, long to, IOutput output)
+    {
+        long chunk = Math.max(1, (to - from) / ((long)ForkJoinPool.getCommonPoolParallelism() * CHUNKS_PER_THREAD));
+        result = to > from ? new Chunk(from, to, chunk).invoke() : new Partial();
+        result.output.writeTo(output);
+    }
+
+    /*
+     * Reduced values after run(), by reduction.
+     */
+
+    /**
+     * @return false for a min or max of no iterations at all
+     */
+    public boolean isSet(int r)
+    {
+        return result.set[r];
+    }
+
+    public byte tag(int r)
+    {
+        return result.tags[r];
+    }
+
+    public long number(int r)
+    {
+        return result.numbers[r];
+    }
+
+    public Object object(int r)
+    {
+        return result.objects[r];
+    }
+
+    /**
+     * Halves the range until it's one chunk long, then runs it.
+     */
+    private final class Chunk extends RecursiveTask<Partial> {
+        private static final long serialVersionUID = 1L;
+
+        private final long from, to, size;
+
+        Chunk(long from, long to, long size)
+        {
+            this.from = from;
+            this.to = to;
+            this.size = size;
+        }
+
+        @Override
+        protected Partial compute()
+        {
+            if(to - from <= size)
+            {
+                return runRange(from, to);
+            }
+            long middle = from + (to - from) / 2;
+            Chunk left = new Chunk(from, middle, size);
+            Chunk right = new Chunk(middle, to, size);
+            right.fork();
+            Partial partial = left.compute();
+            partial.merge(right.join());
+            return partial;
+        }
+    }
+
+    /**
+     * Runs part of the range on this thread. What the iterations log goes with what they print, so merging keeps it in range order.
+     */
+    private Partial runRange(long from, long to)
+    {
+        Partial partial = new Partial();
+        IOutput previous = Interpreter.getLog();
+        Interpreter.setLog(partial.output);
+        try {
+            runIterations(partial, from, to);
+        } finally {
+            Interpreter.setLog(previous);
+        }
+        return partial;
+    }
+
+    /**
+     * Runs the iterations one after the other in a context of their own, which is cleared for every i.
+     */
+    private void runIterations(Partial partial, long from, long to)
+    {
+        ExecutionContext context = new ExecutionContext(body, protocols);
+        context.setInput(input);
+        context.setOutput(partial.output);
+        Script script = new Script(body, null, protocols);
+        Executor executor = new Executor(context);
+        Evaluator evaluator = new Evaluator(context.variables, context);
+        int[] parameters = body.getParameters();
+        ITokenMap results = body.getResults().getTokenMap();
+
+        for(long i = from; i < to; i++)
+        {
+            context.unwind();
+            context.variables.clear();
+            context.variables.write(parameters[0], Values.NUMBER, i, null);
+            for(int a = 0; a < argumentTags.length; a++)
+            {
+                context.variables.write(parameters[a + 1], argumentTags[a], argumentNumbers[a], argumentObjects[a]);
+            }
+
+            script.interpret(context, executor);
+            if(context.getDepth() > 0)
+            {
+                // Stopped in the middle of a call, the executor still has the callee's variables.
+                context.unwind();
+                executor = new Executor(context);
+            }
+
+            if(evaluator.evaluateList(results, 0, results.size()) < 0)
+            {
+                Interpreter.log("Err. Returning the results failed for i = " + i + ".");
+                continue;
+            }
+            for(int r = 0; r < reductions.length; r++)
+            {
+                partial.reduce(r, evaluator.listTag(r), evaluator.listNumber(r), evaluator.listObject(r));
+            }
+            evaluator.clearList();
+        }
+    }
+}
@@ -1,93 +1,247 @@
 package Interpreter;
 
 import java.util.*;
-import java.util.regex.Pattern;
 
 import Interpreter.Interfaces.IParser;
+import Interpreter.Interfaces.ITokenMap;
 
 public class Parser implements IParser {
-    // Debugging this will be a pain
+    // Debugging this will be a pain. The regexes are the reference definitions, Lexer implements them by hand.
     enum tokenMapping{
-        Whitespace("^\s*$"),
-        String("\".*\""),
-        Tag("[a-zA-Z]+[0-9]*\\:"),
-        Numeric("[0-9]+"),
-        Operator("\\+|\\-|\\/|\\*|\\%"), // +, -, /, *
-        BOperator("(\\|{1,2})|(\\&{1,2})"),
-        Assignment("(\\<\\-)|(\\-\\>)|(\\=)"),
-        Comparator("(\\=\\=)|(\\<\\=)|(\\>\\=)|\\>||\\<||(\\!\\=)"),
-        Keyword("in|out|jump\\?|jump"),
-        Logic("true|false"),
-        Set("\\[([a-zA-Z_]+[a-zA-Z0-9_]*)(,[a-zA-Z_]+[a-zA-Z0-9_]*)*"), //Not implemented yet
-        Comment("\\/\\/.*"),
-        Variable("\\!?[a-zA-Z_]+[a-zA-Z0-9_]*");
+        Whitespace(ITokenMap.WHITESPACE, "^\s*$"),
+        String(ITokenMap.STRING, "\".*\""),
+        Tag(ITokenMap.TAG, "[a-zA-Z]+[0-9]*\\:"),
+        Numeric(ITokenMap.NUMERIC, "[0-9]+(\\.[0-9]+)?"),
+        Operator(ITokenMap.OPERATOR, "\\+|\\-|\\/|\\*|\\%"), // +, -, /, *
+        BOperator(ITokenMap.BOPERATOR, "(\\|{1,2})|(\\&{1,2})"),
+        Assignment(ITokenMap.ASSIGNMENT, "(\\<\\-)|(\\-\\>)|(\\=)"),
+        Comparator(ITokenMap.COMPARATOR, "(\\=\\=)|(\\<\\=)|(\\>\\=)|\\>||\\<||(\\!\\=)"),
+        Keyword(ITokenMap.KEYWORD, "in|out|jump\\?|jump"),
+        Logic(ITokenMap.LOGIC, "true|false"),
+        Set(ITokenMap.SET, "\\[|\\]|,"), // Brackets and commas of arrays: [1, 2], a[i]
+        Comment(ITokenMap.COMMENT, "\\/\\/.*"),
+        Variable(ITokenMap.VARIABLE, "\\!?[a-zA-Z_]+[a-zA-Z0-9_]*");
 
+        final int kind;
         private final String regex;
+        private final String typeName;
 
-        private tokenMapping(String s)
+        private tokenMapping(int kind, String s)
         {
+            this.kind = kind;
             regex = s;
+            typeName = "<" + name() + ">";
         }   
     }
 
+    private static final tokenMapping[] mappings = tokenMapping.values();
+
+    private final Lexer lexer = new Lexer();
+
     @Override
     public TokenMap parse(String[] tokens)
     {
-        String[] tokenCombination = new String[tokens.length];
-        String tokenDebugString = "";
-        
-        int tIndex = 0;
-        tokenLoop:
-        for(String token : tokens)
+        // Tokens are slices of one line, so glue them back together.
+        return parseLine(String.join(" ", tokens));
+    }
+
+    @Override
+    public TokenMap parseLine(String line)
+    {
+        if(!lexer.lex(line))
+        {
+            // If no match has been found then the parser fails!
+            Interpreter.log("Parser failed to match token at: '" + line.substring(lexer.getErrorIndex()) + "'");
+            return null;
+        }
+
+        int count = lexer.getCount();
+        int[] kinds = new int[count];
+        int[] offsets = new int[count];
+        int[] lengths = new int[count];
+        for(int i = 0; i < count; i++)
+        {
+            kinds[i] = lexer.getKind(i);
+            offsets[i] = lexer.getStart(i);
+            lengths[i] = lexer.getEnd(i) - lexer.getStart(i);
+        }
+
+        //The token combination is the most important!
+        TokenMap result = new TokenMap(line, kinds, offsets, lengths);
+        if(Interpreter.isDebug())
+        {
+            String[] types = new String[count];
+            for(int i = 0; i < count; i++)
+            {
+                types[i] = result.getTokenType(i);
+            }
+            Interpreter.log(Arrays.toString(types));
+        }
+        return result;
+    }
+
+    /**
+     * @param kind one of the ITokenMap kinds
+     * @return type string, e.g. "<Numeric>"
+     */
+    public static String typeName(int kind)
+    {
+        return mappings[kind].typeName;
+    }
+
+    /**
+     * How tightly the operator at index i binds, 0 if it isn't a binary operator. Left associative, usual order:
+     * * / % then + - then ordering, equality, & and finally |
+     * @param tm
+     * @param i token index
+     * @return precedence, higher binds tighter
+     */
+    public static int precedence(ITokenMap tm, int i)
+    {
+        char c = tm.getSource().charAt(tm.getOffsets()[i]);
+        switch(tm.getKinds()[i])
         {
-            if(token == "")
+            case ITokenMap.OPERATOR:
+                return c == '+' || c == '-' ? 5 : 6;
+
+            case ITokenMap.COMPARATOR:
+                return c == '=' || c == '!' ? 3 : 4;
+
+            case ITokenMap.BOPERATOR:
+                return c == '&' ? 2 : 1;
+
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * @param close index of a ]
+     * @return index of the [ it closes, -1 if there isn't one.
+     */
+    public static int openingBracket(ITokenMap tm, int close)
+    {
+        int depth = 0;
+        for(int i = close; i >= 0; i--)
+        {
+            if(tm.getKinds()[i] != ITokenMap.SET)
             {
-                Interpreter.log("EMPTY");
                 continue;
             }
+            if(tm.tokenEquals(i, "]"))
+            {
+                depth++;
+            } else if(tm.tokenEquals(i, "[") && --depth == 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
 
-            boolean match = false;
-            for(tokenMapping tm : tokenMapping.values())
+    /**
+     * @param open index of a [
+     * @return index of the ] that closes it, -1 if there isn't one.
+     */
+    public static int closingBracket(ITokenMap tm, int open)
+    {
+        int depth = 0;
+        for(int i = open; i < tm.size(); i++)
+        {
+            if(tm.getKinds()[i] != ITokenMap.SET)
             {
-                Pattern tokenPattern = Pattern.compile(tm.regex);
-                if(tokenPattern.matcher(token).matches())
-                {
-                    // Correct token!
-                    tokenCombination[tIndex] = "<" + tm.name() + ">";
-                    tokenDebugString += "<" + tm.name() + ">"; 
-                    match = true;
-                    // interpreter.log(token + " : <" + tm.name() + ">");
-                    
-                    if(tm == tokenMapping.Comment)
-                    {
-                        // Comment found, rest of the line should not be parsed.
-                        Interpreter.log("Comment found: Skipping...");
-                        tokenCombination = Arrays.copyOfRange(tokenCombination, 0, tIndex); // Copy only the part of the expression that is not a comment. (This is clean imo).
-                        tokens = Arrays.copyOfRange(tokens, 0, tIndex);
-                        break tokenLoop; // THIS IS SO COOL
-                    }
-
-                    break;
-                }
+                continue;
             }
+            if(tm.tokenEquals(i, "["))
+            {
+                depth++;
+            } else if(tm.tokenEquals(i, "]") && --depth == 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
 
-            // If no match has been found then the parser fails!
-            if(!match)
+    /**
+     * @return number of values in the list [from, to), e.g. 2 for [a, b + 1] and 0 for []. -1 if the tokens aren't one list.
+     */
+    public static int listLength(ITokenMap tm, int from, int to)
+    {
+        if(to - from < 2 || tm.getKinds()[from] != ITokenMap.SET || !tm.tokenEquals(from, "[") || openingBracket(tm, to - 1) != from)
+        {
+            return -1;
+        }
+        if(to - from == 2)
+        {
+            return 0;
+        }
+        int count = 1;
+        int depth = 0;
+        for(int i = from + 1; i < to - 1; i++)
+        {
+            if(tm.getKinds()[i] != ITokenMap.SET)
+            {
+                continue;
+            }
+            if(tm.tokenEquals(i, "["))
             {
-                Interpreter.log("Parser failed to match token: '" + token + "'");
-                return null;
+                depth++;
+            } else if(tm.tokenEquals(i, "]")) {
+                depth--;
+            } else if(depth == 0) {
+                count++;
             }
-            tIndex++;
         }
+        return count;
+    }
 
-        //The token combination is the most important!
-        Interpreter.log(Arrays.toString(tokenCombination));
-        return new TokenMap(tokens, tokenCombination);
+    /**
+     * Calls are the assignments with an arrow: x <- Name [a, b] and [a, b] -> Name, see Executor.
+     * @return true if the statement calls a procedure
+     */
+    public static boolean isCall(ITokenMap tm)
+    {
+        if(tm == null || tm.size() == 0 || (tm.getKeywordIndex() == 0 && !tm.tokenEquals(0, "in")))
+        {
+            return false;
+        }
+        int assignIndex = tm.getAssignmentIndex();
+        return assignIndex > 0 && tm.getSource().charAt(tm.getOffsets()[assignIndex]) != '=';
+    }
+
+    /**
+     * Parallel loops are the calls with reductions between the arrow and the name: total <- sum Body [1, 100], see ParallelLoop.
+     * @return true if the call is a parallel loop
+     */
+    public static boolean isLoop(ITokenMap tm)
+    {
+        if(!isCall(tm) || !tm.tokenEquals(tm.getAssignmentIndex(), "<-"))
+        {
+            return false;
+        }
+        int next = tm.getAssignmentIndex() + 1;
+        int[] kinds = tm.getKinds();
+        return next + 1 < tm.size() && (kinds[next] == ITokenMap.SET ? tm.tokenEquals(next, "[")
+            : kinds[next] == ITokenMap.VARIABLE && kinds[next + 1] == ITokenMap.VARIABLE);
+    }
+
+    /**
+     * @return index of the procedure name in a call, what comes after it are the arguments. -1 if there's no name where it should be.
+     */
+    public static int calleeIndex(ITokenMap tm)
+    {
+        int assignIndex = tm.getAssignmentIndex();
+        int name = assignIndex + 1;
+        if(isLoop(tm))
+        {
+            // Past the reductions.
+            name = tm.tokenEquals(name, "[") ? closingBracket(tm, name) + 1 : name + 1;
+        }
+        return name > assignIndex && name < tm.size() && tm.getKinds()[name] == ITokenMap.VARIABLE ? name : -1;
     }
 
     public static boolean isTag(String line)
     {
-        Pattern pattern = Pattern.compile(tokenMapping.Tag.regex);
-        return pattern.matcher(line).matches();
+        int length = line.length();
+        return length > 1 && line.charAt(length - 1) == ':' && Lexer.isTagName(line, 0, length - 1);
     } 
 }
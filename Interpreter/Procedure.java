@@ -0,0 +1,152 @@
+package Interpreter;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * The compiled START..END block. Tags are resolved to instruction indices so jumps don't need to know about source lines.
+ * START <- [a, b] gives the procedure parameters and END -> [a + b] results, which only mean something when it's called (see Executor).
+ */
+public class Procedure {
+    private static final int[] NO_PARAMETERS = new int[0];
+
+    private final Instruction[] instructions;
+    private final HashMap<String, Integer> tagIndices;
+    private final SymbolTable symbols;
+    private final int[] tagIndicesBySlot;
+    private final int[] parameters;
+    private final Instruction results;
+    private final int resultCount;
+    private final boolean calls;
+
+    public Procedure(Instruction[] instructions, HashMap<String, Integer> tagIndices, SymbolTable symbols)
+    {
+        this(instructions, tagIndices, symbols, NO_PARAMETERS, null);
+    }
+
+    /**
+     * @param parameters slots of the START <- [...] variables, in order
+     * @param results the END -> [...] list, compiled like a statement. Null if the procedure returns nothing.
+     */
+    public Procedure(Instruction[] instructions, HashMap<String, Integer> tagIndices, SymbolTable symbols, int[] parameters, Instruction results)
+    {
+        this(instructions, tagIndices, symbols, parameters, results, makesCalls(instructions));
+    }
+
+    /**
+     * @param calls true if any statement calls another procedure, for instructions that shouldn't all be decoded to find out
+     */
+    public Procedure(Instruction[] instructions, HashMap<String, Integer> tagIndices, SymbolTable symbols, int[] parameters, Instruction results,
+        boolean calls)
+    {
+        this.instructions = instructions;
+        this.tagIndices = tagIndices;
+        this.symbols = symbols;
+        this.parameters = parameters;
+        this.results = results;
+        resultCount = results == null || results.getTokenMap() == null ? 0 : Parser.listLength(results.getTokenMap(), 0, results.getTokenMap().size());
+
+        this.calls = calls;
+
+        // Tag names in jump statements are lexed as variables, so they have slots too. Lets jumps skip the name lookup.
+        tagIndicesBySlot = new int[symbols.size()];
+        Arrays.fill(tagIndicesBySlot, -1);
+        for(String tagName : tagIndices.keySet())
+        {
+            int slot = symbols.lookup(tagName);
+            if(slot >= 0)
+            {
+                tagIndicesBySlot[slot] = tagIndices.get(tagName);
+            }
+        }
+    }
+
+    private static boolean makesCalls(Instruction[] instructions)
+    {
+        for(Instruction instruction : instructions)
+        {
+            if(Parser.isCall(instruction.getTokenMap()))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public Instruction[] getInstructions()
+    {
+        return instructions;
+    }
+
+    /**
+     * @param slot slot the compiler gave the tag name
+     * @return index of the first instruction after the tag, or -1 if there is no such tag.
+     */
+    public int getTagIndex(int slot)
+    {
+        return slot >= 0 && slot < tagIndicesBySlot.length ? tagIndicesBySlot[slot] : -1;
+    }
+
+    /**
+     * @return slots of every variable used by the procedure
+     */
+    public SymbolTable getSymbols()
+    {
+        return symbols;
+    }
+
+    /**
+     * @return copy of the tag name -> instruction index map
+     */
+    public HashMap<String, Integer> getTagIndices()
+    {
+        return new HashMap<String, Integer>(tagIndices);
+    }
+
+    /**
+     * @return slots the arguments of a call go to, in order. Empty if the procedure takes none.
+     */
+    public int[] getParameters()
+    {
+        return parameters;
+    }
+
+    /**
+     * @return the END -> [...] list, null if the procedure returns nothing
+     */
+    public Instruction getResults()
+    {
+        return results;
+    }
+
+    /**
+     * @return number of values the procedure returns
+     */
+    public int getResultCount()
+    {
+        return resultCount;
+    }
+
+    /**
+     * @return true if any statement calls another procedure
+     */
+    public boolean makesCalls()
+    {
+        return calls;
+    }
+
+    public int size()
+    {
+        return instructions.length;
+    }
+
+    /**
+     * @param tagName name of the tag without the ':'
+     * @return index of the first instruction after the tag, or -1 if there is no such tag.
+     */
+    public int getTagIndex(String tagName)
+    {
+        Integer index = tagIndices.get(tagName);
+        return index == null ? -1 : index;
+    }
+}
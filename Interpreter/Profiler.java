@@ -0,0 +1,202 @@
+package Interpreter;
+
+import Interpreter.Interfaces.ITokenMap;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Execution counts and wall time of every instruction, reported per source line and per loop.
+ * A loop is a tag with a jump back to it, and runs from the tag to the last jump back. Nested loops are fine.
+ * Only Script.profile touches this, a normal run never pays for it.
+ */
+public class Profiler {
+    private final Procedure procedure;
+    private final long[] counts;
+    private final long[] nanos;
+    private final ArrayList<Loop> loops = new ArrayList<Loop>();
+    private long totalNanos = 0;
+
+    public Profiler(Procedure procedure)
+    {
+        this.procedure = procedure;
+        counts = new long[procedure.size()];
+        nanos = new long[procedure.size()];
+        findLoops();
+    }
+
+    /**
+     * @param index instruction that was just executed
+     * @param elapsed nanoseconds it took
+     */
+    public void record(int index, long elapsed)
+    {
+        counts[index]++;
+        nanos[index] += elapsed;
+    }
+
+    /**
+     * @param elapsed nanoseconds the whole procedure took, interpreter loop included
+     */
+    public void finish(long elapsed)
+    {
+        totalNanos = elapsed;
+    }
+
+    private void findLoops()
+    {
+        Instruction[] instructions = procedure.getInstructions();
+        HashMap<String, Loop> byTag = new HashMap<String, Loop>();
+        for(int i = 0; i < instructions.length; i++)
+        {
+            ITokenMap tm = instructions[i].getTokenMap();
+            boolean isJump = tm != null && tm.getKeywordIndex() == 0 && (tm.tokenEquals(0, "jump") || tm.tokenEquals(0, "jump?"));
+            if(!isJump)
+            {
+                continue;
+            }
+            String tagName = tm.getToken(tm.size() - 1);
+            int target = procedure.getTagIndex(tagName);
+            if(target < 0 || target > i)
+            {
+                continue;
+            }
+
+            Loop loop = byTag.get(tagName);
+            if(loop == null)
+            {
+                loop = new Loop(tagName, target);
+                byTag.put(tagName, loop);
+                loops.add(loop);
+            }
+            loop.end = Math.max(loop.end, i);
+        }
+        // Outer loops first, so stacks read outside in.
+        loops.sort((a, b) -> a.start != b.start ? Integer.compare(a.start, b.start) : Integer.compare(b.end, a.end));
+    }
+
+    /**
+     * Prints the lines and loops that took the most time first.
+     */
+    public void report(PrintStream out)
+    {
+        Instruction[] instructions = procedure.getInstructions();
+
+        // Instructions are one per line, but lines are what people look at so add them up by line anyway.
+        TreeMap<Integer, long[]> lines = new TreeMap<Integer, long[]>();
+        HashMap<Integer, String> sources = new HashMap<Integer, String>();
+        for(int i = 0; i < instructions.length; i++)
+        {
+            if(counts[i] == 0)
+            {
+                continue;
+            }
+            long[] line = lines.computeIfAbsent(instructions[i].getLine(), k -> new long[2]);
+            line[0] += counts[i];
+            line[1] += nanos[i];
+            sources.putIfAbsent(instructions[i].getLine(), source(instructions[i]));
+        }
+        ArrayList<Map.Entry<Integer, long[]>> hottest = new ArrayList<Map.Entry<Integer, long[]>>(lines.entrySet());
+        hottest.sort((a, b) -> Long.compare(b.getValue()[1], a.getValue()[1]));
+
+        out.println("---Profile--- " + String.format("%.3f", totalNanos / 1e6) + " ms");
+        out.println(String.format("%6s %12s %12s %10s %7s  %s", "line", "count", "total ms", "avg ns", "%", "statement"));
+        for(Map.Entry<Integer, long[]> line : hottest)
+        {
+            long count = line.getValue()[0], time = line.getValue()[1];
+            out.println(String.format("%6d %12d %12.3f %10d %6.1f%%  %s", line.getKey(), count, time / 1e6, time / count, percent(time), sources.get(line.getKey())));
+        }
+
+        if(loops.isEmpty())
+        {
+            return;
+        }
+        ArrayList<Loop> hottestLoops = new ArrayList<Loop>(loops);
+        hottestLoops.sort((a, b) -> Long.compare(time(b), time(a)));
+        out.println(String.format("%-16s %12s %12s %7s  %s", "loop", "iterations", "total ms", "%", "lines"));
+        for(Loop loop : hottestLoops)
+        {
+            long time = time(loop);
+            out.println(String.format("%-16s %12d %12.3f %6.1f%%  %d-%d", loop.tag, counts[loop.start], time / 1e6, percent(time),
+                    instructions[loop.start].getLine(), instructions[loop.end].getLine()));
+        }
+    }
+
+    /**
+     * Writes one line per executed instruction as script;loop;...;line value, with the value in nanoseconds.
+     * That's the collapsed stack format flamegraph.pl and speedscope read.
+     */
+    public void writeCollapsedStacks(Path path, String scriptName) throws IOException
+    {
+        Instruction[] instructions = procedure.getInstructions();
+        try(PrintWriter writer = new PrintWriter(Files.newBufferedWriter(path)))
+        {
+            for(int i = 0; i < instructions.length; i++)
+            {
+                if(counts[i] == 0)
+                {
+                    continue;
+                }
+                StringBuilder stack = new StringBuilder(frame(scriptName));
+                for(Loop loop : loops)
+                {
+                    if(loop.start <= i && i <= loop.end)
+                    {
+                        stack.append(';').append(frame("loop " + loop.tag));
+                    }
+                }
+                stack.append(';').append(frame("line " + instructions[i].getLine() + ": " + source(instructions[i])));
+                writer.println(stack.append(' ').append(nanos[i]));
+            }
+        }
+    }
+
+    private long time(Loop loop)
+    {
+        long time = 0;
+        for(int i = loop.start; i <= loop.end; i++)
+        {
+            time += nanos[i];
+        }
+        return time;
+    }
+
+    private double percent(long time)
+    {
+        return totalNanos > 0 ? 100.0 * time / totalNanos : 0;
+    }
+
+    private static String source(Instruction instruction)
+    {
+        ITokenMap tm = instruction.getTokenMap();
+        return tm == null ? "<parse error>" : tm.getSource().trim();
+    }
+
+    /**
+     * Semicolons separate frames, so they can't be left in a frame name.
+     */
+    private static String frame(String name)
+    {
+        return name.replace(';', ',');
+    }
+
+    private static class Loop {
+        final String tag;
+        final int start;
+        int end;
+
+        Loop(String tag, int start)
+        {
+            this.tag = tag;
+            this.start = start;
+            this.end = start;
+        }
+    }
+}
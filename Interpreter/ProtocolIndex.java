@@ -0,0 +1,314 @@
+package Interpreter;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+/**
+ * Where the .gosp protocol files under a directory are, by protocol name (the file name without .gosp).
+ * Walking the whole tree on every start is what used to make startup slow, so the index is kept in a file (.goss/protocol-index in the root)
+ * and only brought up to date: every directory remembers its modification time, and a directory that hasn't changed since is reused
+ * without listing it. Adding, removing or renaming anything in a directory changes its time. So a refresh costs one stat per
+ * directory, however many files there are. Nothing happens until the first protocol is looked up.
+ *
+ * Hidden directories (.git and friends) and symbolic links are skipped. If two protocols share a name the one closest to the root wins.
+ */
+public class ProtocolIndex {
+    // In a directory of its own, writing it would change the root directory's time otherwise. Hidden, so it's never scanned.
+    public static final String DIRECTORY = ".goss";
+    public static final String FILE_NAME = "protocol-index";
+    private static final String HEADER = "gosp-index 1";
+    // Directory times are only so precise. Anything changed this close to the last save gets listed again, in case it changed twice.
+    private static final long RACY_MILLIS = 2000;
+
+    private static final Pattern PROTOCOL = Pattern.compile(Interpreter.fileSearchRegex.Protocol.toString());
+
+    /**
+     * What a directory held last time it was listed. Names only, sorted.
+     */
+    private static class Directory {
+        final long modified;
+        final ArrayList<String> subdirectories = new ArrayList<String>();
+        final ArrayList<String> protocols = new ArrayList<String>();
+
+        Directory(long modified)
+        {
+            this.modified = modified;
+        }
+
+        boolean sameEntries(Directory other)
+        {
+            return subdirectories.equals(other.subdirectories) && protocols.equals(other.protocols);
+        }
+    }
+
+    private final Path root;
+    private HashMap<String, Directory> directories = new HashMap<String, Directory>(); // By path relative to the root, "" is the root
+    private long savedAt = 0;
+    private TreeMap<String, Path> protocols = null; // Null until the first lookup
+
+    /**
+     * @param root directory to look for protocols under
+     */
+    public ProtocolIndex(Path root)
+    {
+        this.root = root;
+    }
+
+    /**
+     * @param name protocol name, the file name without .gosp
+     * @return path of the protocol file, null if there is none.
+     */
+    public synchronized Path find(String name)
+    {
+        if(protocols == null)
+        {
+            refresh();
+        }
+        return protocols.get(name);
+    }
+
+    /**
+     * @return every protocol by name, in name order
+     */
+    public synchronized Map<String, Path> all()
+    {
+        if(protocols == null)
+        {
+            refresh();
+        }
+        return Collections.unmodifiableMap(protocols);
+    }
+
+    /**
+     * Loads the saved index, brings it up to date with the directories and saves it again if anything changed.
+     */
+    public synchronized void refresh()
+    {
+        if(protocols == null)
+        {
+            load();
+        }
+
+        HashMap<String, Directory> seen = new HashMap<String, Directory>();
+        boolean changed = scan("", seen);
+        changed |= seen.size() != directories.size(); // Directories that are gone
+        directories = seen;
+
+        // Breadth first, so the protocol closest to the root gets the name.
+        protocols = new TreeMap<String, Path>();
+        ArrayList<String> queue = new ArrayList<String>();
+        queue.add("");
+        for(int i = 0; i < queue.size(); i++)
+        {
+            String relative = queue.get(i);
+            Directory directory = directories.get(relative);
+            for(String file : directory.protocols)
+            {
+                Path path = resolve(relative).resolve(file);
+                String name = file.substring(0, file.length() - ".gosp".length());
+                if(protocols.putIfAbsent(name, path) != null)
+                {
+                    Interpreter.log("Protocol " + path + " is hidden by " + protocols.get(name));
+                }
+            }
+            for(String subdirectory : directory.subdirectories)
+            {
+                queue.add(child(relative, subdirectory));
+            }
+        }
+
+        if(Interpreter.isDebug())
+        {
+            for(Path path : protocols.values())
+            {
+                Interpreter.log("Found protocol file: " + path);
+            }
+        }
+        if(changed)
+        {
+            save();
+        }
+    }
+
+    /**
+     * Brings one directory and everything under it up to date.
+     * @return true if anything differs from the index.
+     */
+    private boolean scan(String relative, HashMap<String, Directory> seen)
+    {
+        Path path = resolve(relative);
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        } catch(IOException e) {
+            return true;
+        }
+        if(!attributes.isDirectory())
+        {
+            return true;
+        }
+
+        long modified = attributes.lastModifiedTime().toMillis();
+        Directory known = directories.get(relative);
+        boolean racy = modified >= savedAt - RACY_MILLIS;
+        Directory current = known;
+        boolean changed = false;
+        if(known == null || known.modified != modified || racy)
+        {
+            current = list(path, modified);
+            if(current == null)
+            {
+                return true;
+            }
+            // Racy ones are saved again so they stop being racy.
+            changed = known == null || known.modified != modified || racy || !known.sameEntries(current);
+        }
+        seen.put(relative, current);
+
+        for(String subdirectory : current.subdirectories)
+        {
+            changed |= scan(child(relative, subdirectory), seen);
+        }
+        return changed;
+    }
+
+    /**
+     * @return what's in the directory now, null if it can't be read.
+     */
+    private static Directory list(Path path, long modified)
+    {
+        Directory directory = new Directory(modified);
+        try(DirectoryStream<Path> entries = Files.newDirectoryStream(path))
+        {
+            for(Path entry : entries)
+            {
+                String name = entry.getFileName().toString();
+                if(PROTOCOL.matcher(name).matches())
+                {
+                    directory.protocols.add(name);
+                } else if(!name.startsWith(".") && Files.isDirectory(entry, LinkOption.NOFOLLOW_LINKS)) {
+                    directory.subdirectories.add(name);
+                }
+            }
+        } catch(IOException e) {
+            Interpreter.log("Err. Can't list " + path + " for protocols: " + e.getMessage());
+            return null;
+        }
+        Collections.sort(directory.subdirectories);
+        Collections.sort(directory.protocols);
+        return directory;
+    }
+
+    private Path resolve(String relative)
+    {
+        return relative.isEmpty() ? root : root.resolve(relative);
+    }
+
+    private static String child(String relative, String name)
+    {
+        return relative.isEmpty() ? name : relative + "/" + name;
+    }
+
+    /*
+     * The index file, plain text:
+     *     gosp-index 1 <saved at, epoch millis>
+     *     d <modified, epoch millis> <directory relative to the root>
+     *     s <subdirectory name>
+     *     p <protocol file name>
+     * A directory's s and p lines follow its d line.
+     */
+
+    private void load()
+    {
+        Path file = root.resolve(DIRECTORY).resolve(FILE_NAME);
+        if(!Files.exists(file))
+        {
+            return;
+        }
+        HashMap<String, Directory> loaded = new HashMap<String, Directory>();
+        try(BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8))
+        {
+            String header = reader.readLine();
+            if(header == null || !header.startsWith(HEADER + " "))
+            {
+                return;
+            }
+            long loadedSavedAt = Long.parseLong(header.substring(HEADER.length() + 1));
+
+            Directory directory = null;
+            String line;
+            while((line = reader.readLine()) != null)
+            {
+                if(line.startsWith("d "))
+                {
+                    String[] parts = line.split(" ", 3);
+                    directory = new Directory(Long.parseLong(parts[1]));
+                    loaded.put(parts.length > 2 ? parts[2] : "", directory);
+                } else if(directory != null && line.startsWith("s ")) {
+                    directory.subdirectories.add(line.substring(2));
+                } else if(directory != null && line.startsWith("p ")) {
+                    directory.protocols.add(line.substring(2));
+                } else {
+                    return;
+                }
+            }
+            directories = loaded;
+            savedAt = loadedSavedAt;
+        } catch(IOException | NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            // Start over, the refresh lists everything.
+            Interpreter.log("Protocol index " + file + " unreadable, rebuilding it: " + e);
+        }
+    }
+
+    private void save()
+    {
+        Path file = root.resolve(DIRECTORY).resolve(FILE_NAME);
+        long now = System.currentTimeMillis();
+        try {
+            Files.createDirectories(file.getParent());
+            Path temporary = Files.createTempFile(file.getParent(), FILE_NAME, ".tmp");
+            try(BufferedWriter writer = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8))
+            {
+                writer.write(HEADER + " " + now + "\n");
+                for(Map.Entry<String, Directory> entry : new TreeMap<String, Directory>(directories).entrySet())
+                {
+                    Directory directory = entry.getValue();
+                    writer.write("d " + directory.modified + " " + entry.getKey() + "\n");
+                    for(String subdirectory : directory.subdirectories)
+                    {
+                        writer.write("s " + subdirectory + "\n");
+                    }
+                    for(String protocol : directory.protocols)
+                    {
+                        writer.write("p " + protocol + "\n");
+                    }
+                }
+            }
+            // Two interpreters starting at once each write their own temporary file, whichever moves last wins. Both are complete.
+            try {
+                Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch(AtomicMoveNotSupportedException e) {
+                Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+            savedAt = now;
+        } catch(IOException e) {
+            // A read only directory just means the next start scans again.
+            Interpreter.log("Couldn't save the protocol index: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package Interpreter;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The protocols a script can call, compiled on demand. A protocol is a .gosp file written like any .goss script and named after its
+ * file, Greet.gosp is the protocol Greet. The ProtocolIndex knows where they are, and a protocol is only read and compiled the first time
+ * it's called. So however many protocols there are, a script only ever pays for the ones it uses.
+ * Compiled protocols are cached and never change, so like a Script one Protocols can be shared by many threads.
+ */
+public class Protocols {
+    private final ProtocolIndex index;
+    private final Engine engine;
+    private final ConcurrentHashMap<String, Compiled> compiled = new ConcurrentHashMap<String, Compiled>();
+
+    /**
+     * A compiled protocol and the file it came from, as it was when it was read.
+     */
+    private static final class Compiled {
+        final Procedure procedure;
+        final Path path;
+        final long modified;
+
+        Compiled(Procedure procedure, Path path, long modified)
+        {
+            this.procedure = procedure;
+            this.path = path;
+            this.modified = modified;
+        }
+    }
+
+    /**
+     * @param index where to find protocol files
+     * @param engine compiles (and optimizes) them. Calls always run on the tree backend, so its backend doesn't matter.
+     */
+    public Protocols(ProtocolIndex index, Engine engine)
+    {
+        this.index = index;
+        this.engine = engine;
+    }
+
+    /**
+     * @param name protocol name, the file name without .gosp
+     * @return the compiled protocol. Null if there's no such protocol or it doesn't compile, the error is logged.
+     */
+    public Procedure get(String name)
+    {
+        Compiled known = compiled.get(name);
+        if(known != null)
+        {
+            return known.procedure;
+        }
+
+        Path path = index.find(name);
+        if(path == null)
+        {
+            Interpreter.log("Err. No protocol named " + name + ".");
+            return null;
+        }
+        Procedure procedure;
+        long modified = modified(path);
+        try {
+            procedure = engine.compileProcedure(path);
+        } catch(IOException e) {
+            Interpreter.log("Err. Loading protocol " + path + " failed: " + e.getMessage());
+            return null;
+        }
+        if(procedure == null)
+        {
+            Interpreter.log("Err. No START flag found in " + path);
+            return null;
+        }
+        Interpreter.log("Compiled protocol " + name + " from " + path);
+        // Two threads asking at once both compile it, the first one in is the one everybody uses.
+        Compiled first = compiled.putIfAbsent(name, new Compiled(procedure, path, modified));
+        return first != null ? first.procedure : procedure;
+    }
+
+    /**
+     * For processes that outlive their protocols' files (see Daemon): brings the index up to date and forgets every compiled protocol
+     * whose file has been edited, moved or removed since, so the next call compiles it again. A stat per directory and per compiled
+     * protocol. Runs already going keep the protocols they started with.
+     */
+    public void refresh()
+    {
+        index.refresh();
+        compiled.entrySet().removeIf(entry -> {
+            Path path = index.find(entry.getKey());
+            return path == null || !path.equals(entry.getValue().path) || modified(path) != entry.getValue().modified;
+        });
+    }
+
+    /**
+     * @return modification time of the file, -1 if it can't be read
+     */
+    private static long modified(Path path)
+    {
+        try {
+            return Files.getLastModifiedTime(path).toMillis();
+        } catch(IOException e) {
+            return -1;
+        }
+    }
+
+    public ProtocolIndex getIndex()
+    {
+        return index;
+    }
+}
@@ -0,0 +1,213 @@
+package Interpreter;
+
+import Interpreter.Interfaces.IExecutor;
+
+import java.util.function.Consumer;
+
+/**
+ * A compiled script, ready to run any number of times. Never changes after the Engine builds it, so it can be shared between threads
+ * as long as every run gets its own ExecutionContext.
+ */
+public class Script {
+    private final Procedure procedure;
+    private final Consumer<ExecutionContext> generated; // Bytecode backend, null runs on the tree backend
+    private final Protocols protocols; // What calls go to, null for the protocols under the working directory
+
+    public Script(Procedure procedure, Consumer<ExecutionContext> generated)
+    {
+        this(procedure, generated, null);
+    }
+
+    public Script(Procedure procedure, Consumer<ExecutionContext> generated, Protocols protocols)
+    {
+        this.procedure = procedure;
+        this.generated = generated;
+        this.protocols = protocols;
+    }
+
+    public Procedure getProcedure()
+    {
+        return procedure;
+    }
+
+    /**
+     * @return true if the script runs as generated bytecode
+     */
+    public boolean isGenerated()
+    {
+        return generated != null;
+    }
+
+    /**
+     * @return a fresh context to run the script in, reading the console and printing (buffered) to System.out
+     */
+    public ExecutionContext newContext()
+    {
+        return new ExecutionContext(procedure, protocols);
+    }
+
+    /**
+     * Runs the script until it falls off the end (or hits a line that didn't parse), then flushes the context's output.
+     * @param context context made by newContext(), fresh unless variables should carry over from the last run
+     */
+    public void run(ExecutionContext context)
+    {
+        try {
+            if(generated != null)
+            {
+                generated.accept(context);
+            } else {
+                interpret(context);
+            }
+        } finally {
+            context.flush();
+        }
+    }
+
+    private void interpret(ExecutionContext context)
+    {
+        interpret(context, new Executor(context));
+    }
+
+    /**
+     * The tree backend's loop, with an executor made for the context. Parallel loops run the same procedure over and over with one.
+     */
+    void interpret(ExecutionContext context, IExecutor executor)
+    {
+        context.unwind();
+        context.setProgramCounter(0);
+        while(step(context, executor) != STOP);
+    }
+
+    /**
+     * Same as run on the tree backend, with a checkpoint every so often (see Checkpointer). Starts at the context's program counter, so
+     * a context the checkpointer resumed carries on from the checkpoint. The checkpoint file goes once the script ends.
+     */
+    public void run(ExecutionContext context, Checkpointer checkpointer)
+    {
+        try {
+            checkpointed(context, checkpointer);
+            checkpointer.finish();
+        } finally {
+            context.flush();
+            checkpointer.close();
+        }
+    }
+
+    /**
+     * The tree backend's loop, polling the checkpointer every so many instructions. Kept separate so normal runs don't pay for the count.
+     */
+    private void checkpointed(ExecutionContext context, Checkpointer checkpointer)
+    {
+        context.unwind();
+        IExecutor executor = new Executor(context);
+        int countdown = checkpointer.start(context);
+
+        do {
+            if(--countdown == 0)
+            {
+                // Between two statements, the program counter is the next one.
+                countdown = checkpointer.poll(context);
+            }
+        } while(step(context, executor) != STOP);
+    }
+
+    /**
+     * What step returns once the script is done.
+     */
+    private static final int STOP = Integer.MIN_VALUE;
+
+    /**
+     * Runs the statement at the context's program counter, or goes back to the caller if a call fell off its end.
+     * @return STOP when the script fell off the end or hit a line that didn't parse, otherwise what IExecutor.execute returns
+     * (1 after going back to the caller)
+     */
+    private static int step(ExecutionContext context, IExecutor executor)
+    {
+        Instruction[] instructions = context.getProcedure().getInstructions();
+        int index = context.getProgramCounter();
+        if(index >= instructions.length)
+        {
+            // Fell off the end, of the script or of a call.
+            if(context.getDepth() == 0)
+            {
+                return STOP;
+            }
+            executor.returnToCaller();
+            return 1;
+        }
+        Instruction instruction = instructions[index];
+
+        // Read the next instruction! Jumps overwrite this during execution.
+        context.setProgramCounter(index + 1);
+
+        if(instruction.getTokenMap() == null)
+        {
+            // Error!
+            context.flush();
+            Interpreter.log("Interpreter encountered error while parsing line: " + instruction.getLine());
+            return STOP;
+        }
+
+        int result = execute(instruction, executor, context);
+        if(result < 0)
+        {
+            context.flush();
+            Interpreter.log("Interpreter encountered error while executing line: " + instruction.getLine());
+        }
+        return result;
+    }
+
+    /**
+     * One step of the tree backend: the superinstruction if the statement has one and it can run it, the executor otherwise.
+     * @return what IExecutor.execute returns
+     */
+    private static int execute(Instruction instruction, IExecutor executor, ExecutionContext context)
+    {
+        Superinstruction fused = instruction.getFused();
+        if(fused != null && fused.execute(context))
+        {
+            return 0;
+        }
+        return executor.execute(instruction.getTokenMap());
+    }
+
+    /**
+     * Same as run, but times every instruction on the tree backend. Kept separate so normal runs don't pay for the clock.
+     * Only the script's own lines are profiled, a call counts once with everything that ran until it returned.
+     */
+    public void profile(ExecutionContext context, Profiler profiler)
+    {
+        context.unwind();
+        IExecutor executor = new Executor(context);
+        int call = -1; // Call statement of the script that's in progress
+        long callStart = 0;
+
+        context.setProgramCounter(0);
+        long start = System.nanoTime();
+        while(true)
+        {
+            int index = context.getProgramCounter();
+            int depth = context.getDepth();
+            long before = System.nanoTime();
+            int result = step(context, executor);
+            if(result == STOP)
+            {
+                break;
+            }
+
+            if(depth == 0 && result > 0)
+            {
+                call = index;
+                callStart = before;
+            } else if(depth == 0) {
+                profiler.record(index, System.nanoTime() - before);
+            } else if(context.getDepth() == 0) {
+                // Back from the call.
+                profiler.record(call, System.nanoTime() - callStart);
+            }
+        }
+        profiler.finish(System.nanoTime() - start);
+        context.flush();
+    }
+}
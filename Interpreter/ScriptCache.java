@@ -0,0 +1,161 @@
+package Interpreter;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compiled scripts by the SHA-256 of their source, so a script that has been seen before skips the compiler and optimizer entirely.
+ * Holds at most capacity scripts and evicts the least recently used. Safe to share between threads: the lock only covers the map,
+ * compiling happens outside it, and threads asking for a script that is still compiling wait for that compile instead of starting another.
+ */
+public class ScriptCache {
+    private final Engine engine;
+    private final int capacity;
+    private final LinkedHashMap<String, FutureTask<Script>> scripts;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * @param engine compiles the scripts that aren't cached yet
+     * @param capacity most scripts kept at once
+     */
+    public ScriptCache(Engine engine, int capacity)
+    {
+        this.engine = engine;
+        this.capacity = capacity;
+        // Access order, so the eldest entry is the least recently used one.
+        scripts = new LinkedHashMap<String, FutureTask<Script>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, FutureTask<Script>> eldest)
+            {
+                if(size() > ScriptCache.this.capacity)
+                {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * @param path .goss file. It is still read every time, but only hashed unless it changed.
+     * @return the compiled script. Null if no START flag was found.
+     */
+    public Script get(Path path) throws IOException
+    {
+        return get(Files.readAllBytes(path));
+    }
+
+    /**
+     * @param source whole source file
+     * @return the compiled script. Null if no START flag was found.
+     */
+    public Script get(String source)
+    {
+        return get(source.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private Script get(byte[] source)
+    {
+        String key = hash(source);
+        FutureTask<Script> task;
+        boolean compile = false;
+
+        synchronized(scripts)
+        {
+            task = scripts.get(key);
+            if(task == null)
+            {
+                task = new FutureTask<Script>(() -> engine.compile(new String(source, StandardCharsets.UTF_8).split("\r?\n")));
+                scripts.put(key, task);
+                compile = true;
+            }
+        }
+
+        if(compile)
+        {
+            misses.incrementAndGet();
+            task.run();
+        } else {
+            hits.incrementAndGet();
+        }
+
+        try {
+            return task.get();
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch(ExecutionException e) {
+            // Don't keep a broken compile around, the next caller gets to try again.
+            synchronized(scripts)
+            {
+                scripts.remove(key, task);
+            }
+            Interpreter.log("Err. Compiling script failed: " + e.getCause());
+            return null;
+        }
+    }
+
+    private static String hash(byte[] source)
+    {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(source));
+        } catch(NoSuchAlgorithmException e) {
+            // Every JVM has to ship SHA-256.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public long getHits()
+    {
+        return hits.get();
+    }
+
+    public long getMisses()
+    {
+        return misses.get();
+    }
+
+    public long getEvictions()
+    {
+        return evictions.get();
+    }
+
+    /**
+     * @return scripts currently cached, including ones still compiling
+     */
+    public int size()
+    {
+        synchronized(scripts)
+        {
+            return scripts.size();
+        }
+    }
+
+    public void clear()
+    {
+        synchronized(scripts)
+        {
+            scripts.clear();
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return "ScriptCache[size=" + size() + "/" + capacity + ", hits=" + hits + ", misses=" + misses + ", evictions=" + evictions + "]";
+    }
+}
@@ -0,0 +1,282 @@
+package Interpreter;
+
+import Interpreter.Interfaces.IDecoder;
+import Interpreter.Interfaces.ITokenMap;
+
+import java.util.HashMap;
+
+/**
+ * A statement of one of the shapes loops are made of, with its operands already resolved to slots and constants, so the tree backend
+ * runs it in one step instead of going through the Executor and the Evaluator's stack:
+ *
+ *     x = a + b       (any of + - * / %, a and b variables or whole number literals)
+ *     jump? a < b tag (any comparator)
+ *     jump tag
+ *
+ * Only plain longs take the short way. Anything else (a BigInteger, a string, an overflow, a division by zero, a variable that was
+ * never assigned) falls back to the Executor, which does exactly what it always did, error messages included.
+ * The Engine fuses procedures for the tree backend unless told not to, see fuse().
+ */
+public final class Superinstruction {
+    private static final int ARITHMETIC = 0;
+    private static final int COMPARE_JUMP = 1;
+    private static final int JUMP = 2;
+
+    private static final int EQUAL = 0;
+    private static final int NOT_EQUAL = 1;
+    private static final int LESS = 2;
+    private static final int LESS_OR_EQUAL = 3;
+    private static final int GREATER = 4;
+    private static final int GREATER_OR_EQUAL = 5;
+
+    private static final HashMap<String, Integer> COMPARISONS = new HashMap<String, Integer>();
+    static
+    {
+        COMPARISONS.put("==", EQUAL);
+        COMPARISONS.put("!=", NOT_EQUAL);
+        COMPARISONS.put("<", LESS);
+        COMPARISONS.put("<=", LESS_OR_EQUAL);
+        COMPARISONS.put(">", GREATER);
+        COMPARISONS.put(">=", GREATER_OR_EQUAL);
+    }
+
+    private final int kind;
+    private final int operator; // The character for ARITHMETIC, one of the comparisons above for COMPARE_JUMP
+    private final int leftSlot, rightSlot; // -1 for a literal
+    private final long left, right; // The literals
+    private final int target; // Slot assigned to, or instruction index jumped to
+
+    private Superinstruction(int kind, int operator, int leftSlot, long left, int rightSlot, long right, int target)
+    {
+        this.kind = kind;
+        this.operator = operator;
+        this.leftSlot = leftSlot;
+        this.left = left;
+        this.rightSlot = rightSlot;
+        this.right = right;
+        this.target = target;
+    }
+
+    /**
+     * Runs the statement if its operands are plain longs.
+     * @return false if it didn't, the Executor has to run the statement instead.
+     */
+    public boolean execute(ExecutionContext context)
+    {
+        if(kind == JUMP)
+        {
+            context.setProgramCounter(target);
+            return true;
+        }
+
+        Variables variables = context.variables;
+        byte[] tags = variables.tags;
+        if(!isNumber(tags, leftSlot) || !isNumber(tags, rightSlot))
+        {
+            return false;
+        }
+        long[] numbers = variables.numbers;
+        long x = leftSlot >= 0 ? numbers[leftSlot] : left;
+        long y = rightSlot >= 0 ? numbers[rightSlot] : right;
+
+        if(kind == COMPARE_JUMP)
+        {
+            boolean taken;
+            switch(operator)
+            {
+                case EQUAL: taken = x == y; break;
+                case NOT_EQUAL: taken = x != y; break;
+                case LESS: taken = x < y; break;
+                case LESS_OR_EQUAL: taken = x <= y; break;
+                case GREATER: taken = x > y; break;
+                default: taken = x >= y; break;
+            }
+            if(taken)
+            {
+                context.setProgramCounter(target);
+            }
+            return true;
+        }
+
+        long result;
+        try {
+            switch(operator)
+            {
+                case '+':
+                    result = Math.addExact(x, y);
+                    break;
+
+                case '-':
+                    result = Math.subtractExact(x, y);
+                    break;
+
+                case '*':
+                    result = Math.multiplyExact(x, y);
+                    break;
+
+                default:
+                    // Division by zero is the Executor's to report, Long.MIN_VALUE / -1 the Evaluator's to make a BigInteger.
+                    if(y == 0 || (y == -1 && x == Long.MIN_VALUE))
+                    {
+                        return false;
+                    }
+                    result = operator == '/' ? x / y : x % y;
+                    break;
+            }
+        } catch(ArithmeticException overflow) {
+            return false;
+        }
+        variables.write(target, Values.NUMBER, result, null);
+        return true;
+    }
+
+    /**
+     * @return true for a literal, or a variable holding a long
+     */
+    private static boolean isNumber(byte[] tags, int slot)
+    {
+        return slot < 0 || (slot < tags.length && tags[slot] == Values.NUMBER);
+    }
+
+    /**
+     * Instruction selection for the tree backend: attaches a superinstruction to every statement with one of the shapes above.
+     * Statements that are still encoded (see Instruction) are fused when they're decoded, so fusing doesn't decode them all.
+     * @return the procedure with its fusable statements fused, the same one if there are none.
+     */
+    public static Procedure fuse(Procedure procedure)
+    {
+        Instruction[] instructions = procedure.getInstructions();
+        Instruction[] fused = instructions.clone();
+        int count = 0, encoded = 0;
+        Lazy lazy = null;
+        for(int i = 0; i < instructions.length; i++)
+        {
+            if(!instructions[i].isDecoded())
+            {
+                if(lazy == null)
+                {
+                    lazy = new Lazy(instructions, procedure);
+                }
+                fused[i] = new Instruction(lazy, i, instructions[i].getLine());
+                encoded++;
+                continue;
+            }
+            Superinstruction superinstruction = select(instructions[i].getTokenMap(), procedure);
+            if(superinstruction != null)
+            {
+                fused[i] = new Instruction(instructions[i].getTokenMap(), instructions[i].getLine(), superinstruction);
+                count++;
+            }
+        }
+        Interpreter.log("Fused " + count + " of " + instructions.length + " statements into superinstructions"
+            + (encoded > 0 ? ", " + encoded + " more are fused when they're first run." : "."));
+        if(count == 0 && encoded == 0)
+        {
+            return procedure;
+        }
+        return new Procedure(fused, procedure.getTagIndices(), procedure.getSymbols(), procedure.getParameters(), procedure.getResults(),
+            procedure.makesCalls());
+    }
+
+    /**
+     * Decodes a statement of the unfused procedure and fuses it, for statements that were still encoded when the procedure was fused.
+     */
+    private static final class Lazy implements IDecoder {
+        private final Instruction[] instructions;
+        private final Procedure procedure;
+
+        Lazy(Instruction[] instructions, Procedure procedure)
+        {
+            this.instructions = instructions;
+            this.procedure = procedure;
+        }
+
+        @Override
+        public Instruction decode(int position, int line)
+        {
+            ITokenMap tm = instructions[position].getTokenMap();
+            return new Instruction(tm, line, select(tm, procedure));
+        }
+    }
+
+    /**
+     * @return the superinstruction for the statement, null if it isn't a shape that has one.
+     */
+    private static Superinstruction select(ITokenMap tm, Procedure procedure)
+    {
+        // Only what the compiler resolved, anything else keeps going through the Executor.
+        if(tm == null || tm.getSlots() == null || tm.getLiterals() == null)
+        {
+            return null;
+        }
+        int[] kinds = tm.getKinds();
+        int[] slots = tm.getSlots();
+
+        if(tm.size() == 2 && tm.getKeywordIndex() == 0 && tm.tokenEquals(0, "jump"))
+        {
+            int target = procedure.getTagIndex(slots[1]);
+            return target >= 0 ? new Superinstruction(JUMP, 0, -1, 0, -1, 0, target) : null;
+        }
+        if(tm.size() != 5)
+        {
+            return null;
+        }
+
+        if(tm.getKeywordIndex() == 0 && tm.tokenEquals(0, "jump?"))
+        {
+            // jump? a < b tag
+            int comparison = kinds[2] == ITokenMap.COMPARATOR ? comparison(tm, 2) : -1;
+            int target = kinds[4] == ITokenMap.VARIABLE ? procedure.getTagIndex(slots[4]) : -1;
+            if(comparison < 0 || target < 0 || !isOperand(tm, 1) || !isOperand(tm, 3))
+            {
+                return null;
+            }
+            return new Superinstruction(COMPARE_JUMP, comparison, slot(tm, 1), literal(tm, 1), slot(tm, 3), literal(tm, 3), target);
+        }
+
+        if(kinds[0] == ITokenMap.VARIABLE && slots[0] >= 0 && tm.getAssignmentIndex() == 1 && tm.tokenEquals(1, "=")
+            && kinds[3] == ITokenMap.OPERATOR && isOperand(tm, 2) && isOperand(tm, 4))
+        {
+            // x = a + b
+            char operator = tm.getSource().charAt(tm.getOffsets()[3]);
+            return new Superinstruction(ARITHMETIC, operator, slot(tm, 2), literal(tm, 2), slot(tm, 4), literal(tm, 4), slots[0]);
+        }
+        return null;
+    }
+
+    /**
+     * @return true for a variable the compiler gave a slot, or a whole number literal that fits a long
+     */
+    private static boolean isOperand(ITokenMap tm, int i)
+    {
+        switch(tm.getKinds()[i])
+        {
+            case ITokenMap.VARIABLE:
+                // !x isn't a plain variable.
+                return tm.getSlots()[i] >= 0 && tm.getSource().charAt(tm.getOffsets()[i]) != '!';
+            case ITokenMap.NUMERIC:
+                return tm.getLiterals().getTags()[i] == Values.NUMBER;
+            default:
+                return false;
+        }
+    }
+
+    private static int slot(ITokenMap tm, int i)
+    {
+        return tm.getKinds()[i] == ITokenMap.VARIABLE ? tm.getSlots()[i] : -1;
+    }
+
+    private static long literal(ITokenMap tm, int i)
+    {
+        return tm.getKinds()[i] == ITokenMap.NUMERIC ? tm.getLiterals().getNumbers()[i] : 0;
+    }
+
+    /**
+     * @return the comparison the token is, -1 if it isn't one
+     */
+    private static int comparison(ITokenMap tm, int i)
+    {
+        Integer comparison = COMPARISONS.get(tm.getToken(i));
+        return comparison == null ? -1 : comparison;
+    }
+}
@@ -0,0 +1,48 @@
+package Interpreter;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Maps variable names to slots. The compiler resolves every variable it sees, so at runtime a variable is just an index into a flat array.
+ */
+public class SymbolTable {
+    private final HashMap<String, Integer> slots = new HashMap<String, Integer>();
+    private final ArrayList<String> names = new ArrayList<String>();
+
+    /**
+     * @param name variable name
+     * @return slot of the variable, a new one if it hasn't been seen before.
+     */
+    public int resolve(String name)
+    {
+        Integer slot = slots.get(name);
+        if(slot == null)
+        {
+            slot = names.size();
+            slots.put(name, slot);
+            names.add(name);
+        }
+        return slot;
+    }
+
+    /**
+     * @param name variable name
+     * @return slot of the variable or -1 if it doesn't have one.
+     */
+    public int lookup(String name)
+    {
+        Integer slot = slots.get(name);
+        return slot == null ? -1 : slot;
+    }
+
+    public String getName(int slot)
+    {
+        return names.get(slot);
+    }
+
+    public int size()
+    {
+        return names.size();
+    }
+}
@@ -0,0 +1,59 @@
+package Interpreter;
+
+import Interpreter.Interfaces.IOutput;
+
+/**
+ * Keeps everything printed in memory, for runs whose output has to wait its turn (batch records, chunks of a parallel loop).
+ */
+public class TextOutput implements IOutput {
+    private final StringBuilder text = new StringBuilder();
+
+    @Override
+    public void println(String line)
+    {
+        text.append(line).append(System.lineSeparator());
+    }
+
+    @Override
+    public void flush()
+    {
+        // Whoever made it writes it out, in order.
+    }
+
+    /**
+     * Adds what another TextOutput printed after what this one printed.
+     */
+    public void append(TextOutput other)
+    {
+        text.append(other.text);
+    }
+
+    /**
+     * Prints every line again to another output.
+     */
+    public void writeTo(IOutput output)
+    {
+        String separator = System.lineSeparator();
+        int start = 0;
+        int end;
+        while((end = text.indexOf(separator, start)) >= 0)
+        {
+            output.println(text.substring(start, end));
+            start = end + separator.length();
+        }
+    }
+
+    public boolean isEmpty()
+    {
+        return text.length() == 0;
+    }
+
+    /**
+     * @return everything printed, every line ended with the line separator
+     */
+    @Override
+    public String toString()
+    {
+        return text.toString();
+    }
+}
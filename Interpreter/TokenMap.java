@@ -3,24 +3,147 @@ package Interpreter;
 import Interpreter.Interfaces.ITokenMap;
 
 public class TokenMap implements ITokenMap{
-    private String[] tokens;
-    private String[] tokenTypes;
+    private final String source;
+    private final int[] kinds;
+    private final int[] offsets;
+    private final int[] lengths;
+    private final int[] operatorPositions;
+    private final int keywordIndex;
+    private final int assignmentIndex;
+    private final int[] slots;
+    private final Literals literals;
 
-    public TokenMap(String[] tokens, String[] tokenTypes)
+    public TokenMap(String source, int[] kinds, int[] offsets, int[] lengths)
     {
-        this.tokens = tokens;
-        this.tokenTypes = tokenTypes;
+        this.source = source;
+        this.kinds = kinds;
+        this.offsets = offsets;
+        this.lengths = lengths;
+        this.slots = null;
+        this.literals = null;
+
+        int operatorCount = 0;
+        int keyword = -1, assignment = -1;
+        for(int i = 0; i < kinds.length; i++)
+        {
+            if(isOperator(kinds[i]))
+            {
+                operatorCount++;
+            } else if(kinds[i] == KEYWORD && keyword < 0) {
+                keyword = i;
+            } else if(kinds[i] == ASSIGNMENT && assignment < 0) {
+                assignment = i;
+            }
+        }
+        keywordIndex = keyword;
+        assignmentIndex = assignment;
+
+        operatorPositions = new int[operatorCount];
+        for(int i = 0, j = 0; i < kinds.length; i++)
+        {
+            if(isOperator(kinds[i]))
+            {
+                operatorPositions[j++] = i;
+            }
+        }
+    }
+
+    /**
+     * Same tokens with variable slots and literal values attached. Used by the compiler.
+     */
+    public TokenMap(ITokenMap tm, int[] slots, Literals literals)
+    {
+        this.source = tm.getSource();
+        this.kinds = tm.getKinds();
+        this.offsets = tm.getOffsets();
+        this.lengths = tm.getLengths();
+        this.operatorPositions = tm.getOperatorPositions();
+        this.keywordIndex = tm.getKeywordIndex();
+        this.assignmentIndex = tm.getAssignmentIndex();
+        this.slots = slots;
+        this.literals = literals;
+    }
+
+    private static boolean isOperator(int kind)
+    {
+        return kind == COMPARATOR || kind == BOPERATOR || kind == OPERATOR;
+    }
+
+    @Override
+    public int size()
+    {
+        return kinds.length;
+    }
+
+    @Override
+    public String getSource()
+    {
+        return source;
+    }
+
+    @Override
+    public int[] getKinds()
+    {
+        return kinds;
+    }
+
+    @Override
+    public int[] getOffsets()
+    {
+        return offsets;
+    }
+
+    @Override
+    public int[] getLengths()
+    {
+        return lengths;
+    }
+
+    @Override
+    public String getToken(int i)
+    {
+        return source.substring(offsets[i], offsets[i] + lengths[i]);
+    }
+
+    @Override
+    public String getTokenType(int i)
+    {
+        return Parser.typeName(kinds[i]);
+    }
+
+    @Override
+    public boolean tokenEquals(int i, String s)
+    {
+        return lengths[i] == s.length() && source.regionMatches(offsets[i], s, 0, lengths[i]);
+    }
+
+    @Override
+    public int[] getOperatorPositions()
+    {
+        return operatorPositions;
+    }
+
+    @Override
+    public int getKeywordIndex()
+    {
+        return keywordIndex;
+    }
+
+    @Override
+    public int getAssignmentIndex()
+    {
+        return assignmentIndex;
     }
 
     @Override
-    public String[] getTokens()
+    public int[] getSlots()
     {
-        return tokens;
+        return slots;
     }
 
     @Override
-    public String[] getTokenTypes()
+    public Literals getLiterals()
     {
-        return tokenTypes;
+        return literals;
     }
 }
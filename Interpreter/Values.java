@@ -0,0 +1,236 @@
+package Interpreter;
+
+import java.math.BigInteger;
+
+/**
+ * Values are a tag plus a long plus an Object, always kept in parallel arrays so nothing gets boxed:
+ * - NUMBER: the long
+ * - BOOLEAN: the long, 1 or 0
+ * - STRING: the Object, without quotes
+ * - BIG: the Object, a BigInteger. Only for whole numbers that don't fit a long, anything that fits goes back to being a NUMBER.
+ * - DECIMAL: the long, holding the bits of a double
+ * - ARRAY: the Object, an ArrayValue
+ * NONE marks a variable that was never assigned (or a literal that couldn't be decoded).
+ *
+ * Arithmetic on two NUMBERs stays on longs and only goes through arithmetic() (BigInteger or double) when it overflows or an
+ * operand is BIG or DECIMAL, so BigInteger is only paid for where it's needed.
+ */
+public final class Values {
+    public static final byte NONE = 0;
+    public static final byte NUMBER = 1;
+    public static final byte BOOLEAN = 2;
+    public static final byte STRING = 3;
+    public static final byte BIG = 4;
+    public static final byte DECIMAL = 5;
+    public static final byte ARRAY = 6;
+
+    private Values() {}
+
+    /**
+     * @return how the value is printed by out
+     */
+    public static String toText(byte tag, long number, Object object)
+    {
+        switch(tag)
+        {
+            case NUMBER:
+                return Long.toString(number);
+            case BOOLEAN:
+                return number != 0 ? "true" : "false";
+            case STRING:
+                return (String)object;
+            case BIG:
+                return object.toString();
+            case DECIMAL:
+                return Double.toString(Double.longBitsToDouble(number));
+            case ARRAY:
+                return object.toString();
+            default:
+                return "";
+        }
+    }
+
+    /**
+     * @return true for NUMBER, BIG and DECIMAL
+     */
+    public static boolean isNumber(byte tag)
+    {
+        return tag == NUMBER || tag == BIG || tag == DECIMAL;
+    }
+
+    /**
+     * Numbers compare by value, whatever their type. Other values of the same type compare directly, anything else compares by how it's printed (so "5" == 5, like it always has).
+     */
+    public static boolean equal(byte lTag, long lNumber, Object lObject, byte rTag, long rNumber, Object rObject)
+    {
+        if(isNumber(lTag) && isNumber(rTag))
+        {
+            // 2 == 2.0
+            return compare(lTag, lNumber, lObject, rTag, rNumber, rObject) == 0;
+        }
+        if(lTag == ARRAY || rTag == ARRAY)
+        {
+            // Same array, not just the same elements.
+            return lObject == rObject;
+        }
+        if(lTag == rTag)
+        {
+            return lTag == STRING ? lObject.equals(rObject) : lNumber == rNumber;
+        }
+        return toText(lTag, lNumber, lObject).equals(toText(rTag, rNumber, rObject));
+    }
+
+    /**
+     * Orders two numbers (NUMBER, BIG or DECIMAL, in any mix).
+     * @return < 0, 0 or > 0 like compareTo
+     */
+    public static int compare(byte lTag, long lNumber, Object lObject, byte rTag, long rNumber, Object rObject)
+    {
+        if(lTag == NUMBER && rTag == NUMBER)
+        {
+            return Long.compare(lNumber, rNumber);
+        }
+        if(lTag == DECIMAL || rTag == DECIMAL)
+        {
+            double l = toDouble(lTag, lNumber, lObject), r = toDouble(rTag, rNumber, rObject);
+            return l < r ? -1 : (l > r ? 1 : 0);
+        }
+        return toBig(lTag, lNumber, lObject).compareTo(toBig(rTag, rNumber, rObject));
+    }
+
+    /**
+     * Slow path of + - * / %, for when the long arithmetic overflowed or an operand is BIG or DECIMAL. Any DECIMAL makes it double
+     * arithmetic, otherwise it's BigInteger and the result goes back to a long if it fits.
+     * @param operator one of + - * / %
+     * @param numbers where the result's long goes, at index
+     * @param objects where the result's Object goes, at index
+     * @return tag of the result, NONE for division by zero.
+     */
+    public static byte arithmetic(char operator, byte lTag, long lNumber, Object lObject, byte rTag, long rNumber, Object rObject,
+                                  long[] numbers, Object[] objects, int index)
+    {
+        if(lTag == DECIMAL || rTag == DECIMAL)
+        {
+            double l = toDouble(lTag, lNumber, lObject), r = toDouble(rTag, rNumber, rObject);
+            double result;
+            switch(operator)
+            {
+                case '+': result = l + r; break;
+                case '-': result = l - r; break;
+                case '*': result = l * r; break;
+                default:
+                    if(r == 0)
+                    {
+                        return NONE;
+                    }
+                    result = operator == '/' ? l / r : l % r;
+                    break;
+            }
+            numbers[index] = Double.doubleToRawLongBits(result);
+            objects[index] = null;
+            return DECIMAL;
+        }
+
+        BigInteger l = toBig(lTag, lNumber, lObject), r = toBig(rTag, rNumber, rObject);
+        BigInteger result;
+        switch(operator)
+        {
+            case '+': result = l.add(r); break;
+            case '-': result = l.subtract(r); break;
+            case '*': result = l.multiply(r); break;
+            default:
+                if(r.signum() == 0)
+                {
+                    return NONE;
+                }
+                // Both truncate towards zero, same as long / and %.
+                result = operator == '/' ? l.divide(r) : l.remainder(r);
+                break;
+        }
+        return fromBig(result, numbers, objects, index);
+    }
+
+    /**
+     * Stores a whole number, as a NUMBER if it fits a long.
+     * @return NUMBER or BIG
+     */
+    public static byte fromBig(BigInteger value, long[] numbers, Object[] objects, int index)
+    {
+        if(value.bitLength() < 64)
+        {
+            numbers[index] = value.longValue();
+            objects[index] = null;
+            return NUMBER;
+        }
+        numbers[index] = 0;
+        objects[index] = value;
+        return BIG;
+    }
+
+    public static BigInteger toBig(byte tag, long number, Object object)
+    {
+        return tag == BIG ? (BigInteger)object : BigInteger.valueOf(number);
+    }
+
+    public static double toDouble(byte tag, long number, Object object)
+    {
+        switch(tag)
+        {
+            case BIG:
+                return ((BigInteger)object).doubleValue();
+            case DECIMAL:
+                return Double.longBitsToDouble(number);
+            default:
+                return number;
+        }
+    }
+
+    /**
+     * Decodes a numeric literal, or text that looks like one (digits, optionally followed by a point and more digits).
+     * @param numbers where the long goes, at index
+     * @param objects where the Object goes, at index
+     * @return NUMBER, BIG or DECIMAL, NONE if s isn't a number.
+     */
+    public static byte parseNumber(String s, long[] numbers, Object[] objects, int index)
+    {
+        if(isNumeric(s))
+        {
+            // 18 digits always fit, no need to go through BigInteger.
+            if(s.length() <= 18)
+            {
+                numbers[index] = Long.parseLong(s);
+                objects[index] = null;
+                return NUMBER;
+            }
+            return fromBig(new BigInteger(s), numbers, objects, index);
+        }
+        int point = s.indexOf('.');
+        if(point > 0 && point < s.length() - 1 && isNumeric(s.substring(0, point)) && isNumeric(s.substring(point + 1)))
+        {
+            numbers[index] = Double.doubleToRawLongBits(Double.parseDouble(s));
+            objects[index] = null;
+            return DECIMAL;
+        }
+        return NONE;
+    }
+
+    /**
+     * @param s
+     * @return true if s is a non-empty string of digits
+     */
+    public static boolean isNumeric(String s)
+    {
+        if(s.isEmpty())
+        {
+            return false;
+        }
+        for(int i = 0; i < s.length(); i++)
+        {
+            if(s.charAt(i) < '0' || s.charAt(i) > '9')
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,115 @@
+package Interpreter;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Variable values by slot, see Values. Numbers and booleans never leave the long array.
+ */
+class Variables {
+    final SymbolTable symbols; // Slots resolved by the compiler, e.g. i1 -> 0
+    private final HashMap<String, Integer> dynamicSlots = new HashMap<String, Integer>(); // Names the compiler never saw
+
+    byte[] tags;
+    long[] numbers;
+    Object[] objects;
+
+    Variables(SymbolTable symbols)
+    {
+        this.symbols = symbols;
+        int capacity = Math.max(symbols.size(), 16);
+        tags = new byte[capacity];
+        numbers = new long[capacity];
+        objects = new Object[capacity];
+    }
+
+    /**
+     * Forgets every value so the variables can be used for another call of the same procedure, see ExecutionContext.
+     */
+    void clear()
+    {
+        Arrays.fill(tags, Values.NONE);
+        Arrays.fill(objects, null);
+        dynamicSlots.clear();
+    }
+
+    /**
+     * @return tag of the variable in slot, NONE if it was never assigned.
+     */
+    byte tag(int slot)
+    {
+        return slot >= 0 && slot < tags.length ? tags[slot] : Values.NONE;
+    }
+
+    void write(int slot, byte tag, long number, Object object)
+    {
+        if(slot >= tags.length)
+        {
+            int capacity = Math.max(slot + 1, tags.length * 2);
+            tags = Arrays.copyOf(tags, capacity);
+            numbers = Arrays.copyOf(numbers, capacity);
+            objects = Arrays.copyOf(objects, capacity);
+        }
+        tags[slot] = tag;
+        numbers[slot] = number;
+        objects[slot] = object;
+    }
+
+    /**
+     * @return slots in use, the compiled ones and the ones handed out since. Slots from here on have never been assigned.
+     */
+    int size()
+    {
+        return symbols.size() + dynamicSlots.size();
+    }
+
+    /**
+     * @return name of the variable in slot, slot has to be below size()
+     */
+    String name(int slot)
+    {
+        if(slot < symbols.size())
+        {
+            return symbols.getName(slot);
+        }
+        for(Map.Entry<String, Integer> dynamic : dynamicSlots.entrySet())
+        {
+            if(dynamic.getValue() == slot)
+            {
+                return dynamic.getKey();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return slot of a variable the compiler didn't resolve, -1 if it has never been assigned.
+     */
+    int lookupSlot(String name)
+    {
+        int slot = symbols.lookup(name);
+        if(slot >= 0)
+        {
+            return slot;
+        }
+        Integer dynamic = dynamicSlots.get(name);
+        return dynamic == null ? -1 : dynamic;
+    }
+
+    /**
+     * Slot for a variable the compiler didn't resolve. Names it never saw go after the compiled slots.
+     */
+    int resolveSlot(String name)
+    {
+        int slot = lookupSlot(name);
+        if(slot >= 0)
+        {
+            return slot;
+        }
+
+        slot = symbols.size() + dynamicSlots.size();
+        dynamicSlots.put(name, slot);
+        return slot;
+    }
+}
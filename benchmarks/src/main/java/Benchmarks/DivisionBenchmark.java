@@ -0,0 +1,53 @@
+package Benchmarks;
+
+import Interpreter.Engine;
+import Interpreter.ExecutionContext;
+import Interpreter.Interpreter;
+import Interpreter.Script;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Division from Examples with in fed the same lines every run: 7, then 0 (asks again), then 2.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DivisionBenchmark {
+    private static final String INPUT = "7\n0\n2\n";
+
+    @Param({"true", "false"})
+    public boolean optimize;
+
+    @Param({"Tree", "Closure", "Bytecode"})
+    public Interpreter.backendMode backend;
+
+    private Script script;
+    private PrintStream output;
+
+    @Setup
+    public void setup() throws IOException
+    {
+        script = new Engine(optimize, backend).compile(ScriptBenchmark.read("Division.goss").split("\n"));
+        output = new PrintStream(OutputStream.nullOutputStream());
+    }
+
+    @Benchmark
+    public void division()
+    {
+        ExecutionContext context = script.newContext();
+        context.setOutput(output);
+        context.setInput(new BufferedReader(new StringReader(INPUT)));
+        script.run(context);
+    }
+}
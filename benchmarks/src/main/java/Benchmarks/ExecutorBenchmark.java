@@ -0,0 +1,105 @@
+package Benchmarks;
+
+import Interpreter.Compiler;
+import Interpreter.ExecutionContext;
+import Interpreter.Executor;
+import Interpreter.Instruction;
+import Interpreter.Procedure;
+import Interpreter.Script;
+import Interpreter.Interfaces.*;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One statement of every shape the Executor handles, on token maps compiled up front.
+ * The variables are set up like the middle of an Euler-1 run.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ExecutorBenchmark {
+    private static final String[] SETUP = {
+        "START",
+        "i = 7",
+        "total = 0",
+        "mod3 = 1",
+        "jump skip3", // So skip3 has a slot, like it would in a real script
+        "skip3:",
+        "END"
+    };
+
+    private Executor executor;
+    private ITokenMap comparison;
+    private ITokenMap operator;
+    private ITokenMap precedence;
+    private ITokenMap assignment;
+    private ITokenMap jumpIf;
+    private ITokenMap out;
+
+    @Setup
+    public void setup()
+    {
+        Compiler compiler = new Compiler();
+        Procedure procedure = compiler.compile(SETUP);
+        ExecutionContext context = new ExecutionContext(procedure);
+        context.setOutput(new PrintStream(OutputStream.nullOutputStream()));
+        new Script(procedure, null).run(context);
+        executor = new Executor(context);
+
+        comparison = compile(compiler, procedure, "i < 10");
+        operator = compile(compiler, procedure, "i % 3");
+        precedence = compile(compiler, procedure, "i + 2 * 3 - i / 2");
+        assignment = compile(compiler, procedure, "total = total + i");
+        jumpIf = compile(compiler, procedure, "jump? mod3 != 0 skip3");
+        out = compile(compiler, procedure, "out i");
+    }
+
+    private static ITokenMap compile(Compiler compiler, Procedure procedure, String statement)
+    {
+        Instruction instruction = compiler.compileStatement(statement, 0, procedure.getSymbols());
+        return instruction.getTokenMap();
+    }
+
+    @Benchmark
+    public int comparison()
+    {
+        return executor.execute(comparison);
+    }
+
+    @Benchmark
+    public int operator()
+    {
+        return executor.execute(operator);
+    }
+
+    @Benchmark
+    public int precedence()
+    {
+        return executor.execute(precedence);
+    }
+
+    @Benchmark
+    public int assignment()
+    {
+        return executor.execute(assignment);
+    }
+
+    @Benchmark
+    public int jumpIf()
+    {
+        return executor.execute(jumpIf);
+    }
+
+    @Benchmark
+    public int out()
+    {
+        return executor.execute(out);
+    }
+}
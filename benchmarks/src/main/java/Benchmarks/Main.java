@@ -0,0 +1,22 @@
+package Benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the GC profiler always on, so every result comes with its allocation rate (gc.alloc.rate.norm is bytes per op).
+ * Takes the usual JMH arguments, e.g. java -jar target/benchmarks.jar ScriptBenchmark -p max=1000
+ */
+public class Main {
+    public static void main(String[] args) throws Exception
+    {
+        Options options = new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,52 @@
+package Benchmarks;
+
+import Interpreter.Parser;
+import Interpreter.Interfaces.*;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parser on lines like the ones in the examples.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ParserBenchmark {
+    @Param({
+        "i = 1",
+        "mod3 = i % 3",
+        "jump? mod3 != 0 skip3",
+        "total = total + i",
+        "out \"---Division-Calculator---\"",
+        "op2     =     in",
+        "jump? k > 2 && k < 10 ok // with a comment"
+    })
+    public String line;
+
+    private IParser parser;
+    private String[] tokens;
+
+    @Setup
+    public void setup()
+    {
+        parser = new Parser();
+        tokens = line.trim().split("\\s+");
+    }
+
+    @Benchmark
+    public ITokenMap parseLine()
+    {
+        return parser.parseLine(line);
+    }
+
+    @Benchmark
+    public ITokenMap parse()
+    {
+        return parser.parse(tokens);
+    }
+}
@@ -0,0 +1,106 @@
+package Benchmarks;
+
+import Interpreter.Engine;
+import Interpreter.ExecutionContext;
+import Interpreter.Interpreter;
+import Interpreter.Script;
+import Interpreter.ScriptCache;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Euler-1 from Examples, looping to max instead of 10.
+ * Output goes nowhere so printing costs what it costs without filling the terminal.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ScriptBenchmark {
+    @Param({"10", "1000", "100000"})
+    public int max;
+
+    @Param({"true", "false"})
+    public boolean optimize;
+
+    @Param({"Tree", "Closure", "Bytecode"})
+    public Interpreter.backendMode backend;
+
+    @Param({"true", "false"})
+    public boolean fuse; // Superinstructions, tree backend only
+
+    private Engine engine;
+    private ScriptCache cache;
+    private String eulerSource;
+    private String[] euler;
+    private Script eulerScript;
+    private PrintStream output;
+
+    @Setup
+    public void setup() throws IOException
+    {
+        engine = new Engine(optimize, fuse, backend, Paths.get(""));
+        eulerSource = read("Euler-1.goss").replace("MAX = 10", "MAX = " + max).replace("i < 10", "i < MAX");
+        euler = eulerSource.split("\n");
+        cache = new ScriptCache(engine, 16);
+        eulerScript = engine.compile(euler);
+        output = new PrintStream(OutputStream.nullOutputStream());
+    }
+
+    /**
+     * Examples is next to benchmarks, JMH runs from wherever the jar was started.
+     */
+    static String read(String name) throws IOException
+    {
+        for(String directory : new String[]{ "Examples", "../Examples" })
+        {
+            Path path = Paths.get(directory, name);
+            if(Files.exists(path))
+            {
+                return Files.readString(path);
+            }
+        }
+        throw new IOException("Can't find Examples/" + name + ", run from the repo root or benchmarks.");
+    }
+
+    private void run(Script script)
+    {
+        ExecutionContext context = script.newContext();
+        context.setOutput(output);
+        script.run(context);
+    }
+
+    @Benchmark
+    public void euler()
+    {
+        run(eulerScript);
+    }
+
+    /**
+     * Including the compile and optimize steps, like running the file from the command line.
+     */
+    @Benchmark
+    public void eulerFromSource()
+    {
+        run(engine.compile(euler));
+    }
+
+    /**
+     * From source again, but through the cache, so only the hash is paid for.
+     */
+    @Benchmark
+    public void eulerFromCache()
+    {
+        run(cache.get(eulerSource));
+    }
+}
@@ -0,0 +1,46 @@
+package Benchmarks;
+
+import Interpreter.Engine;
+import Interpreter.ExecutionContext;
+import Interpreter.Interpreter;
+import Interpreter.Script;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sieve from Examples, arrays of booleans. max is how far it sieves.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SieveBenchmark {
+    @Param({"100000", "10000000"})
+    public int max;
+
+    @Param({"Tree", "Closure", "Bytecode"})
+    public Interpreter.backendMode backend;
+
+    private Script script;
+
+    @Setup
+    public void setup() throws IOException
+    {
+        String source = ScriptBenchmark.read("Sieve.goss").replace("MAX = 100", "MAX = " + max);
+        script = new Engine(true, backend).compile(source.split("\n"));
+    }
+
+    @Benchmark
+    public void sieve()
+    {
+        ExecutionContext context = script.newContext();
+        context.setOutput(OutputStream.nullOutputStream());
+        script.run(context);
+    }
+}